@@ -0,0 +1,117 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.chakray.usersapi.util.Sha1PasswordHashAlgorithm;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Datos sintéticos y deterministas para los benchmarks: nombres y emails desordenados (los índices
+ * ordenados trabajan como en producción), fechas repartidas en dos años y 0-3 direcciones por usuario.
+ * El repositorio en memoria se carga desde un snapshot temporal y el JDBC con una carga masiva sobre
+ * H2 en memoria; en ambos cada usuario conserva su createdAt.
+ */
+public final class BenchmarkDataset {
+
+    public static final long FIRST_ID = 1_000;
+
+    private static final String[] COUNTRIES = {"UK", "AU", "ES", "MX", "US", "FR", "DE"};
+    private static final Instant EPOCH = Instant.parse("2023-01-01T00:00:00Z");
+    private static final long SPAN_MILLIS = 2L * 365 * 24 * 3600 * 1000;
+
+    public static final PasswordHashingEngine HASHING =
+            new PasswordHashingEngine(new Sha1PasswordHashAlgorithm(), Runtime.getRuntime().availableProcessors(), 1024);
+
+    private BenchmarkDataset() {
+    }
+
+    public static List<User> users(int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        List<User> users = new ArrayList<>(count);
+        long addressId = 10;
+        for (int i = 0; i < count; i++) {
+            long id = FIRST_ID + i;
+            String token = Long.toString(random.nextLong(1L << 40), 36);
+            List<Address> addresses = new ArrayList<>();
+            int addressCount = random.nextInt(4);
+            for (int a = 0; a < addressCount; a++) {
+                addresses.add(new Address(addressId++, "address" + a, "street " + token + " " + a,
+                        COUNTRIES[random.nextInt(COUNTRIES.length)]));
+            }
+            users.add(new User(id, token + id + "@mail.com", "name " + token, "5baa61e4c9b93f3f0682250b6cf8331b7ee68fd8",
+                    EPOCH.plusMillis(random.nextLong(SPAN_MILLIS)), addresses));
+        }
+        return users;
+    }
+
+    // store = memory o jdbc (parámetro store de los benchmarks de repositorio)
+    public static UserRepository repository(String store, int count) {
+        return switch (store) {
+            case "memory" -> repository(count);
+            case "jdbc" -> jdbcRepository(count);
+            default -> throw new IllegalArgumentException("Almacenamiento desconocido: " + store);
+        };
+    }
+
+    // Repositorio JDBC sobre una base H2 en memoria nueva, con la misma configuración que application-jdbc
+    public static JdbcUserRepository jdbcRepository(int count) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("benchmark");
+        config.setJdbcUrl("jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";LOCK_TIMEOUT=10000");
+        config.setUsername("sa");
+        config.setMaximumPoolSize(Math.max(10, Runtime.getRuntime().availableProcessors()));
+        JdbcUserRepository repository = new JdbcUserRepository(new HikariDataSource(config), HASHING, 256, 500);
+        repository.init();
+        repository.insertAll(users(count));
+        return repository;
+    }
+
+    // Repositorio en memoria (sin WAL) con los usuarios semilla más count usuarios sintéticos
+    public static InMemoryUserRepository repository(int count) {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("benchmark-dataset");
+            List<User> users = users(count);
+            long lastAddressId = users.stream()
+                    .flatMap(user -> user.getAddresses().stream())
+                    .mapToLong(Address::getId)
+                    .max()
+                    .orElse(3);
+            SnapshotStore store = new SnapshotStore(directory, 1);
+            store.write(new SnapshotStore.Header(0, FIRST_ID + count, lastAddressId), users);
+            InMemoryUserRepository repository = new InMemoryUserRepository(WriteAheadLog.disabled(), Optional.of(store), HASHING);
+            repository.init();
+            return repository;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.CreatedAtFormat;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.chakray.usersapi.util.Sha1PasswordHashAlgorithm;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Tiempo hasta tener el repositorio listo: snapshot mapeado en memoria frente a reaplicar todo el WAL
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class ColdStartBenchmark {
+
+    private static final PasswordHashingEngine HASHING =
+            new PasswordHashingEngine(new Sha1PasswordHashAlgorithm(), Runtime.getRuntime().availableProcessors(), 1024);
+
+    private static final String[] COUNTRIES = {"UK", "AU", "ES", "MX", "US", "FR", "DE"};
+
+    @Param({"100000", "1000000"})
+    public int users;
+
+    @Param({"SNAPSHOT", "WAL"})
+    public String source;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cold-start-benchmark");
+        List<User> dataset = new ArrayList<>(users);
+        long addressId = 3;
+        for (long id = 126; id < 126 + users; id++) {
+            List<Address> addresses = List.of(
+                    new Address(++addressId, "home", "street " + id, COUNTRIES[(int) (id % COUNTRIES.length)]),
+                    new Address(++addressId, "work", "avenue " + id, COUNTRIES[(int) ((id + 3) % COUNTRIES.length)]));
+            dataset.add(new User(id, "user" + id + "@mail.com", "user" + id,
+                    "5baa61e4c9b93f3f0682250b6cf8331b7ee68fd8", CreatedAtFormat.parse("01-01-2024 00:00:00"), addresses));
+        }
+        if ("SNAPSHOT".equals(source)) {
+            new SnapshotStore(directory.resolve("snapshots"), 1)
+                    .write(new SnapshotStore.Header(1, 125 + users, addressId), dataset);
+        } else {
+            try (FileWriteAheadLog wal = openWal()) {
+                wal.replay(0, (record, lsn) -> { });
+                dataset.forEach(user -> wal.append(new WalRecord(WalRecord.Type.SAVE, user.getId(), user)));
+                wal.append(new WalRecord(WalRecord.Type.DELETE, -1L, null)).join();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Duration startUp() {
+        try (FileWriteAheadLog wal = openWal()) {
+            Optional<SnapshotStore> snapshots = "SNAPSHOT".equals(source)
+                    ? Optional.of(new SnapshotStore(directory.resolve("snapshots"), 1))
+                    : Optional.empty();
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, snapshots, HASHING);
+            repository.init();
+            return repository.getStartupDuration();
+        }
+    }
+
+    private FileWriteAheadLog openWal() {
+        return new FileWriteAheadLog(directory.resolve("wal"), FsyncPolicy.NONE, Duration.ofMillis(10), 4096, new ObjectMapper());
+    }
+}
@@ -0,0 +1,81 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Lecturas puntuales del repositorio; el número de hilos se elige con -t
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class RepositoryReadBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"memory", "jdbc"})
+    public String store;
+
+    private UserRepository repository;
+    private String[] emails;
+    // Consultas de search: inicio del email (prefijo) y un trozo interior (subcadena)
+    private String[] prefixes;
+    private String[] substrings;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = BenchmarkDataset.repository(store, users);
+        emails = BenchmarkDataset.users(Math.min(users, 10_000)).stream().map(User::getEmail).toArray(String[]::new);
+        prefixes = Arrays.stream(emails).map(email -> email.substring(0, 4)).toArray(String[]::new);
+        substrings = Arrays.stream(emails).map(email -> email.substring(2, 6)).toArray(String[]::new);
+    }
+
+    private long randomId() {
+        return BenchmarkDataset.FIRST_ID + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    @Benchmark
+    public Optional<User> findById() {
+        return repository.findById(randomId());
+    }
+
+    @Benchmark
+    public Optional<User> findByEmail() {
+        return repository.findByEmail(emails[ThreadLocalRandom.current().nextInt(emails.length)]);
+    }
+
+    @Benchmark
+    public List<User> searchPrefix() {
+        return repository.search(prefixes[ThreadLocalRandom.current().nextInt(prefixes.length)], 20);
+    }
+
+    @Benchmark
+    public List<User> searchSubstring() {
+        return repository.search(substrings[ThreadLocalRandom.current().nextInt(substrings.length)], 20);
+    }
+
+    @Benchmark
+    public Optional<List<Address>> findAddressesByUserId() {
+        return repository.findAddressesByUserId(randomId());
+    }
+}
@@ -0,0 +1,75 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Listados completos (findAll con cada sortedBy), primera página de 100 por el índice y filtro por país
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class RepositoryScanBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"memory", "jdbc"})
+    public String store;
+
+    // none = findAll sin ordenar
+    @Param({"none", "id", "email", "name", "created_at"})
+    public String sortedBy;
+
+    private UserRepository repository;
+    private SortField sortField;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = BenchmarkDataset.repository(store, users);
+        sortField = SortField.fromParam(sortedBy).orElse(null);
+    }
+
+    @Benchmark
+    public List<User> findAll() {
+        return sortField == null ? repository.findAll() : repository.findAllSorted(sortField);
+    }
+
+    @Benchmark
+    public List<User> firstPage() {
+        try (Stream<User> page = repository.streamSorted(sortField != null ? sortField : SortField.ID, null)) {
+            return page.limit(100).toList();
+        }
+    }
+
+    // ~1 de cada 5 usuarios tiene alguna dirección en ES
+    @Benchmark
+    public List<User> countryFirstPage() {
+        try (Stream<User> page = repository.streamByCountry("ES", sortField != null ? sortField : SortField.ID, null)) {
+            return page.limit(100).toList();
+        }
+    }
+
+    @Benchmark
+    public List<User> countryAll() {
+        try (Stream<User> users = repository.streamByCountry("ES", sortField != null ? sortField : SortField.ID, null)) {
+            return users.toList();
+        }
+    }
+}
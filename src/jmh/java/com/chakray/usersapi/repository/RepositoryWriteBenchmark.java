@@ -0,0 +1,78 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Escrituras: en memoria (sin WAL) mide la nueva versión, los índices y los locks; en jdbc, una transacción por escritura; hilos con -t
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class RepositoryWriteBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"memory", "jdbc"})
+    public String store;
+
+    private UserRepository repository;
+    private long[] addressOwners;
+    private long[] addressIds;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = BenchmarkDataset.repository(store, users);
+        List<User> withAddresses = BenchmarkDataset.users(Math.min(users, 10_000)).stream()
+                .filter(user -> !user.getAddresses().isEmpty())
+                .toList();
+        addressOwners = withAddresses.stream().mapToLong(User::getId).toArray();
+        addressIds = withAddresses.stream().mapToLong(user -> user.getAddresses().get(0).getId()).toArray();
+    }
+
+    @Benchmark
+    public User save() {
+        long n = sequence.incrementAndGet();
+        User user = new User();
+        user.setEmail("bench" + n + "@mail.com");
+        user.setName("bench" + n);
+        user.setPassword("password" + n);
+        user.setAddresses(List.of(new Address(null, "home", "street " + n, "UK")));
+        return repository.save(user);
+    }
+
+    @Benchmark
+    public Optional<User> updateName() {
+        User updates = new User();
+        updates.setName("renamed " + sequence.incrementAndGet());
+        return repository.update(BenchmarkDataset.FIRST_ID + ThreadLocalRandom.current().nextInt(users), updates);
+    }
+
+    @Benchmark
+    public Optional<Address> updateAddress() {
+        int i = ThreadLocalRandom.current().nextInt(addressIds.length);
+        return repository.updateAddress(addressOwners[i], addressIds[i],
+                new Address(null, null, "street " + sequence.incrementAndGet(), null));
+    }
+}
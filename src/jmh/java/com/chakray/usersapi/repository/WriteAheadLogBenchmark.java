@@ -0,0 +1,99 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.chakray.usersapi.util.Sha1PasswordHashAlgorithm;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Rendimiento de escritura del repositorio con cada modo de durabilidad frente al modo puramente en memoria
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+
+    private static final PasswordHashingEngine HASHING =
+            new PasswordHashingEngine(new Sha1PasswordHashAlgorithm(), Runtime.getRuntime().availableProcessors(), 1024);
+
+    private static final int USERS = 10_000;
+
+    // MEMORY = sin WAL; el resto son las políticas de fsync del WAL
+    @Param({"MEMORY", "NONE", "INTERVAL", "ALWAYS"})
+    public String durability;
+
+    private Path directory;
+    private WriteAheadLog writeAheadLog;
+    private InMemoryUserRepository repository;
+    private final AtomicLong emailSequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        writeAheadLog = "MEMORY".equals(durability)
+                ? WriteAheadLog.disabled()
+                : new FileWriteAheadLog(directory, FsyncPolicy.valueOf(durability), Duration.ofMillis(10), 1024, new ObjectMapper());
+        repository = new InMemoryUserRepository(writeAheadLog, Optional.empty(), HASHING);
+        repository.init();
+        for (int i = 0; i < USERS; i++) {
+            repository.save(newUser());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writeAheadLog.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private User newUser() {
+        long n = emailSequence.incrementAndGet();
+        User user = new User();
+        user.setEmail("bench" + n + "@mail.com");
+        user.setName("bench" + n);
+        user.setPassword("password" + n);
+        return user;
+    }
+
+    @Benchmark
+    public User save() {
+        return repository.save(newUser());
+    }
+
+    @Benchmark
+    public Object updateName() {
+        long id = 126 + ThreadLocalRandom.current().nextInt(USERS);
+        User updates = new User();
+        updates.setName("renamed" + id);
+        return repository.update(id, updates);
+    }
+}
@@ -0,0 +1,94 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.BatchPatchResult;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.repository.BenchmarkDataset;
+import com.chakray.usersapi.repository.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Lote de cambios (nombre y primera dirección de cada usuario): llamadas individuales frente a patchUsers
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class BatchPatchBenchmark {
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"memory", "jdbc"})
+    public String store;
+
+    // Cambios por lote; la mitad son de direcciones, así que hay patches / 2 grupos
+    @Param({"1000"})
+    public int patches;
+
+    private UserService userService;
+    private ForkJoinPool pool;
+    private List<UserPatch> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserRepository repository = BenchmarkDataset.repository(store, users);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        userService = new UserService(repository, new UserJsonCache(), UserReadCache.disabled(), pool);
+        batch = new ArrayList<>(patches);
+        for (User user : BenchmarkDataset.users(Math.min(users, patches * 4))) {
+            if (batch.size() == patches) {
+                break;
+            }
+            if (!user.getAddresses().isEmpty()) {
+                batch.add(new UserPatch(user.getId(), null, null, null, "batch " + user.getId(), null, null, null));
+                batch.add(new UserPatch(user.getId(), user.getAddresses().get(0).getId(), null, null, null, null,
+                        "batch street", null));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    // Lo que hace hoy la sincronización: un PATCH o PUT por cambio
+    @Benchmark
+    public void individual(Blackhole blackhole) {
+        for (UserPatch patch : batch) {
+            if (patch.getAddressId() == null) {
+                User changes = new User();
+                changes.setName(patch.getName());
+                blackhole.consume(userService.updateUser(patch.getUserId(), changes, UserRepository.ANY_VERSION));
+            } else {
+                blackhole.consume(userService.updateAddress(patch.getUserId(), patch.getAddressId(),
+                        new Address(null, null, patch.getStreet(), null), UserRepository.ANY_VERSION));
+            }
+        }
+    }
+
+    @Benchmark
+    public BatchPatchResult batch() {
+        return userService.patchUsers(batch);
+    }
+}
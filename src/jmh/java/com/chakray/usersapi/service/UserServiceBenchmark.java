@@ -0,0 +1,128 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.repository.BenchmarkDataset;
+import com.chakray.usersapi.repository.InMemoryUserRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Capa de servicio (copia sin contraseña) y serialización JSON de lo que devuelve; hilos con -t
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    private InMemoryUserRepository repository;
+    private UserService userService;
+    // Con la caché de lectura dimensionada para todo el dataset: mide el camino de acierto
+    private UserService cachedUserService;
+    private ObjectMapper objectMapper;
+    // Mismo mapper con el módulo de UserJsonCache, como el de la aplicación
+    private ObjectMapper cachingObjectMapper;
+    private List<User> page;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = BenchmarkDataset.repository(users);
+        UserJsonCache jsonCache = new UserJsonCache();
+        userService = new UserService(repository, jsonCache, UserReadCache.disabled(), ForkJoinPool.commonPool());
+        cachedUserService = new UserService(repository, jsonCache, new CaffeineUserReadCache(users, null), ForkJoinPool.commonPool());
+        objectMapper = new ObjectMapper().findAndRegisterModules();
+        cachingObjectMapper = new ObjectMapper().findAndRegisterModules().registerModule(jsonCache.module());
+        page = userService.findUsersPage("email", null, 100).getUsers();
+    }
+
+    private long randomId() {
+        return BenchmarkDataset.FIRST_ID + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    // Referencia: lectura directa sin copia
+    @Benchmark
+    public Optional<User> repositoryFindById() {
+        return repository.findById(randomId());
+    }
+
+    // Lectura más removePassword
+    @Benchmark
+    public Optional<User> serviceFindUserById() {
+        return userService.findUserById(randomId());
+    }
+
+    @Benchmark
+    public Optional<User> serviceFindUserByIdCached() {
+        return cachedUserService.findUserById(randomId());
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(userService.findUserById(randomId()).orElseThrow());
+    }
+
+    @Benchmark
+    public byte[] serializePageOf100() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] serializePageOf100Cached() throws JsonProcessingException {
+        return cachingObjectMapper.writeValueAsBytes(page);
+    }
+
+    // GET /users completo: servicio + serialización de todos los usuarios
+    @Benchmark
+    public void findAllUsersSerialized(Blackhole blackhole) throws IOException {
+        objectMapper.writeValue(new BlackholeOutputStream(blackhole), userService.findAllUsers(null));
+    }
+
+    @Benchmark
+    public void findAllUsersSerializedCached(Blackhole blackhole) throws IOException {
+        cachingObjectMapper.writeValue(new BlackholeOutputStream(blackhole), userService.findAllUsers(null));
+    }
+
+    // Descarta la salida sin acumularla en memoria, como haría el socket
+    private static final class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
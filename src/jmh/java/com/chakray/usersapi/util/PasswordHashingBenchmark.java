@@ -0,0 +1,79 @@
+package com.chakray.usersapi.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+// Coste por contraseña de cada algoritmo, y del mismo hash pasando por el pool del motor
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHashingBenchmark {
+
+    // legacy = implementación anterior (getInstance por llamada + String.format por byte)
+    @Param({"legacy", "sha1", "pbkdf2-10000", "pbkdf2-210000"})
+    public String algorithm;
+
+    private PasswordHashAlgorithm hashAlgorithm;
+    private PasswordHashingEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hashAlgorithm = switch (algorithm) {
+            case "legacy" -> new LegacySha1();
+            case "sha1" -> new Sha1PasswordHashAlgorithm();
+            default -> new Pbkdf2PasswordHashAlgorithm(Integer.parseInt(algorithm.substring("pbkdf2-".length())));
+        };
+        engine = new PasswordHashingEngine(hashAlgorithm, Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public String hashDirect() {
+        return hashAlgorithm.hash("correct horse battery staple");
+    }
+
+    @Benchmark
+    public String hashViaEngine() {
+        return engine.hash("correct horse battery staple");
+    }
+
+    private static final class LegacySha1 extends Sha1PasswordHashAlgorithm {
+        @Override
+        public String hash(String password) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                byte[] hashBytes = md.digest(password.getBytes(StandardCharsets.UTF_8));
+                StringBuilder sb = new StringBuilder();
+                for (byte b : hashBytes) {
+                    sb.append(String.format("%02x", b));
+                }
+                return sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.chakray.usersapi.loadtest;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parámetros de una ejecución, leídos de argumentos {@code clave=valor}:
+ * <ul>
+ *   <li>{@code rate}: peticiones por segundo (tasa de llegada fija, modelo abierto)</li>
+ *   <li>{@code connections}: si es mayor que 0, modelo cerrado en lugar de tasa fija: ese número de clientes
+ *   concurrentes, cada uno con su conexión, enviando una petición detrás de otra</li>
+ *   <li>{@code stack}: {@code mvc} (Tomcat), {@code webflux} (Netty) o {@code both} para medir las dos pilas
+ *   una detrás de otra con la misma carga</li>
+ *   <li>{@code duration} / {@code warmup}: segundos medidos y segundos de calentamiento descartados</li>
+ *   <li>{@code users}: usuarios precargados con POST /users/bulk antes de empezar</li>
+ *   <li>{@code mix}: pesos por operación, p. ej. {@code list=30,sorted=20,get=10,addresses=15,post=10,patch=10,put_address=10,delete=5}</li>
+ *   <li>{@code threads}: {@code platform} (pool de Tomcat) o {@code virtual} (un hilo virtual por petición); solo mvc</li>
+ *   <li>{@code wal}: política de fsync del WAL ({@code always}, {@code interval}) o {@code off} para no persistir</li>
+ *   <li>{@code report}: ruta del informe JSON</li>
+ * </ul>
+ */
+record LoadTestConfig(int rate, int connections, int durationSeconds, int warmupSeconds, int users,
+                      Map<Operation, Integer> mix, String stack, String threads, String wal, Path report) {
+
+    static final String DEFAULT_MIX = "list=30,sorted=20,addresses=15,post=10,patch=10,put_address=10,delete=5";
+
+    static LoadTestConfig parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Argumento no reconocido: " + arg + " (se espera clave=valor)");
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return new LoadTestConfig(
+                Integer.parseInt(options.getOrDefault("rate", "500")),
+                Integer.parseInt(options.getOrDefault("connections", "0")),
+                Integer.parseInt(options.getOrDefault("duration", "30")),
+                Integer.parseInt(options.getOrDefault("warmup", "5")),
+                Integer.parseInt(options.getOrDefault("users", "10000")),
+                parseMix(options.getOrDefault("mix", DEFAULT_MIX)),
+                oneOf("stack", options.getOrDefault("stack", "mvc"), "mvc", "webflux", "both"),
+                oneOf("threads", options.getOrDefault("threads", "platform"), "platform", "virtual"),
+                oneOf("wal", options.getOrDefault("wal", "off"), "off", "always", "interval"),
+                Path.of(options.getOrDefault("report", "target/loadtest-report.json")));
+    }
+
+    // Pilas a medir, en orden
+    List<String> stacks() {
+        return stack.equals("both") ? List.of("mvc", "webflux") : List.of(stack);
+    }
+
+    boolean closedModel() {
+        return connections > 0;
+    }
+
+    // Argumentos para la aplicación arrancada en el mismo proceso
+    String[] applicationArgs(String stack) {
+        List<String> args = new ArrayList<>(List.of("--server.port=0", "--logging.level.root=WARN",
+                "--spring.threads.virtual.enabled=" + threads.equals("virtual"),
+                "--spring.main.web-application-type=" + (stack.equals("webflux") ? "reactive" : "servlet")));
+        if (!wal.equals("off")) {
+            args.add("--users.storage.wal.enabled=true");
+            args.add("--users.storage.wal.fsync=" + wal);
+            args.add("--users.storage.wal.directory=target/loadtest-wal/" + System.currentTimeMillis());
+        }
+        return args.toArray(String[]::new);
+    }
+
+    private static String oneOf(String key, String value, String... allowed) {
+        if (!List.of(allowed).contains(value)) {
+            throw new IllegalArgumentException("Valor no válido para " + key + ": " + value + " (" + String.join(" | ", allowed) + ")");
+        }
+        return value;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            weights.put(Operation.fromName(parts[0]), Integer.parseInt(parts[1]));
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("El mix debe tener al menos un peso positivo: " + mix);
+        }
+        return weights;
+    }
+}
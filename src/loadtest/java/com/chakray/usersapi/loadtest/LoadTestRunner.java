@@ -0,0 +1,340 @@
+package com.chakray.usersapi.loadtest;
+
+import com.chakray.usersapi.UsersApiApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Arnés de carga HTTP en proceso: arranca la aplicación en un puerto aleatorio, precarga usuarios y
+ * lanza peticiones a tasa fija según el mix configurado.
+ * <p>
+ * La latencia se mide desde el instante en que la petición debía salir según la tasa, no desde que salió:
+ * si el servidor se atasca, las peticiones retrasadas cuentan su espera (sin omisión coordinada).
+ * <p>
+ * Con {@code connections=N} el modelo es cerrado: N clientes en hilos virtuales, cada uno con su conexión
+ * keep-alive, que envían la siguiente petición al recibir la respuesta. Sirve para comparar las pilas con
+ * muchas conexiones abiertas a la vez; aquí la latencia se mide desde el envío real y el throughput lo
+ * marca el servidor. Con {@code stack=both} se miden Tomcat y Netty una detrás de otra y el informe
+ * las pone lado a lado.
+ * <p>
+ * El generador comparte CPU con el servidor: con pocos núcleos conviene interpretar los resultados
+ * como comparativos entre versiones, no como capacidad absoluta.
+ * <p>
+ * Uso: {@code mvn -Ploadtest test-compile exec:exec -Dloadtest.args="rate=1000 duration=60"} o, para comparar
+ * las pilas, {@code -Dloadtest.args="stack=both connections=2000 mix=get=60,list=30,patch=10"}
+ */
+public final class LoadTestRunner {
+
+    private static final String[] SORT_FIELDS = {"email", "id", "name", "created_at"};
+    private static final String[] COUNTRIES = {"UK", "AU", "ES", "MX", "US", "FR", "DE"};
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final LoadTestConfig config;
+    private final String stack;
+    private final URI baseUri;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Histogram allLatencies = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final List<long[]> addressTargets = new ArrayList<>();
+    private long[] userIds;
+    private final Queue<Long> createdIds = new ConcurrentLinkedQueue<>();
+    private final AtomicLong emailSequence = new AtomicLong();
+    private final AtomicLong lastCompletion = new AtomicLong();
+    private final Operation[] weightedOperations;
+
+    private LoadTestRunner(LoadTestConfig config, String stack, URI baseUri) {
+        this.config = config;
+        this.stack = stack;
+        this.baseUri = baseUri;
+        List<Operation> weighted = new ArrayList<>();
+        config.mix().forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+            latencies.put(operation, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            errors.put(operation, new LongAdder());
+        });
+        this.weightedOperations = weighted.toArray(Operation[]::new);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        // Sin reinicios de devtools: la aplicación corre en el mismo proceso que el generador
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        Map<String, Map<String, Object>> reports = new LinkedHashMap<>();
+        for (String stack : config.stacks()) {
+            // Una aplicación nueva por pila: la segunda no hereda los datos ni el JIT caliente de la primera
+            try (ConfigurableApplicationContext context = SpringApplication.run(UsersApiApplication.class,
+                    config.applicationArgs(stack))) {
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                reports.put(stack, new LoadTestRunner(config, stack, URI.create("http://localhost:" + port)).run());
+            }
+        }
+        writeReport(config, reports);
+    }
+
+    private Map<String, Object> run() throws Exception {
+        preload();
+        if (config.closedModel()) {
+            return runClosed();
+        }
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        long total = (long) config.rate() * (config.warmupSeconds() + config.durationSeconds());
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds());
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        System.out.printf("Carga: %d req/s durante %d s (+%d s de calentamiento) contra %s (%s, hilos %s, WAL %s)%n",
+                config.rate(), config.durationSeconds(), config.warmupSeconds(), baseUri, stack, config.threads(), config.wal());
+
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = intended >= measureFrom;
+            inFlight.add(send(nextOperation(), intended, measured));
+            if (inFlight.size() >= 4096) {
+                inFlight.removeIf(CompletableFuture::isDone);
+            }
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new))
+                .get(DRAIN_TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+        // Throughput real: respuestas medidas entre el fin del calentamiento y la última respuesta
+        return report((lastCompletion.get() - measureFrom) / 1e9);
+    }
+
+    // Modelo cerrado: cada cliente espera su respuesta antes de enviar la siguiente petición
+    private Map<String, Object> runClosed() throws Exception {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(config.durationSeconds());
+        System.out.printf("Carga: %d conexiones durante %d s (+%d s de calentamiento) contra %s (%s, hilos %s, WAL %s)%n",
+                config.connections(), config.durationSeconds(), config.warmupSeconds(), baseUri, stack, config.threads(), config.wal());
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < config.connections(); i++) {
+                clients.submit(() -> {
+                    long sent;
+                    while ((sent = System.nanoTime()) < end) {
+                        send(nextOperation(), sent, sent >= measureFrom).join();
+                    }
+                });
+            }
+        }
+        return report((lastCompletion.get() - measureFrom) / 1e9);
+    }
+
+    private Operation nextOperation() {
+        return weightedOperations[ThreadLocalRandom.current().nextInt(weightedOperations.length)];
+    }
+
+    private CompletableFuture<?> send(Operation operation, long intended, boolean measured) {
+        HttpRequest request = request(operation);
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, failure) -> {
+                    long now = System.nanoTime();
+                    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(now - intended);
+                    lastCompletion.accumulateAndGet(now, Math::max);
+                    boolean ok = failure == null && isExpected(operation, response);
+                    if (ok && operation == Operation.POST) {
+                        rememberCreated(response.body());
+                    }
+                    if (measured) {
+                        long value = Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS);
+                        latencies.get(operation).recordValue(value);
+                        allLatencies.recordValue(value);
+                        if (!ok) {
+                            errors.get(operation).increment();
+                        }
+                    }
+                    return null;
+                });
+    }
+
+    // Un DELETE sin usuarios creados pendientes apunta a un id inexistente: el 404 es la respuesta esperada
+    private static boolean isExpected(Operation operation, HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        return status < 400 || (operation == Operation.DELETE && status == 404);
+    }
+
+    private HttpRequest request(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long userId = userIds[random.nextInt(userIds.length)];
+        return switch (operation) {
+            case LIST -> get("/users?limit=100");
+            case SORTED -> get("/users?limit=100&sortedBy=" + SORT_FIELDS[random.nextInt(SORT_FIELDS.length)]);
+            case GET -> get("/users/" + userId);
+            case ADDRESSES -> get("/users/" + userId + "/addresses");
+            case POST -> json("POST", "/users", newUser(emailSequence.incrementAndGet()));
+            case PATCH -> json("PATCH", "/users/" + userId, Map.of("name", "patched " + random.nextInt(1_000_000)));
+            case PUT_ADDRESS -> {
+                long[] target = addressTargets.get(random.nextInt(addressTargets.size()));
+                yield json("PUT", "/users/" + target[0] + "/addresses/" + target[1],
+                        Map.of("street", "street " + random.nextInt(1_000_000)));
+            }
+            case DELETE -> {
+                Long created = createdIds.poll();
+                yield HttpRequest.newBuilder(baseUri.resolve("/users/" + (created != null ? created : -1L)))
+                        .DELETE().build();
+            }
+        };
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).GET().build();
+    }
+
+    private HttpRequest json(String method, String path, Object body) {
+        try {
+            return HttpRequest.newBuilder(baseUri.resolve(path))
+                    .header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Object> newUser(long n) {
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("email", "load" + n + "-" + System.nanoTime() + "@mail.com");
+        user.put("name", "load user " + n);
+        user.put("password", "password" + n);
+        user.put("addresses", List.of(Map.of("name", "home", "street", "street " + n,
+                "countryCode", COUNTRIES[(int) Math.floorMod(n, COUNTRIES.length)])));
+        return user;
+    }
+
+    private void rememberCreated(byte[] body) {
+        try {
+            createdIds.add(objectMapper.readTree(body).path("id").asLong());
+        } catch (IOException e) {
+            // Respuesta inesperada: ese usuario no se podrá borrar, no afecta a la medición
+        }
+    }
+
+    // Precarga por NDJSON y recoge ids de usuarios y direcciones desde la exportación
+    private void preload() throws IOException, InterruptedException {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < config.users(); i++) {
+            ndjson.append(objectMapper.writeValueAsString(newUser(-i - 1))).append('\n');
+        }
+        HttpResponse<String> imported = client.send(HttpRequest.newBuilder(baseUri.resolve("/users/bulk"))
+                        .header("Content-Type", "application/x-ndjson")
+                        .POST(HttpRequest.BodyPublishers.ofString(ndjson.toString()))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (imported.statusCode() != 200) {
+            throw new IllegalStateException("La precarga falló: " + imported.statusCode() + " " + imported.body());
+        }
+        HttpResponse<Stream<String>> export = client.send(get("/users/export"),
+                HttpResponse.BodyHandlers.ofLines());
+        List<Long> ids = new ArrayList<>();
+        export.body().forEach(line -> {
+            try {
+                JsonNode user = objectMapper.readTree(line);
+                ids.add(user.path("id").asLong());
+                for (JsonNode address : user.path("addresses")) {
+                    addressTargets.add(new long[]{user.path("id").asLong(), address.path("id").asLong()});
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Línea de exportación inválida: " + line, e);
+            }
+        });
+        userIds = ids.stream().mapToLong(Long::longValue).toArray();
+        System.out.printf("Precargados %d usuarios (%d direcciones)%n", userIds.length, addressTargets.size());
+    }
+
+    private Map<String, Object> report(double measuredSeconds) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("stack", stack);
+        report.put("targetRate", config.closedModel() ? null : config.rate());
+        report.put("connections", config.closedModel() ? config.connections() : null);
+        report.put("durationSeconds", config.durationSeconds());
+        report.put("warmupSeconds", config.warmupSeconds());
+        report.put("preloadedUsers", userIds.length);
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        config.mix().forEach((operation, weight) -> mix.put(operation.key(), weight));
+        report.put("mix", mix);
+        report.put("threads", config.threads());
+        report.put("wal", config.wal());
+        report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("total", summary(allLatencies, errors.values().stream().mapToLong(LongAdder::sum).sum(), measuredSeconds));
+        Map<String, Object> operations = new LinkedHashMap<>();
+        latencies.forEach((operation, histogram) ->
+                operations.put(operation.key(), summary(histogram, errors.get(operation).sum(), measuredSeconds)));
+        report.put("operations", operations);
+        return report;
+    }
+
+    // Una sola pila: su informe tal cual. Varias: un informe por pila bajo su nombre, para compararlas
+    private static void writeReport(LoadTestConfig config, Map<String, Map<String, Object>> reports) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Object report = reports.size() == 1 ? reports.values().iterator().next() : reports;
+        Files.createDirectories(config.report().toAbsolutePath().getParent());
+        objectMapper.writer(SerializationFeature.INDENT_OUTPUT).writeValue(config.report().toFile(), report);
+        reports.forEach((stack, stackReport) -> {
+            try {
+                System.out.println(stack + ": " + objectMapper.writeValueAsString(stackReport.get("total")));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        System.out.println("Informe escrito en " + config.report().toAbsolutePath());
+    }
+
+    // Latencias en milisegundos
+    private static Map<String, Object> summary(Histogram histogram, long errorCount, double seconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", histogram.getTotalCount());
+        summary.put("errors", errorCount);
+        summary.put("throughput", Math.round(histogram.getTotalCount() / seconds * 10) / 10.0);
+        summary.put("meanMs", millis(histogram.getMean()));
+        summary.put("p50Ms", millis(histogram.getValueAtPercentile(50)));
+        summary.put("p90Ms", millis(histogram.getValueAtPercentile(90)));
+        summary.put("p99Ms", millis(histogram.getValueAtPercentile(99)));
+        summary.put("p999Ms", millis(histogram.getValueAtPercentile(99.9)));
+        summary.put("maxMs", millis(histogram.getMaxValue()));
+        return summary;
+    }
+
+    private static double millis(double micros) {
+        return Math.round(micros) / 1000.0;
+    }
+}
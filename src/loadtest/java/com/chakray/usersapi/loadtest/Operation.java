@@ -0,0 +1,32 @@
+package com.chakray.usersapi.loadtest;
+
+import java.util.Arrays;
+
+// Operaciones de la API de usuarios (UserController o ReactiveUserController) que puede generar el arnés
+enum Operation {
+    LIST("list"),
+    SORTED("sorted"),
+    GET("get"),
+    ADDRESSES("addresses"),
+    POST("post"),
+    PATCH("patch"),
+    PUT_ADDRESS("put_address"),
+    DELETE("delete");
+
+    private final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    String key() {
+        return key;
+    }
+
+    static Operation fromName(String name) {
+        return Arrays.stream(values())
+                .filter(operation -> operation.key.equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Operación desconocida en el mix: " + name));
+    }
+}
@@ -0,0 +1,19 @@
+package com.chakray.usersapi.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+
+@Configuration
+@EnableConfigurationProperties(BatchPatchProperties.class)
+public class BatchPatchConfig {
+
+    // Pool propio y no el común: los grupos esperan al WAL o a la base de datos y no deben frenar
+    // a los parallel streams del resto de la aplicación. close() lo apaga al cerrar el contexto
+    @Bean
+    public ForkJoinPool batchPatchPool(BatchPatchProperties properties) {
+        return new ForkJoinPool(Math.max(1, properties.getParallelism()));
+    }
+}
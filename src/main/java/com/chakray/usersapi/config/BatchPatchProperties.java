@@ -0,0 +1,13 @@
+package com.chakray.usersapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Propiedades users.batch-patch.* del PATCH /users por lotes
+@Data
+@ConfigurationProperties(prefix = "users.batch-patch")
+public class BatchPatchProperties {
+
+    // Grupos (usuarios) que se aplican a la vez; por defecto uno por núcleo
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+}
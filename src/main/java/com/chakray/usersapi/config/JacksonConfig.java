@@ -0,0 +1,16 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.service.UserJsonCache;
+import com.fasterxml.jackson.databind.Module;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JacksonConfig {
+
+    // Spring Boot registra los beans Module en el ObjectMapper de la API (no en el del WAL)
+    @Bean
+    public Module userJsonCacheModule(UserJsonCache userJsonCache) {
+        return userJsonCache.module();
+    }
+}
@@ -0,0 +1,174 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.repository.FileWriteAheadLog;
+import com.chakray.usersapi.repository.InMemoryUserRepository;
+import com.chakray.usersapi.repository.JdbcUserRepository;
+import com.chakray.usersapi.repository.SortField;
+import com.chakray.usersapi.repository.WriteAheadLog;
+import com.chakray.usersapi.service.CaffeineUserReadCache;
+import com.chakray.usersapi.service.UserJsonCache;
+import com.chakray.usersapi.service.UserReadCache;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Métricas del repositorio y del servicio, publicadas en /actuator/prometheus.
+ * <p>
+ * Los timers de {@code @Timed} los registra {@link TimedAspect}. Los gauges y contadores de abajo se
+ * evalúan solo cuando se hace scrape y leen contadores ya mantenidos (tamaños de mapas, LongAdder),
+ * así que no añaden trabajo a las peticiones.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    @Bean
+    @Profile("!jdbc")
+    public MeterBinder userRepositoryMetrics(InMemoryUserRepository repository) {
+        return registry -> {
+            Gauge.builder("users.count", repository, InMemoryUserRepository::getUserCount)
+                    .description("Usuarios almacenados")
+                    .register(registry);
+            Gauge.builder("users.addresses.count", repository, InMemoryUserRepository::getAddressCount)
+                    .description("Direcciones almacenadas")
+                    .register(registry);
+            Gauge.builder("users.index.size", repository, InMemoryUserRepository::getEmailIndexSize)
+                    .tag("index", "email")
+                    .description("Entradas de cada índice secundario")
+                    .register(registry);
+            Gauge.builder("users.index.size", repository, InMemoryUserRepository::getAddressCount)
+                    .tag("index", "address")
+                    .description("Entradas de cada índice secundario")
+                    .register(registry);
+            for (SortField sortField : SortField.values()) {
+                Gauge.builder("users.index.size", repository, r -> r.getSortedIndexSize(sortField))
+                        .tag("index", "sorted_" + sortField.getParam())
+                        .description("Entradas de cada índice secundario")
+                        .register(registry);
+            }
+            Gauge.builder("users.index.size", repository, InMemoryUserRepository::getSearchTermCount)
+                    .tag("index", "search_terms")
+                    .description("Entradas de cada índice secundario")
+                    .register(registry);
+            Gauge.builder("users.index.size", repository, InMemoryUserRepository::getSearchTrigramPostingCount)
+                    .tag("index", "search_trigrams")
+                    .description("Entradas de cada índice secundario")
+                    .register(registry);
+            Gauge.builder("users.index.size", repository, InMemoryUserRepository::getCountryIndexSize)
+                    .tag("index", "country")
+                    .description("Entradas de cada índice secundario")
+                    .register(registry);
+            Gauge.builder("users.heap.estimated", repository, InMemoryUserRepository::getEstimatedHeapBytes)
+                    .baseUnit("bytes")
+                    .description("Huella aproximada en heap de usuarios, direcciones e índices")
+                    .register(registry);
+            TimeGauge.builder("users.repository.startup", repository, TimeUnit.MILLISECONDS,
+                            r -> r.getStartupDuration().toMillis())
+                    .description("Duración de la carga del snapshot y el replay del WAL")
+                    .register(registry);
+
+            FunctionCounter.builder("users.repository.lock.acquisitions", repository,
+                            r -> r.getLockStats().acquisitions())
+                    .description("Adquisiciones de los locks de escritura por usuario")
+                    .register(registry);
+            FunctionCounter.builder("users.repository.lock.contended", repository,
+                            r -> r.getLockStats().contended())
+                    .description("Adquisiciones que tuvieron que esperar a otro escritor")
+                    .register(registry);
+            FunctionCounter.builder("users.repository.lock.wait", repository,
+                            r -> r.getLockStats().waitNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                    .baseUnit("seconds")
+                    .description("Tiempo total de espera por los locks de escritura")
+                    .register(registry);
+        };
+    }
+
+    // Perfil jdbc: los recuentos son un COUNT(*) por scrape; el pool publica hikaricp_connections_* (pool="users")
+    @Bean
+    @Profile("jdbc")
+    public MeterBinder jdbcUserRepositoryMetrics(JdbcUserRepository repository, HikariDataSource usersDataSource) {
+        return registry -> {
+            usersDataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+            Gauge.builder("users.count", repository, JdbcUserRepository::getUserCount)
+                    .description("Usuarios almacenados")
+                    .register(registry);
+            Gauge.builder("users.addresses.count", repository, JdbcUserRepository::getAddressCount)
+                    .description("Direcciones almacenadas")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder writeAheadLogMetrics(WriteAheadLog writeAheadLog) {
+        return registry -> {
+            if (!(writeAheadLog instanceof FileWriteAheadLog wal)) {
+                return;
+            }
+            Gauge.builder("users.wal.pending", wal, FileWriteAheadLog::getPendingWrites)
+                    .description("Registros encolados pendientes de escribir")
+                    .register(registry);
+            FunctionCounter.builder("users.wal.records", wal, FileWriteAheadLog::getWrittenRecords)
+                    .description("Registros escritos en el WAL")
+                    .register(registry);
+            FunctionCounter.builder("users.wal.batches", wal, FileWriteAheadLog::getWrittenBatches)
+                    .description("Lotes escritos en el WAL")
+                    .register(registry);
+            FunctionCounter.builder("users.wal.fsyncs", wal, FileWriteAheadLog::getForces)
+                    .description("Llamadas a fsync sobre el segmento activo")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder userJsonCacheMetrics(UserJsonCache cache) {
+        return registry -> {
+            Gauge.builder("users.json.cache.size", cache, UserJsonCache::size)
+                    .description("Vistas de usuario con JSON preserializado")
+                    .register(registry);
+            Gauge.builder("users.json.cache.weight", cache, UserJsonCache::getWeightedSize)
+                    .description("Bytes estimados de las vistas y su JSON, acotados por users.cache.json-maximum-size")
+                    .baseUnit("bytes")
+                    .register(registry);
+            FunctionCounter.builder("users.json.cache.hits", cache, UserJsonCache::getHits)
+                    .description("Usuarios escritos desde los bytes cacheados")
+                    .register(registry);
+            FunctionCounter.builder("users.json.cache.misses", cache, UserJsonCache::getMisses)
+                    .description("Usuarios que hubo que serializar con Jackson")
+                    .register(registry);
+        };
+    }
+
+    // cache_gets_total{cache="users",result=hit|miss}, cache_evictions_total, cache_size...
+    @Bean
+    public MeterBinder userReadCacheMetrics(UserReadCache cache) {
+        return registry -> {
+            if (cache instanceof CaffeineUserReadCache caffeine) {
+                CaffeineCacheMetrics.monitor(registry, caffeine.getCache(), "users");
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder passwordHashingMetrics(PasswordHashingEngine engine) {
+        return registry -> Gauge.builder("users.password.hashing.queued", engine, PasswordHashingEngine::getQueuedTasks)
+                .description("Tareas de hashing esperando un hilo del pool")
+                .register(registry);
+    }
+}
@@ -0,0 +1,31 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.util.PasswordHashAlgorithm;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.chakray.usersapi.util.Pbkdf2PasswordHashAlgorithm;
+import com.chakray.usersapi.util.Sha1PasswordHashAlgorithm;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(PasswordHashingProperties.class)
+public class PasswordHashingConfig {
+
+    @Bean
+    public PasswordHashAlgorithm passwordHashAlgorithm(PasswordHashingProperties properties) {
+        return switch (properties.getAlgorithm().toLowerCase()) {
+            case Sha1PasswordHashAlgorithm.NAME -> new Sha1PasswordHashAlgorithm();
+            case Pbkdf2PasswordHashAlgorithm.NAME -> new Pbkdf2PasswordHashAlgorithm(properties.getPbkdf2Iterations());
+            default -> throw new IllegalArgumentException(
+                    "Algoritmo de hash desconocido: " + properties.getAlgorithm());
+        };
+    }
+
+    // close() apaga el pool al cerrar el contexto
+    @Bean
+    public PasswordHashingEngine passwordHashingEngine(PasswordHashAlgorithm algorithm,
+                                                       PasswordHashingProperties properties) {
+        return new PasswordHashingEngine(algorithm, Math.max(1, properties.getThreads()), properties.getQueueCapacity());
+    }
+}
@@ -0,0 +1,19 @@
+package com.chakray.usersapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Propiedades users.password-hashing.* del motor de hashing de contraseñas
+@Data
+@ConfigurationProperties(prefix = "users.password-hashing")
+public class PasswordHashingProperties {
+
+    // sha1 (formato histórico, sin sal) | pbkdf2
+    private String algorithm = "sha1";
+    // Coste de PBKDF2; solo aplica con algorithm=pbkdf2
+    private int pbkdf2Iterations = 210_000;
+    // Hilos dedicados al hashing; por defecto uno por núcleo
+    private int threads = Runtime.getRuntime().availableProcessors();
+    // Hashes pendientes admitidos antes de responder 503
+    private int queueCapacity = 1024;
+}
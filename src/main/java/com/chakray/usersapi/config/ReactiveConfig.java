@@ -0,0 +1,30 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.service.ReactiveUserService;
+import com.chakray.usersapi.service.UserService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Solo con la pila reactiva; con la de servlets UserController usa UserService directamente
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@EnableConfigurationProperties(ReactiveProperties.class)
+public class ReactiveConfig {
+
+    // Tomcat también está en el classpath (pila de servlets) y la autoconfiguración lo elegiría para
+    // WebFlux a través de su adaptador; la variante reactiva corre sobre el event loop de Netty
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    // close() libera el pool de llamadas bloqueantes al cerrar el contexto
+    @Bean
+    public ReactiveUserService reactiveUserService(UserService userService, ReactiveProperties properties) {
+        return new ReactiveUserService(userService, Math.max(1, properties.getBlockingThreads()),
+                properties.getBlockingQueueCapacity(), properties.isBlockingReads());
+    }
+}
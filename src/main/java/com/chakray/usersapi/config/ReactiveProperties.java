@@ -0,0 +1,17 @@
+package com.chakray.usersapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Propiedades users.reactive.* de la pila WebFlux (spring.main.web-application-type=reactive)
+@Data
+@ConfigurationProperties(prefix = "users.reactive")
+public class ReactiveProperties {
+
+    // Hilos para las llamadas bloqueantes a UserService; por defecto los de Schedulers.boundedElastic()
+    private int blockingThreads = 10 * Runtime.getRuntime().availableProcessors();
+    // Llamadas pendientes admitidas antes de rechazar
+    private int blockingQueueCapacity = 100_000;
+    // true si las lecturas del repositorio bloquean (JDBC); en memoria las consultas por id se sirven en el event loop
+    private boolean blockingReads = false;
+}
@@ -0,0 +1,26 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.repository.InMemoryUserRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Escribe snapshots periódicos en el hilo del scheduler, sin bloquear las peticiones
+@Component
+@Profile("!jdbc")
+@ConditionalOnProperty(name = "users.storage.snapshot.enabled", havingValue = "true")
+public class SnapshotScheduler {
+
+    private final InMemoryUserRepository repository;
+
+    public SnapshotScheduler(InMemoryUserRepository repository) {
+        this.repository = repository;
+    }
+
+    @Scheduled(initialDelayString = "${users.storage.snapshot.interval}",
+            fixedDelayString = "${users.storage.snapshot.interval}")
+    public void writeSnapshot() {
+        repository.checkpoint();
+    }
+}
@@ -0,0 +1,63 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.repository.FileWriteAheadLog;
+import com.chakray.usersapi.repository.JdbcUserRepository;
+import com.chakray.usersapi.repository.SnapshotStore;
+import com.chakray.usersapi.repository.WriteAheadLog;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+@EnableConfigurationProperties(StorageProperties.class)
+public class StorageConfig {
+
+    @Bean
+    public WriteAheadLog writeAheadLog(StorageProperties properties) {
+        StorageProperties.Wal wal = properties.getWal();
+        if (!wal.isEnabled()) {
+            return WriteAheadLog.disabled();
+        }
+        // ObjectMapper propio: el formato del log no debe depender de la configuración JSON de la API
+        return new FileWriteAheadLog(wal.getDirectory(), wal.getFsync(), wal.getFsyncInterval(),
+                wal.getMaxBatchSize(), new ObjectMapper());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "users.storage.snapshot.enabled", havingValue = "true")
+    public SnapshotStore snapshotStore(StorageProperties properties) {
+        StorageProperties.Snapshot snapshot = properties.getSnapshot();
+        return new SnapshotStore(snapshot.getDirectory(), snapshot.getRetained());
+    }
+
+    // Perfil jdbc: sustituye al repositorio en memoria (que lleva @Profile("!jdbc"))
+    @Bean(destroyMethod = "close")
+    @Profile("jdbc")
+    public HikariDataSource usersDataSource(StorageProperties properties) {
+        StorageProperties.Jdbc jdbc = properties.getJdbc();
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("users");
+        config.setJdbcUrl(jdbc.getUrl());
+        config.setUsername(jdbc.getUsername());
+        config.setPassword(jdbc.getPassword());
+        config.setMaximumPoolSize(jdbc.getMaximumPoolSize());
+        return new HikariDataSource(config);
+    }
+
+    @Bean
+    @Profile("jdbc")
+    public JdbcUserRepository jdbcUserRepository(HikariDataSource usersDataSource,
+                                                 PasswordHashingEngine passwordHashingEngine,
+                                                 StorageProperties properties) {
+        StorageProperties.Jdbc jdbc = properties.getJdbc();
+        return new JdbcUserRepository(usersDataSource, passwordHashingEngine, jdbc.getFetchSize(), jdbc.getBatchSize());
+    }
+}
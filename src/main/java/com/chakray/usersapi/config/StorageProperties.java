@@ -0,0 +1,53 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.repository.FsyncPolicy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+// Propiedades users.storage.*: durabilidad del repositorio en memoria y conexión del repositorio JDBC
+@Data
+@ConfigurationProperties(prefix = "users.storage")
+public class StorageProperties {
+
+    private final Wal wal = new Wal();
+    private final Snapshot snapshot = new Snapshot();
+    private final Jdbc jdbc = new Jdbc();
+
+    @Data
+    public static class Wal {
+        // Desactivado: el repositorio es puramente en memoria y se siembra con los usuarios de ejemplo
+        private boolean enabled = false;
+        private Path directory = Path.of("data", "wal");
+        private FsyncPolicy fsync = FsyncPolicy.ALWAYS;
+        // Solo aplica a FsyncPolicy.INTERVAL
+        private Duration fsyncInterval = Duration.ofMillis(10);
+        // Máximo de registros agrupados en un mismo group commit
+        private int maxBatchSize = 1024;
+    }
+
+    @Data
+    public static class Snapshot {
+        // Snapshots binarios periódicos para arrancar sin reaplicar todo el WAL
+        private boolean enabled = false;
+        private Path directory = Path.of("data", "snapshots");
+        private Duration interval = Duration.ofMinutes(5);
+        // Cuántos snapshots se conservan; el anterior sirve de respaldo si el último está dañado
+        private int retained = 2;
+    }
+
+    // Solo con el perfil jdbc (JdbcUserRepository)
+    @Data
+    public static class Jdbc {
+        private String url = "jdbc:h2:file:./data/h2/users;LOCK_TIMEOUT=10000";
+        private String username = "sa";
+        private String password = "";
+        private int maximumPoolSize = 10;
+        // Usuarios por consulta en los recorridos por clave (cada bloque trae sus direcciones con una consulta más)
+        private int fetchSize = 256;
+        // Filas por executeBatch en las altas masivas
+        private int batchSize = 500;
+    }
+}
@@ -0,0 +1,31 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.repository.UserRepository;
+import com.chakray.usersapi.service.CaffeineUserReadCache;
+import com.chakray.usersapi.service.UserJsonCache;
+import com.chakray.usersapi.service.UserReadCache;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(UserCacheProperties.class)
+public class UserCacheConfig {
+
+    @Bean
+    public UserReadCache userReadCache(UserCacheProperties properties) {
+        if (!properties.isEnabled()) {
+            return UserReadCache.disabled();
+        }
+        return new CaffeineUserReadCache(properties.getMaximumSize(), properties.getTtl());
+    }
+
+    // Reconoce cada versión por identidad: sin objetos compartidos por el repositorio nunca acertaría
+    @Bean
+    public UserJsonCache userJsonCache(UserCacheProperties properties, UserRepository userRepository) {
+        if (!userRepository.sharesPublishedInstances()) {
+            return UserJsonCache.disabled();
+        }
+        return new UserJsonCache(properties.getJsonMaximumSize().toBytes());
+    }
+}
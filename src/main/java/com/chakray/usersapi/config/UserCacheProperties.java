@@ -0,0 +1,22 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.service.UserJsonCache;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+// Propiedades users.cache.* de la caché de lectura de UserService
+@Data
+@ConfigurationProperties(prefix = "users.cache")
+public class UserCacheProperties {
+
+    private boolean enabled = false;
+    // Usuarios cacheados como máximo; al superarlo se desalojan los menos usados (W-TinyLFU)
+    private long maximumSize = 10_000;
+    // Expiración tras la carga; null = solo se desaloja por tamaño o invalidación
+    private Duration ttl;
+    // Tope de la caché de vistas y JSON preserializado (UserJsonCache), activa con el repositorio en memoria: bytes estimados
+    private DataSize jsonMaximumSize = DataSize.ofBytes(UserJsonCache.DEFAULT_MAXIMUM_BYTES);
+}
@@ -0,0 +1,320 @@
+package com.chakray.usersapi.controller;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.BatchPatchResult;
+import com.chakray.usersapi.model.BulkImportResult;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPage;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.repository.SortField;
+import com.chakray.usersapi.repository.Versioned;
+import com.chakray.usersapi.service.ReactiveUserService;
+import com.chakray.usersapi.service.UserService;
+import com.chakray.usersapi.util.UserProjection;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static com.chakray.usersapi.controller.UserController.BULK_BATCH_SIZE;
+import static com.chakray.usersapi.controller.UserController.DEFAULT_PAGE_SIZE;
+import static com.chakray.usersapi.controller.UserController.DEFAULT_SEARCH_LIMIT;
+import static com.chakray.usersapi.controller.UserController.NDJSON;
+import static com.chakray.usersapi.controller.UserController.NEXT_CURSOR_HEADER;
+import static com.chakray.usersapi.controller.UserController.etag;
+import static com.chakray.usersapi.controller.UserController.expectedVersion;
+import static com.chakray.usersapi.controller.UserController.project;
+
+/**
+ * Las mismas rutas y respuestas que {@link UserController} sobre WebFlux (Netty), activas con
+ * spring.main.web-application-type=reactive. Ninguna llamada bloqueante se ejecuta en el event loop:
+ * todo pasa por {@link ReactiveUserService}. Las exportaciones se escriben por bloques de usuarios y solo
+ * avanzan cuando el socket admite más datos, así un cliente lento no acumula la exportación en memoria.
+ */
+@RestController
+@RequestMapping("/users")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserController {
+
+    // Usuarios por bloque en las exportaciones: cada bloque es un búfer y una escritura al socket
+    private static final int EXPORT_CHUNK_SIZE = 256;
+
+    private final ReactiveUserService userService;
+    private final ObjectMapper objectMapper;
+
+    public ReactiveUserController(ReactiveUserService userService, ObjectMapper objectMapper) {
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+    }
+
+    // GET /users (ver UserController.getAllUsers)
+    @GetMapping
+    public Mono<ResponseEntity<List<?>>> getAllUsers(@RequestParam(required = false) String sortedBy,
+                                                     @RequestParam(required = false) Integer limit,
+                                                     @RequestParam(required = false) String cursor,
+                                                     @RequestParam(required = false) Instant createdAfter,
+                                                     @RequestParam(required = false) Instant createdBefore,
+                                                     @RequestParam(required = false) String country,
+                                                     @RequestParam(required = false) String fields,
+                                                     ServerWebExchange exchange) {
+        UserProjection projection = UserProjection.of(fields);
+        boolean createdRange = createdAfter != null || createdBefore != null;
+        if (createdRange && sortedBy != null && SortField.fromParam(sortedBy).orElse(null) != SortField.CREATED_AT) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        if (country != null && (country.isBlank() || createdRange)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        if (limit != null && limit < 1) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return userService.read(service -> {
+            // La versión se lee antes que los datos, nunca después: el contenido es igual o más reciente que el ETag
+            String etag = etag(service.getUsersVersion());
+            if (exchange.checkNotModified(etag)) {
+                return null;
+            }
+            if (limit == null && cursor == null) {
+                List<User> users;
+                if (country != null) {
+                    users = service.findUsersByCountry(country, sortedBy);
+                } else if (createdRange) {
+                    users = service.findUsersCreatedBetween(createdAfter, createdBefore);
+                } else {
+                    users = service.findAllUsers(sortedBy);
+                }
+                return ResponseEntity.ok().eTag(etag).body(project(users, projection));
+            }
+            int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+            UserPage page;
+            if (country != null) {
+                page = service.findUsersByCountryPage(country, sortedBy, cursor, pageSize);
+            } else if (createdRange) {
+                page = service.findUsersCreatedBetweenPage(createdAfter, createdBefore, cursor, pageSize);
+            } else {
+                page = service.findUsersPage(sortedBy, cursor, pageSize);
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag);
+            if (page.getNextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+            }
+            return response.body(project(page.getUsers(), projection));
+        });
+    }
+
+    // GET /users?email=...&fields=...
+    @GetMapping(params = "email")
+    public Mono<List<?>> getUsersByEmail(@RequestParam String email,
+                                         @RequestParam(required = false) String fields) {
+        UserProjection projection = UserProjection.of(fields);
+        return userService.lookup(service -> project(service.findUserByEmail(email).map(List::of).orElseGet(List::of), projection));
+    }
+
+    // GET /users/search?q=...&limit=N&fields=...
+    @GetMapping("/search")
+    public Mono<ResponseEntity<List<?>>> searchUsers(@RequestParam String q,
+                                                     @RequestParam(required = false) Integer limit,
+                                                     @RequestParam(required = false) String fields) {
+        UserProjection projection = UserProjection.of(fields);
+        if (q.isBlank() || limit != null && limit < 1) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return userService.read(service -> ResponseEntity.ok(
+                project(service.searchUsers(q, limit != null ? limit : DEFAULT_SEARCH_LIMIT), projection)));
+    }
+
+    // GET /users/{id}?fields=...
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<Object>> getUser(@PathVariable Long id,
+                                                @RequestParam(required = false) String fields,
+                                                ServerWebExchange exchange) {
+        UserProjection projection = UserProjection.of(fields);
+        return userService.lookup(service -> {
+            OptionalLong version = service.findUserVersion(id);
+            if (version.isPresent() && exchange.checkNotModified(etag(version.getAsLong()))) {
+                return null;
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            version.ifPresent(v -> response.eTag(etag(v)));
+            return service.findUserById(id)
+                    .<ResponseEntity<Object>>map(user -> response.body(projection != null ? projection.apply(user) : user))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        });
+    }
+
+    // GET /users?export=true&sortedBy=...
+    // Arreglo JSON escrito por bloques a medida que el socket los acepta
+    @GetMapping(params = "export=true")
+    public ResponseEntity<Flux<DataBuffer>> exportUsers(@RequestParam(required = false) String sortedBy,
+                                                        ServerWebExchange exchange) {
+        DataBufferFactory buffers = exchange.getResponse().bufferFactory();
+        Flux<DataBuffer> body = Flux.concat(
+                Mono.fromSupplier(() -> buffers.wrap(new byte[]{'['})),
+                encode(userService.stream(service -> service.streamAllUsers(sortedBy)), buffers, ','),
+                Mono.fromSupplier(() -> buffers.wrap(new byte[]{']'})));
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    // GET /users/export
+    // Un usuario por línea (NDJSON)
+    @GetMapping(value = "/export", produces = NDJSON)
+    public ResponseEntity<Flux<DataBuffer>> exportUsersNdjson(ServerWebExchange exchange) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(encode(userService.stream(service -> service.streamAllUsers(null)),
+                        exchange.getResponse().bufferFactory(), '\n'));
+    }
+
+    // Cada bloque de usuarios en un búfer; separator va entre usuarios (',') o tras cada uno ('\n').
+    // buffer() solo pide el siguiente bloque cuando el anterior se ha entregado al socket
+    private Flux<DataBuffer> encode(Flux<User> users, DataBufferFactory buffers, char separator) {
+        boolean between = separator == ',';
+        return users.buffer(EXPORT_CHUNK_SIZE)
+                .index()
+                .map(chunk -> {
+                    DataBuffer buffer = buffers.allocateBuffer(chunk.getT2().size() * 256);
+                    for (int i = 0; i < chunk.getT2().size(); i++) {
+                        if (between && (chunk.getT1() > 0 || i > 0)) {
+                            buffer.write((byte) separator);
+                        }
+                        buffer.write(toJson(chunk.getT2().get(i)));
+                        if (!between) {
+                            buffer.write((byte) separator);
+                        }
+                    }
+                    return buffer;
+                });
+    }
+
+    private byte[] toJson(User user) {
+        try {
+            return objectMapper.writeValueAsBytes(user);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar el usuario " + user.getId(), e);
+        }
+    }
+
+    // Línea del NDJSON ya parseada: el usuario o el motivo por el que no se pudo leer
+    private record ParsedLine(long line, User user, String error) {
+    }
+
+    // POST /users/bulk (application/x-ndjson)
+    // El cuerpo se lee por líneas y se da de alta por lotes; el siguiente lote no se lee del socket
+    // hasta que el anterior está guardado
+    @PostMapping(value = "/bulk", consumes = NDJSON)
+    public Mono<BulkImportResult> importUsers(@RequestBody Flux<String> lines) {
+        BulkImportResult result = new BulkImportResult();
+        return lines.index()
+                .filter(line -> !line.getT2().isBlank())
+                .map(line -> parse(line.getT1() + 1, line.getT2()))
+                .buffer(BULK_BATCH_SIZE)
+                // concatMap: un lote detrás de otro, así result solo se modifica desde un hilo a la vez
+                .concatMap(batch -> userService.write(service -> importBatch(service, batch, result)))
+                .then(Mono.fromSupplier(() -> {
+                    result.getErrors().sort(Comparator.comparingLong(BulkImportResult.LineError::getLine));
+                    return result;
+                }));
+    }
+
+    private ParsedLine parse(long lineNumber, String line) {
+        try {
+            return new ParsedLine(lineNumber, objectMapper.readValue(line, User.class), null);
+        } catch (JsonProcessingException e) {
+            return new ParsedLine(lineNumber, null, "JSON inválido: " + e.getOriginalMessage());
+        }
+    }
+
+    private static int importBatch(UserService service, List<ParsedLine> batch, BulkImportResult result) {
+        List<ParsedLine> parsed = batch.stream().filter(line -> line.user() != null).toList();
+        batch.stream()
+                .filter(line -> line.user() == null)
+                .forEach(line -> result.getErrors().add(new BulkImportResult.LineError(line.line(), line.error())));
+        if (parsed.isEmpty()) {
+            return 0;
+        }
+        List<User> created = service.createUsers(parsed.stream().map(ParsedLine::user).toList(), (error, index) ->
+                result.getErrors().add(new BulkImportResult.LineError(parsed.get(index).line(), error.getMessage())));
+        result.setCreated(result.getCreated() + created.size());
+        return created.size();
+    }
+
+    // GET /users/{user_id}/addresses
+    @GetMapping("/{userId}/addresses")
+    public Mono<ResponseEntity<List<Address>>> getUserAddresses(@PathVariable Long userId, ServerWebExchange exchange) {
+        return userService.lookup(service -> {
+            OptionalLong version = service.findUserVersion(userId);
+            if (version.isPresent() && exchange.checkNotModified(etag(version.getAsLong()))) {
+                return null;
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            version.ifPresent(v -> response.eTag(etag(v)));
+            return service.findAddressesByUserId(userId)
+                    .map(response::body)
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        });
+    }
+
+    // PUT /users/{user_id}/addresses/{address_id}
+    @PutMapping("/{userId}/addresses/{addressId}")
+    public Mono<ResponseEntity<Address>> updateAddress(@PathVariable Long userId,
+                                                       @PathVariable Long addressId,
+                                                       @RequestBody Address updatedAddress,
+                                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        long expectedVersion = expectedVersion(ifMatch);
+        return userService.write(service -> {
+            Optional<Versioned<Address>> address = service.updateAddress(userId, addressId, updatedAddress, expectedVersion);
+            return address.map(versioned -> ResponseEntity.ok().eTag(etag(versioned.version())).body(versioned.value()))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        });
+    }
+
+    // POST /users
+    @PostMapping
+    public Mono<ResponseEntity<User>> createUser(@RequestBody User user) {
+        return userService.write(service -> new ResponseEntity<>(service.createUser(user), HttpStatus.CREATED));
+    }
+
+    // PATCH /users/{id}
+    @PatchMapping("/{id}")
+    public Mono<ResponseEntity<User>> updateUser(@PathVariable Long id, @RequestBody User userDetails,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        long expectedVersion = expectedVersion(ifMatch);
+        return userService.write(service -> service.updateUser(id, userDetails, expectedVersion)
+                .map(versioned -> ResponseEntity.ok().eTag(etag(versioned.version())).body(versioned.value()))
+                .orElseGet(() -> ResponseEntity.notFound().build()));
+    }
+
+    // PATCH /users con un array JSON de UserPatch (ver UserController.patchUsers)
+    @PatchMapping
+    public Mono<ResponseEntity<BatchPatchResult>> patchUsers(@RequestBody List<UserPatch> patches) {
+        if (patches.size() > UserService.MAX_BATCH_PATCHES) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return userService.write(service -> ResponseEntity.ok(service.patchUsers(patches)));
+    }
+
+    // DELETE /users/{id}
+    @DeleteMapping("/{id}")
+    public Mono<ResponseEntity<Void>> deleteUser(@PathVariable Long id) {
+        return userService.write(service -> service.deleteUser(id)
+                ? ResponseEntity.noContent().<Void>build()
+                : ResponseEntity.notFound().<Void>build());
+    }
+}
@@ -1,46 +1,299 @@
 package com.chakray.usersapi.controller;
 
 import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.BatchPatchResult;
+import com.chakray.usersapi.model.BulkImportResult;
 import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPage;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.exception.VersionMismatchException;
+import com.chakray.usersapi.repository.SortField;
+import com.chakray.usersapi.repository.UserRepository;
+import com.chakray.usersapi.repository.Versioned;
 import com.chakray.usersapi.service.UserService;
+import com.chakray.usersapi.util.UserProjection;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
 
+// Pila de servlets (por defecto); con spring.main.web-application-type=reactive las mismas rutas las sirve ReactiveUserController
 @RestController
 @RequestMapping("/users")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UserController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String NDJSON = "application/x-ndjson";
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int DEFAULT_SEARCH_LIMIT = 20;
+    static final int BULK_BATCH_SIZE = 500;
+
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+    }
+
+    // ETag fuerte a partir de un número de versión del repositorio
+    static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    // If-Match con un único ETag fuerte (o *) -> versión esperada; cualquier otro valor no puede coincidir
+    static long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return UserRepository.ANY_VERSION;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException ignored) {
+                // Cae al 412
+            }
+        }
+        throw new VersionMismatchException("If-Match no corresponde a ninguna versión: " + ifMatch);
     }
 
-    // GET /users?sortedBy=[email|id|name|created_at]
+    // GET /users?sortedBy=[email|id|name|created_at]&limit=N&cursor=...&createdAfter=...&createdBefore=...&country=...
+    // Con limit/cursor responde una página y devuelve el cursor de la siguiente en la cabecera X-Next-Cursor.
+    // createdAfter (incluido) y createdBefore (excluido) son instantes ISO-8601 y ordenan por created_at.
+    // country=UK deja solo los usuarios con alguna dirección en ese país (combinable con sortedBy y la paginación,
+    // no con el rango de fechas).
+    // El ETag es la versión global: con If-None-Match vigente responde 304 sin consultar ni serializar usuarios.
+    // fields=id,email,addresses.countryCode limita los campos de cada usuario (ver UserProjection).
     @GetMapping
-    public ResponseEntity<List<User>> getAllUsers(@RequestParam(required = false) String sortedBy) {
-        List<User> users = userService.findAllUsers(sortedBy);
-        return ResponseEntity.ok(users);
+    public ResponseEntity<List<?>> getAllUsers(@RequestParam(required = false) String sortedBy,
+                                               @RequestParam(required = false) Integer limit,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(required = false) Instant createdAfter,
+                                               @RequestParam(required = false) Instant createdBefore,
+                                               @RequestParam(required = false) String country,
+                                               @RequestParam(required = false) String fields,
+                                               WebRequest request) {
+        // Se valida antes de consultar nada: un campo desconocido responde 400
+        UserProjection projection = UserProjection.of(fields);
+        boolean createdRange = createdAfter != null || createdBefore != null;
+        if (createdRange && sortedBy != null && SortField.fromParam(sortedBy).orElse(null) != SortField.CREATED_AT) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (country != null && (country.isBlank() || createdRange)) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (limit != null && limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        // La versión se lee antes que los datos, nunca después: el contenido es igual o más reciente que el ETag
+        String etag = etag(userService.getUsersVersion());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        if (limit == null && cursor == null) {
+            List<User> users;
+            if (country != null) {
+                users = userService.findUsersByCountry(country, sortedBy);
+            } else if (createdRange) {
+                users = userService.findUsersCreatedBetween(createdAfter, createdBefore);
+            } else {
+                users = userService.findAllUsers(sortedBy);
+            }
+            return ResponseEntity.ok().eTag(etag).body(project(users, projection));
+        }
+        int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        UserPage page;
+        if (country != null) {
+            page = userService.findUsersByCountryPage(country, sortedBy, cursor, pageSize);
+        } else if (createdRange) {
+            page = userService.findUsersCreatedBetweenPage(createdAfter, createdBefore, cursor, pageSize);
+        } else {
+            page = userService.findUsersPage(sortedBy, cursor, pageSize);
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(project(page.getUsers(), projection));
+    }
+
+    static List<?> project(List<User> users, UserProjection projection) {
+        return projection != null ? projection.applyAll(users) : users;
+    }
+
+    // GET /users?email=...&fields=...
+    // Búsqueda por el índice único de email: responde un arreglo con cero o un usuario
+    @GetMapping(params = "email")
+    public ResponseEntity<List<?>> getUsersByEmail(@RequestParam String email,
+                                                   @RequestParam(required = false) String fields) {
+        UserProjection projection = UserProjection.of(fields);
+        List<User> users = userService.findUserByEmail(email)
+                .map(List::of)
+                .orElseGet(List::of);
+        return ResponseEntity.ok(project(users, projection));
+    }
+
+    // GET /users/search?q=...&limit=N&fields=...
+    // Nombre o email que empieza por q primero y que lo contiene después (ver UserRepository.search);
+    // limit por defecto 20, como máximo UserService.MAX_SEARCH_RESULTS
+    @GetMapping("/search")
+    public ResponseEntity<List<?>> searchUsers(@RequestParam String q,
+                                               @RequestParam(required = false) Integer limit,
+                                               @RequestParam(required = false) String fields) {
+        UserProjection projection = UserProjection.of(fields);
+        if (q.isBlank() || limit != null && limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<User> users = userService.searchUsers(q, limit != null ? limit : DEFAULT_SEARCH_LIMIT);
+        return ResponseEntity.ok(project(users, projection));
+    }
+
+    // GET /users/{id}?fields=...
+    // ETag = versión del usuario, como en sus direcciones
+    @GetMapping("/{id}")
+    public ResponseEntity<Object> getUser(@PathVariable Long id,
+                                          @RequestParam(required = false) String fields,
+                                          WebRequest request) {
+        UserProjection projection = UserProjection.of(fields);
+        OptionalLong version = userService.findUserVersion(id);
+        if (version.isPresent() && request.checkNotModified(etag(version.getAsLong()))) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        version.ifPresent(v -> response.eTag(etag(v)));
+        return userService.findUserById(id)
+                .<ResponseEntity<Object>>map(user -> response.body(projection != null ? projection.apply(user) : user))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // GET /users?export=true&sortedBy=...
+    // Exportación sin paginar: el arreglo JSON se escribe usuario a usuario directamente al socket
+    @GetMapping(params = "export=true")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(required = false) String sortedBy) {
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<User> users = userService.streamAllUsers(sortedBy);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                Iterator<User> iterator = users.iterator();
+                while (iterator.hasNext()) {
+                    generator.writeObject(iterator.next());
+                }
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    // GET /users/export
+    // Un usuario por línea (NDJSON), escrito a medida que se recorre el índice por id
+    @GetMapping(value = "/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportUsersNdjson() {
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<User> users = userService.streamAllUsers(null);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                Iterator<User> iterator = users.iterator();
+                while (iterator.hasNext()) {
+                    generator.writeObject(iterator.next());
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+
+    // POST /users/bulk (application/x-ndjson)
+    // Lee el cuerpo línea a línea y da de alta por lotes; una línea inválida no aborta el resto
+    @PostMapping(value = "/bulk", consumes = NDJSON)
+    public ResponseEntity<BulkImportResult> importUsers(InputStream body) throws IOException {
+        BulkImportResult result = new BulkImportResult();
+        List<User> batch = new ArrayList<>(BULK_BATCH_SIZE);
+        long[] batchLines = new long[BULK_BATCH_SIZE];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    batch.add(objectMapper.readValue(line, User.class));
+                } catch (JsonProcessingException e) {
+                    result.getErrors().add(new BulkImportResult.LineError(lineNumber, "JSON inválido: " + e.getOriginalMessage()));
+                    continue;
+                }
+                batchLines[batch.size() - 1] = lineNumber;
+                if (batch.size() == BULK_BATCH_SIZE) {
+                    importBatch(batch, batchLines, result);
+                }
+            }
+        }
+        importBatch(batch, batchLines, result);
+        // Los errores de parseo se registran al leer y los rechazos al cerrar cada lote
+        result.getErrors().sort(Comparator.comparingLong(BulkImportResult.LineError::getLine));
+        return ResponseEntity.ok(result);
+    }
+
+    private void importBatch(List<User> batch, long[] batchLines, BulkImportResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<User> created = userService.createUsers(batch, (error, index) ->
+                result.getErrors().add(new BulkImportResult.LineError(batchLines[index], error.getMessage())));
+        result.setCreated(result.getCreated() + created.size());
+        batch.clear();
     }
 
     // GET /users/{user_id}/addresses
+    // El ETag es la versión del usuario; If-None-Match vigente -> 304 sin cargar las direcciones
     @GetMapping("/{userId}/addresses")
-    public ResponseEntity<List<Address>> getUserAddresses(@PathVariable Long userId) {
+    public ResponseEntity<List<Address>> getUserAddresses(@PathVariable Long userId, WebRequest request) {
+        OptionalLong version = userService.findUserVersion(userId);
+        if (version.isPresent() && request.checkNotModified(etag(version.getAsLong()))) {
+            return null;
+        }
         Optional<List<Address>> addresses = userService.findAddressesByUserId(userId);
-        return addresses.map(ResponseEntity::ok)
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        version.ifPresent(v -> response.eTag(etag(v)));
+        return addresses.map(response::body)
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     // PUT /users/{user_id}/addresses/{address_id}
+    // Con If-Match solo se aplica si la versión del usuario no cambió (412 en caso contrario)
     @PutMapping("/{userId}/addresses/{addressId}")
     public ResponseEntity<Address> updateAddress(@PathVariable Long userId,
                                                  @PathVariable Long addressId,
-                                                 @RequestBody Address updatedAddress) {
-        Optional<Address> address = userService.updateAddress(userId, addressId, updatedAddress);
-        return address.map(ResponseEntity::ok)
+                                                 @RequestBody Address updatedAddress,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Optional<Versioned<Address>> address = userService.updateAddress(userId, addressId, updatedAddress,
+                expectedVersion(ifMatch));
+        return address.map(versioned -> ResponseEntity.ok().eTag(etag(versioned.version())).body(versioned.value()))
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
@@ -52,13 +305,27 @@ public class UserController {
     }
 
     // PATCH /users/{id}
+    // Con If-Match solo se aplica si la versión del usuario no cambió (412 en caso contrario)
     @PatchMapping("/{id}")
-    public ResponseEntity<User> updateUser(@PathVariable Long id, @RequestBody User userDetails) {
-        Optional<User> updatedUser = userService.updateUser(id, userDetails);
-        return updatedUser.map(ResponseEntity::ok)
+    public ResponseEntity<User> updateUser(@PathVariable Long id, @RequestBody User userDetails,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Optional<Versioned<User>> updatedUser = userService.updateUser(id, userDetails, expectedVersion(ifMatch));
+        return updatedUser.map(versioned -> ResponseEntity.ok().eTag(etag(versioned.version())).body(versioned.value()))
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    // PATCH /users con un array JSON de UserPatch (cambios de usuarios y de direcciones)
+    // Sustituye a muchos PATCH /users/{id} y PUT /users/{userId}/addresses/{addressId}: los cambios de un mismo
+    // usuario se aplican juntos (todos o ninguno, una sola versión) y cada elemento de la respuesta lleva el
+    // estado que habría devuelto su petición individual. Más de MAX_BATCH_PATCHES elementos -> 400
+    @PatchMapping
+    public ResponseEntity<BatchPatchResult> patchUsers(@RequestBody List<UserPatch> patches) {
+        if (patches.size() > UserService.MAX_BATCH_PATCHES) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(userService.patchUsers(patches));
+    }
+
     // DELETE /users/{id}
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
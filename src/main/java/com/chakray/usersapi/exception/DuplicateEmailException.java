@@ -0,0 +1,13 @@
+package com.chakray.usersapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Otro usuario ya tiene registrado el email solicitado
+@ResponseStatus(HttpStatus.CONFLICT)
+public class DuplicateEmailException extends RuntimeException {
+
+    public DuplicateEmailException(String email) {
+        super("El email ya está registrado: " + email);
+    }
+}
@@ -0,0 +1,13 @@
+package com.chakray.usersapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// La cola del motor de hashing está llena: se rechaza la petición en lugar de bloquear hilos de Tomcat
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PasswordHashingOverloadedException extends RuntimeException {
+
+    public PasswordHashingOverloadedException() {
+        super("Demasiadas contraseñas pendientes de hashear, reintente más tarde");
+    }
+}
@@ -0,0 +1,13 @@
+package com.chakray.usersapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// El WAL no pudo registrar una escritura: el repositorio deja de aceptar cambios hasta reiniciar
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class StorageUnavailableException extends RuntimeException {
+
+    public StorageUnavailableException(Throwable cause) {
+        super("No se pudo registrar la escritura en el WAL; el repositorio no acepta cambios hasta reiniciarse", cause);
+    }
+}
@@ -0,0 +1,17 @@
+package com.chakray.usersapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// La versión indicada en If-Match ya no es la actual del usuario
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class VersionMismatchException extends RuntimeException {
+
+    public VersionMismatchException(Long userId, long currentVersion) {
+        super("El usuario " + userId + " fue modificado; versión actual: " + currentVersion);
+    }
+
+    public VersionMismatchException(String message) {
+        super(message);
+    }
+}
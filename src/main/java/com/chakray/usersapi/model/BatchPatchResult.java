@@ -0,0 +1,29 @@
+package com.chakray.usersapi.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Resultado de un PATCH por lotes: un elemento por cambio recibido, en el mismo orden
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchPatchResult {
+    private int applied;
+    private List<Item> results = new ArrayList<>();
+
+    // Estado HTTP del cambio; version (si se aplicó) o error (si no) y nada más, para que la respuesta sea compacta
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Item {
+        private int status;
+        private Long version;
+        private String error;
+    }
+}
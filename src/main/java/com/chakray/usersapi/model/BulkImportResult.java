@@ -0,0 +1,25 @@
+package com.chakray.usersapi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Resumen de una importación NDJSON: usuarios creados y líneas rechazadas con su motivo
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkImportResult {
+    private int created;
+    private List<LineError> errors = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LineError {
+        private long line;
+        private String message;
+    }
+}
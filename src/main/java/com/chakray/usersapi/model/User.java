@@ -1,6 +1,10 @@
 package com.chakray.usersapi.model;
+import com.chakray.usersapi.util.CreatedAtJson;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import java.time.Instant;
 import java.util.ArrayList;
 
 
@@ -13,10 +17,13 @@ public class User {
     private String email;
     private String name;
     private String password;
-    private String createdAt;
+    // Instante de creación; en JSON se expone como "dd-MM-yyyy HH:mm:ss" (hora de Londres)
+    @JsonSerialize(using = CreatedAtJson.Serializer.class)
+    @JsonDeserialize(using = CreatedAtJson.Deserializer.class)
+    private Instant createdAt;
     private List<Address> addresses = new ArrayList<>();
 
-    public User(Long id, String email, String name, String password, String createdAt, List<Address> addresses) {
+    public User(Long id, String email, String name, String password, Instant createdAt, List<Address> addresses) {
         this.id = id;
         this.email = email;
         this.name = name;
@@ -24,4 +31,4 @@ public class User {
         this.createdAt = createdAt;
         this.addresses = addresses;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,16 @@
+package com.chakray.usersapi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Página de usuarios y cursor opaco para pedir la siguiente (null si no hay más)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPage {
+    private List<User> users;
+    private String nextCursor;
+}
@@ -0,0 +1,24 @@
+package com.chakray.usersapi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Elemento de un PATCH por lotes. Sin addressId cambia el usuario (email, name, password); con addressId
+ * cambia esa dirección del usuario (name, street, countryCode). Los campos null conservan el valor actual.
+ * version es opcional y equivale a un If-Match con la versión del usuario.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPatch {
+    private Long userId;
+    private Long addressId;
+    private Long version;
+    private String email;
+    private String name;
+    private String password;
+    private String street;
+    private String countryCode;
+}
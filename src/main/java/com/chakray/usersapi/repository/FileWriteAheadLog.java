@@ -0,0 +1,462 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.CreatedAtJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log en disco escrito con un {@link FileChannel}.
+ * <p>
+ * Los hilos de petición solo serializan su registro y lo encolan; un único hilo escritor vacía la cola
+ * por lotes (group commit), hace una sola escritura y, según la {@link FsyncPolicy}, un solo fsync por
+ * lote. Así N escritores concurrentes pagan un fsync en lugar de N.
+ * <p>
+ * Formato de cada registro: longitud del payload (int), LSN (long), CRC32C de LSN+payload (int) y el
+ * payload JSON. En el replay se descarta la cola a partir del primer registro incompleto o corrupto.
+ */
+public class FileWriteAheadLog implements WriteAheadLog {
+
+    private static final Logger log = LoggerFactory.getLogger(FileWriteAheadLog.class);
+
+    static final String SEGMENT_PREFIX = "wal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Elemento de la cola del escritor: un registro, o una orden de rollover si record es null
+    private record PendingWrite(WalRecord record, CompletableFuture<Void> done, CompletableFuture<Long> rolledOver) {
+
+        boolean isRollover() {
+            return record == null;
+        }
+    }
+
+    private abstract static class PersistentUser {
+        @JsonSerialize(using = CreatedAtJson.EpochMillisSerializer.class)
+        private Instant createdAt;
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final int maxBatchSize;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+    // Estado propiedad del hilo escritor una vez hecho el replay
+    private FileChannel channel;
+    private long nextLsn = 1;
+    private long lastForceNanos = System.nanoTime();
+    private boolean dirty;
+    private ByteBuffer batchBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer lsnBytes = ByteBuffer.allocate(Long.BYTES);
+
+    private final ReentrantLock replayLock = new ReentrantLock();
+    // Encolar y dejar de aceptar registros son atómicos entre sí: nada entra en la cola después de que
+    // el escritor la vacía por última vez, así ningún future se queda sin completar
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+    private Thread writerThread;
+    private volatile boolean closed;
+    // Protegido por enqueueLock: true desde close() o desde que el hilo escritor terminó
+    private boolean stopped;
+    // Métricas acumuladas; solo las actualiza el hilo escritor
+    private final LongAdder writtenRecords = new LongAdder();
+    private final LongAdder writtenBatches = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+
+    public FileWriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, Duration fsyncInterval,
+                             int maxBatchSize, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        // createdAt se guarda como milisegundos epoch, no con el formato local de la API
+        this.objectMapper = objectMapper.copy().addMixIn(User.class, PersistentUser.class);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void replay(long fromLsn, ObjLongConsumer<WalRecord> consumer) {
+        // ReentrantLock en lugar de synchronized: la lectura de segmentos no fija un hilo virtual a su portador
+        replayLock.lock();
+        try {
+            replayAndStartWriter(fromLsn, consumer);
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    private void replayAndStartWriter(long fromLsn, ObjLongConsumer<WalRecord> consumer) {
+        if (writerThread != null) {
+            throw new IllegalStateException("El replay del WAL ya se realizó");
+        }
+        try {
+            Files.createDirectories(directory);
+            nextLsn = Math.max(nextLsn, fromLsn);
+            Path active = null;
+            long validBytes = 0;
+            for (Path segment : segments()) {
+                if (firstLsn(segment) < fromLsn) {
+                    // Segmento ya cubierto por el snapshot; se eliminará en el próximo checkpoint
+                    continue;
+                }
+                if (active == null && firstLsn(segment) > Math.max(fromLsn, 1)) {
+                    // Reaplicar lo que sigue dejaría el estado sin los registros intermedios, sin avisar
+                    throw new IllegalStateException("Faltan registros del WAL en " + directory + ": se necesitan desde el LSN "
+                            + Math.max(fromLsn, 1) + " y el primer segmento empieza en " + firstLsn(segment));
+                }
+                active = segment;
+                validBytes = replaySegment(segment, consumer);
+            }
+            if (active == null) {
+                active = segmentPath(nextLsn);
+            }
+            channel = FileChannel.open(active, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Se trunca cualquier registro parcial que haya dejado una caída a mitad de escritura
+            channel.truncate(validBytes);
+            channel.position(validBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo recuperar el WAL en " + directory, e);
+        }
+        writerThread = new Thread(this::runWriter, "users-wal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public long rollover() {
+        CompletableFuture<Long> rolledOver = new CompletableFuture<>();
+        enqueue(new PendingWrite(null, null, rolledOver));
+        return rolledOver.join();
+    }
+
+    @Override
+    public void deleteSegmentsBefore(long lsn) {
+        try {
+            List<Path> segments = segments();
+            // Un segmento solo contiene registros anteriores a lsn si el siguiente empieza en lsn o antes
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (firstLsn(segments.get(i + 1)) <= lsn) {
+                    Files.deleteIfExists(segments.get(i));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("No se pudieron borrar los segmentos antiguos del WAL", e);
+        }
+    }
+
+    // Registros encolados que el hilo escritor aún no ha recogido
+    public int getPendingWrites() {
+        return queue.size();
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.sum();
+    }
+
+    public long getWrittenBatches() {
+        return writtenBatches.sum();
+    }
+
+    public long getForces() {
+        return forces.sum();
+    }
+
+    private void enqueue(PendingWrite write) {
+        enqueueLock.lock();
+        try {
+            if (writerThread == null) {
+                throw new IllegalStateException("Se debe hacer replay del WAL antes de escribir");
+            }
+            if (stopped) {
+                throw new IllegalStateException("El WAL está cerrado");
+            }
+            queue.add(write);
+        } finally {
+            enqueueLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> append(WalRecord record) {
+        // Los usuarios del repositorio son inmutables: la serialización se delega al hilo escritor
+        // y sale de la sección crítica del que llama
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(new PendingWrite(record, done, null));
+        return done;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        enqueueLock.lock();
+        try {
+            closed = true;
+            stopped = true;
+        } finally {
+            enqueueLock.unlock();
+        }
+        if (writerThread == null) {
+            return;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (dirty && fsyncPolicy != FsyncPolicy.NONE) {
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Error cerrando el WAL", e);
+        }
+    }
+
+    private void runWriter() {
+        try {
+            writeUntilClosed();
+        } finally {
+            // Si el escritor termina por una interrupción o un error inesperado, los registros que queden
+            // en la cola fallan en lugar de dejar esperando para siempre a quien los encoló
+            enqueueLock.lock();
+            try {
+                stopped = true;
+            } finally {
+                enqueueLock.unlock();
+            }
+            failPending(new IllegalStateException("El hilo escritor del WAL se detuvo"));
+        }
+    }
+
+    private void failPending(IllegalStateException cause) {
+        List<PendingWrite> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (PendingWrite write : pending) {
+            if (write.isRollover()) {
+                write.rolledOver().completeExceptionally(cause);
+            } else {
+                write.done().completeExceptionally(cause);
+            }
+        }
+    }
+
+    private void writeUntilClosed() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        long pollNanos = fsyncPolicy == FsyncPolicy.INTERVAL
+                ? Math.min(fsyncIntervalNanos, IDLE_POLL_NANOS)
+                : IDLE_POLL_NANOS;
+        while (true) {
+            PendingWrite first;
+            try {
+                first = queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first == null) {
+                if (closed) {
+                    return;
+                }
+                forceIfIntervalElapsed();
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, maxBatchSize - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).isRollover()) {
+                writeRecords(batch.subList(from, i));
+                rollSegment(batch.get(i));
+                from = i + 1;
+            }
+        }
+        writeRecords(batch.subList(from, batch.size()));
+    }
+
+    private void writeRecords(List<PendingWrite> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = frame(records);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            dirty = true;
+            writtenRecords.add(records.size());
+            writtenBatches.increment();
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                force();
+            } else {
+                forceIfIntervalElapsed();
+            }
+            records.forEach(pending -> pending.done().complete(null));
+        } catch (IOException | RuntimeException e) {
+            log.error("Error escribiendo un lote de {} registros en el WAL", records.size(), e);
+            records.forEach(pending -> pending.done().completeExceptionally(e));
+        }
+    }
+
+    private void rollSegment(PendingWrite rollover) {
+        try {
+            // El segmento que se cierra queda completo en disco antes de que un snapshot lo reemplace
+            force();
+            channel.close();
+            channel = FileChannel.open(segmentPath(nextLsn), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            rollover.rolledOver().complete(nextLsn);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error rotando el segmento del WAL", e);
+            rollover.rolledOver().completeExceptionally(e);
+        }
+    }
+
+    private ByteBuffer frame(List<PendingWrite> records) throws IOException {
+        // Se serializa todo el lote antes de asignar LSN: un fallo no deja huecos en la secuencia
+        byte[][] payloads = new byte[records.size()][];
+        int size = 0;
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = objectMapper.writeValueAsBytes(records.get(i).record());
+            size += HEADER_BYTES + payloads[i].length;
+        }
+        if (batchBuffer.capacity() < size) {
+            batchBuffer = ByteBuffer.allocateDirect(Math.max(size, batchBuffer.capacity() * 2));
+        }
+        ByteBuffer buffer = batchBuffer.clear();
+        for (byte[] payload : payloads) {
+            long lsn = nextLsn++;
+            buffer.putInt(payload.length)
+                    .putLong(lsn)
+                    .putInt(checksum(lsn, payload))
+                    .put(payload);
+        }
+        return buffer.flip();
+    }
+
+    private int checksum(long lsn, byte[] payload) {
+        crc.reset();
+        crc.update(lsnBytes.putLong(0, lsn));
+        lsnBytes.clear();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void forceIfIntervalElapsed() {
+        if (fsyncPolicy != FsyncPolicy.INTERVAL || !dirty
+                || System.nanoTime() - lastForceNanos < fsyncIntervalNanos) {
+            return;
+        }
+        try {
+            force();
+        } catch (IOException e) {
+            log.error("Error haciendo fsync del WAL", e);
+        }
+    }
+
+    private void force() throws IOException {
+        channel.force(false);
+        lastForceNanos = System.nanoTime();
+        dirty = false;
+        forces.increment();
+    }
+
+    // Devuelve cuántos bytes del segmento contienen registros válidos
+    private long replaySegment(Path segment, ObjLongConsumer<WalRecord> consumer) throws IOException {
+        long validBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(segment, StandardOpenOption.READ)), 64 * 1024))) {
+            while (true) {
+                int length;
+                long lsn;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    lsn = in.readLong();
+                    checksum = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    payload = in.readNBytes(length);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (payload.length < length) {
+                    break;
+                }
+                if (checksum(lsn, payload) != checksum) {
+                    log.warn("Registro corrupto en {} (LSN {}); se descarta el resto del segmento", segment, lsn);
+                    break;
+                }
+                consumer.accept(objectMapper.readValue(payload, WalRecord.class), lsn);
+                nextLsn = lsn + 1;
+                validBytes += HEADER_BYTES + length;
+            }
+        }
+        return validBytes;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Path segmentPath(long firstLsn) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,11 @@
+package com.chakray.usersapi.repository;
+
+// Cuándo el write-ahead log fuerza los datos a disco (fsync) tras escribir un grupo de registros
+public enum FsyncPolicy {
+    // fsync en cada group commit: el cliente recibe respuesta solo cuando su mutación es durable
+    ALWAYS,
+    // fsync como mucho cada fsync-interval: se pueden perder las escrituras de ese último intervalo
+    INTERVAL,
+    // nunca se fuerza: el sistema operativo decide cuándo vaciar la caché de páginas
+    NONE
+}
@@ -0,0 +1,236 @@
+package com.chakray.usersapi.repository;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Conjunto de ids en bloques de 65536 (parte alta del id -> bloque), al estilo de los bitmaps
+ * comprimidos: un bloque con pocos ids es un char[] ordenado que se reemplaza al cambiar (copia
+ * acotada a 8 KB) y al superar {@link #SPARSE_MAX} pasa a un bitmap de 8 KB que se modifica con CAS.
+ * Cuesta unos 2 bytes por id en los conjuntos dispersos y 1 bit en los densos. Lo usan los índices
+ * invertidos (trigramas de SearchIndex, países de las direcciones).
+ * Las escrituras de un mismo bloque se serializan con compute; las lecturas no bloquean.
+ */
+final class IdPostings {
+
+    private static final int SPARSE_MAX = 4096;
+
+    private final ConcurrentMap<Long, Object> blocks = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    int size() {
+        return size.get();
+    }
+
+    boolean contains(long id) {
+        Object block = blocks.get(id >>> 16);
+        char low = (char) id;
+        if (block instanceof AtomicLongArray bitmap) {
+            return (bitmap.get(low >>> 6) & 1L << low) != 0;
+        }
+        return block != null && Arrays.binarySearch((char[]) block, low) >= 0;
+    }
+
+    boolean add(long id) {
+        long high = id >>> 16;
+        char low = (char) id;
+        if (blocks.get(high) instanceof AtomicLongArray bitmap) {
+            return count(set(bitmap, low), 1);
+        }
+        boolean[] added = new boolean[1];
+        blocks.compute(high, (key, block) -> {
+            if (block == null) {
+                added[0] = true;
+                return new char[]{low};
+            }
+            if (block instanceof AtomicLongArray bitmap) {
+                added[0] = set(bitmap, low);
+                return bitmap;
+            }
+            char[] sparse = (char[]) block;
+            int position = Arrays.binarySearch(sparse, low);
+            if (position >= 0) {
+                return sparse;
+            }
+            added[0] = true;
+            if (sparse.length == SPARSE_MAX) {
+                AtomicLongArray bitmap = new AtomicLongArray(1024);
+                for (char value : sparse) {
+                    set(bitmap, value);
+                }
+                set(bitmap, low);
+                return bitmap;
+            }
+            int insertAt = -position - 1;
+            char[] next = new char[sparse.length + 1];
+            System.arraycopy(sparse, 0, next, 0, insertAt);
+            next[insertAt] = low;
+            System.arraycopy(sparse, insertAt, next, insertAt + 1, sparse.length - insertAt);
+            return next;
+        });
+        return count(added[0], 1);
+    }
+
+    boolean remove(long id) {
+        long high = id >>> 16;
+        char low = (char) id;
+        // Los bitmaps no vuelven a ser listas: así nunca se reemplaza un bloque que se modifica con CAS
+        if (blocks.get(high) instanceof AtomicLongArray bitmap) {
+            return count(clear(bitmap, low), -1);
+        }
+        boolean[] removed = new boolean[1];
+        blocks.computeIfPresent(high, (key, block) -> {
+            if (block instanceof AtomicLongArray bitmap) {
+                removed[0] = clear(bitmap, low);
+                return bitmap;
+            }
+            char[] sparse = (char[]) block;
+            int position = Arrays.binarySearch(sparse, low);
+            if (position < 0) {
+                return sparse;
+            }
+            removed[0] = true;
+            if (sparse.length == 1) {
+                return null;
+            }
+            char[] next = new char[sparse.length - 1];
+            System.arraycopy(sparse, 0, next, 0, position);
+            System.arraycopy(sparse, position + 1, next, position, next.length - position);
+            return next;
+        });
+        return count(removed[0], -1);
+    }
+
+    private boolean count(boolean changed, int delta) {
+        if (changed) {
+            size.addAndGet(delta);
+        }
+        return changed;
+    }
+
+    private static boolean set(AtomicLongArray bitmap, char low) {
+        int word = low >>> 6;
+        long mask = 1L << low;
+        long current;
+        do {
+            current = bitmap.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!bitmap.compareAndSet(word, current, current | mask));
+        return true;
+    }
+
+    private static boolean clear(AtomicLongArray bitmap, char low) {
+        int word = low >>> 6;
+        long mask = 1L << low;
+        long current;
+        do {
+            current = bitmap.get(word);
+            if ((current & mask) == 0) {
+                return false;
+            }
+        } while (!bitmap.compareAndSet(word, current, current & ~mask));
+        return true;
+    }
+
+    // Ids en orden ascendente; recorrido débilmente consistente y perezoso
+    LongStream ids() {
+        return ids(0);
+    }
+
+    // Ids mayores o iguales que fromId en orden ascendente, sin recorrer los bloques anteriores
+    LongStream ids(long fromId) {
+        long fromHigh = Math.max(0, fromId) >>> 16;
+        int fromLow = fromId > 0 ? (char) fromId : 0;
+        long[] highs = blocks.keySet().stream().mapToLong(Long::longValue).filter(high -> high >= fromHigh).sorted().toArray();
+        PrimitiveIterator.OfLong iterator = new PrimitiveIterator.OfLong() {
+            private int nextBlock;
+            private long high;
+            private Object block;
+            // Posición en el char[] o siguiente bit a mirar en el bitmap
+            private int position;
+            private long next = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (next < 0) {
+                    if (block == null && !advanceBlock()) {
+                        return false;
+                    }
+                    if (block instanceof char[] sparse) {
+                        if (position < sparse.length) {
+                            next = high << 16 | sparse[position++];
+                        } else {
+                            block = null;
+                        }
+                    } else {
+                        int low = nextSetBit((AtomicLongArray) block, position);
+                        if (low >= 0) {
+                            next = high << 16 | low;
+                            position = low + 1;
+                        } else {
+                            block = null;
+                        }
+                    }
+                }
+                return true;
+            }
+
+            private boolean advanceBlock() {
+                while (nextBlock < highs.length) {
+                    high = highs[nextBlock++];
+                    block = blocks.get(high);
+                    position = 0;
+                    if (high == fromHigh && fromLow > 0) {
+                        // Primer bloque: se empieza en fromId (búsqueda binaria en la lista, bit en el bitmap)
+                        position = block instanceof char[] sparse ? insertionPoint(sparse, (char) fromLow) : fromLow;
+                    }
+                    if (block != null) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long result = next;
+                next = -1;
+                return result;
+            }
+        };
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    private static int insertionPoint(char[] sparse, char low) {
+        int position = Arrays.binarySearch(sparse, low);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private static int nextSetBit(AtomicLongArray bitmap, int from) {
+        for (int word = from >>> 6; word < bitmap.length(); word++) {
+            long bits = bitmap.get(word);
+            if (word == from >>> 6) {
+                bits &= -1L << from;
+            }
+            if (bits != 0) {
+                return word << 6 | Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+}
@@ -1,169 +1,986 @@
 package com.chakray.usersapi.repository;
 
+import com.chakray.usersapi.exception.DuplicateEmailException;
+import com.chakray.usersapi.exception.StorageUnavailableException;
+import com.chakray.usersapi.exception.InvalidCursorException;
+import com.chakray.usersapi.exception.VersionMismatchException;
 import com.chakray.usersapi.model.Address;
 import com.chakray.usersapi.model.User;
-import com.chakray.usersapi.util.PasswordHasher; // Asegúrate de que esta clase exista
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.util.CreatedAtFormat;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import io.micrometer.core.annotation.Timed;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
 @Repository
+@Profile("!jdbc")
 public class InMemoryUserRepository implements UserRepository {
 
-    private final List<User> users = new ArrayList<>();
+    private static final Logger log = LoggerFactory.getLogger(InMemoryUserRepository.class);
+
+    private static final int LOCK_STRIPES = 256;
+
+    // Timer por operación (etiquetas class/method/exception) con histograma para percentiles en Prometheus.
+    // En los métodos que devuelven un Stream solo se mide su construcción, no el recorrido.
+    public static final String TIMER = "users.repository";
+
+    // Estimación aproximada de bytes retenidos, medida sobre datos de ejemplo (cabeceras, Strings cortos,
+    // nodos del ConcurrentHashMap y de la skip list). Sirve para seguir tendencias, no como cifra exacta.
+    private static final long ESTIMATED_USER_BYTES = 480;
+    private static final long ESTIMATED_ADDRESS_BYTES = 240;
+    private static final long ESTIMATED_SORTED_ENTRY_BYTES = 96;
+    private static final long ESTIMATED_SEARCH_TERM_BYTES = 104;
+    private static final long ESTIMATED_TRIGRAM_POSTING_BYTES = 2;
+    private static final long ESTIMATED_COUNTRY_POSTING_BYTES = 2;
+    // Con al menos 1 de cada N usuarios en el país, recorrer el índice ordenado y filtrar encuentra una
+    // página visitando ~N entradas por resultado; por debajo sale más barato ordenar solo los del país
+    private static final int COUNTRY_SCAN_RATIO = 8;
+
+    // Índice hash por id: lecturas sin bloqueo (get). Cada valor es una versión inmutable del usuario;
+    // los escritores publican una versión nueva en lugar de modificar la actual, así los lectores obtienen
+    // siempre un estado consistente sin copiar ni bloquear.
+    private final ConcurrentMap<Long, UserVersion> users = new ConcurrentHashMap<>();
+    // Serializa las escrituras por usuario (leer versión, construir la siguiente, indexar, registrar en el WAL)
+    private final StripedLockManager locks = new StripedLockManager(LOCK_STRIPES);
+    // Índice único email normalizado -> id; putIfAbsent garantiza la unicidad aun con peticiones concurrentes
+    private final ConcurrentMap<String, Long> emailIndex = new ConcurrentHashMap<>();
+    // Índice global addressId -> (dueño, dirección); los ids de dirección son únicos gracias a addressIdCounter
+    private final ConcurrentMap<Long, AddressEntry> addressIndex = new ConcurrentHashMap<>();
+    // Un índice ordenado por cada SortField (posición = ordinal), actualizado en save/update/delete
+    private final SortedIndex[] sortedIndexes = Arrays.stream(SortField.values())
+            .map(SortedIndex::new)
+            .toArray(SortedIndex[]::new);
+    // Términos (prefijos) y trigramas (subcadenas) de nombre y email para search
+    private final SearchIndex searchIndex = new SearchIndex();
+    // Índice invertido país normalizado -> ids de los usuarios con alguna dirección en ese país
+    private final ConcurrentMap<String, IdPostings> countryIndex = new ConcurrentHashMap<>();
     private final AtomicLong userIdCounter = new AtomicLong(125);
     private final AtomicLong addressIdCounter = new AtomicLong(3);
+    // Numera las versiones de cada usuario; un valor nuevo por escritura, también tras borrar y recrear un id
+    private final AtomicLong versionSequence = new AtomicLong();
+    // Mutaciones completadas: se incrementa después de que el cambio es visible, así quien la lee antes
+    // de consultar datos obtiene un estado igual o más reciente que esa versión (base de los ETag de listados)
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    private final WriteAheadLog writeAheadLog;
+    private final Optional<SnapshotStore> snapshotStore;
+    private final PasswordHashingEngine passwordHashingEngine;
+    // Evita checkpoints simultáneos (programado y de apagado)
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // Encolar en el WAL y publicar en el mapa son atómicos respecto a la rotación del checkpoint: los
+    // escritores toman la lectura (sin excluirse entre sí) y checkpoint() la escritura solo para rotar
+    private final ReentrantReadWriteLock publishGate = new ReentrantReadWriteLock();
+    // Primer fallo de una escritura en el WAL; desde entonces se rechazan las escrituras (ver appendToLog)
+    private final AtomicReference<Throwable> walFailure = new AtomicReference<>();
+    private volatile Duration startupDuration = Duration.ZERO;
+
+    public InMemoryUserRepository(WriteAheadLog writeAheadLog, Optional<SnapshotStore> snapshotStore,
+                                  PasswordHashingEngine passwordHashingEngine) {
+        this.writeAheadLog = writeAheadLog;
+        this.snapshotStore = snapshotStore;
+        this.passwordHashingEngine = passwordHashingEngine;
+    }
 
-    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-    private final ZoneId ukZone = ZoneId.of("Europe/London");
     @PostConstruct
     public void init() {
+        long startNanos = System.nanoTime();
         users.clear();
+        emailIndex.clear();
+        addressIndex.clear();
+        Arrays.stream(sortedIndexes).forEach(SortedIndex::clear);
+        searchIndex.clear();
+        countryIndex.clear();
+        walFailure.set(null);
         userIdCounter.set(125);
         addressIdCounter.set(3);
+        // Las versiones no se persisten: se parte de una base derivada del reloj para que sigan creciendo
+        // entre reinicios (hay margen para 2^20 escrituras por milisegundo) y un ETag antiguo no vuelva a coincidir
+        long versionBase = System.currentTimeMillis() << 20;
+        versionSequence.set(versionBase);
+        globalVersion.set(versionBase);
+        if (!recover()) {
+            seed();
+        }
+        startupDuration = Duration.ofNanos(System.nanoTime() - startNanos);
+        log.info("Repositorio listo con {} usuarios en {} ms", users.size(), startupDuration.toMillis());
+    }
+
+    // Métricas de contención de los locks de escritura por usuario
+    public StripedLockManager.Stats getLockStats() {
+        return locks.stats();
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public int getAddressCount() {
+        return addressIndex.size();
+    }
+
+    public int getEmailIndexSize() {
+        return emailIndex.size();
+    }
+
+    // Tamaño en O(1): el índice lleva su propio contador en lugar de recorrer la skip list
+    public int getSortedIndexSize(SortField sortField) {
+        return sortedIndexes[sortField.ordinal()].size();
+    }
+
+    public int getSearchTermCount() {
+        return searchIndex.termCount();
+    }
+
+    public int getSearchTrigramPostingCount() {
+        return searchIndex.postingCount();
+    }
+
+    // Suma de los usuarios de cada país; hay pocos países, se calcula al hacer scrape
+    public int getCountryIndexSize() {
+        return countryIndex.values().stream().mapToInt(IdPostings::size).sum();
+    }
+
+    // Huella aproximada en heap de usuarios, direcciones e índices a partir de los contadores, sin recorrer datos
+    public long getEstimatedHeapBytes() {
+        long sortedEntries = 0;
+        for (SortedIndex index : sortedIndexes) {
+            sortedEntries += index.size();
+        }
+        return users.size() * ESTIMATED_USER_BYTES
+                + addressIndex.size() * ESTIMATED_ADDRESS_BYTES
+                + sortedEntries * ESTIMATED_SORTED_ENTRY_BYTES
+                + searchIndex.termCount() * ESTIMATED_SEARCH_TERM_BYTES
+                + searchIndex.postingCount() * ESTIMATED_TRIGRAM_POSTING_BYTES
+                + getCountryIndexSize() * ESTIMATED_COUNTRY_POSTING_BYTES;
+    }
+
+    // Tiempo que tardó init() en dejar el repositorio listo (carga del snapshot + replay del WAL)
+    public Duration getStartupDuration() {
+        return startupDuration;
+    }
+
+    // Carga el último snapshot y aplica encima el WAL posterior; devuelve false si no había nada que recuperar
+    private boolean recover() {
+        long fromLsn = 0;
+        boolean restored = false;
+        if (snapshotStore.isPresent()) {
+            long startNanos = System.nanoTime();
+            Optional<SnapshotStore.Header> header = snapshotStore.get().loadLatest(this::restore);
+            if (header.isPresent()) {
+                fromLsn = header.get().walLsn();
+                userIdCounter.set(header.get().userIdCounter());
+                addressIdCounter.set(header.get().addressIdCounter());
+                restored = true;
+                log.info("Snapshot cargado: {} usuarios en {} ms",
+                        users.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        }
+        if (writeAheadLog.isEnabled()) {
+            long startNanos = System.nanoTime();
+            long[] replayed = new long[1];
+            writeAheadLog.replay(fromLsn, (record, lsn) -> {
+                apply(record);
+                replayed[0]++;
+            });
+            if (replayed[0] > 0) {
+                restored = true;
+                log.info("WAL aplicado: {} registros en {} ms",
+                        replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        }
+        if (!restored) {
+            return false;
+        }
+        rebuildEmailIndex();
+        currentUsers().forEach(user -> {
+            userIdCounter.accumulateAndGet(user.getId(), Math::max);
+            if (user.getAddresses() != null) {
+                user.getAddresses().forEach(address -> addressIdCounter.accumulateAndGet(address.getId(), Math::max));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Escribe un snapshot binario sin bloquear a los escritores más que durante la rotación del WAL:
+     * rota el WAL, recorre el mapa (iteración débilmente consistente) y borra los segmentos del WAL que
+     * cubren todos los snapshots conservados. La rotación espera a que cada escritor que ya encoló su registro lo publique,
+     * así todo registro con LSN anterior al del snapshot está en el mapa antes de recorrerlo. Las
+     * mutaciones concurrentes con el recorrido quedan en el segmento nuevo y se reaplican al arrancar.
+     */
+    @Timed(value = TIMER, histogram = true)
+    public void checkpoint() {
+        if (snapshotStore.isEmpty() || !checkpointLock.tryLock()) {
+            return;
+        }
+        try {
+            long walLsn;
+            publishGate.writeLock().lock();
+            try {
+                walLsn = writeAheadLog.rollover();
+            } finally {
+                publishGate.writeLock().unlock();
+            }
+            SnapshotStore.Header header = new SnapshotStore.Header(walLsn, userIdCounter.get(), addressIdCounter.get());
+            snapshotStore.get().write(header, () -> currentUsers().iterator());
+            // Se conserva el WAL desde el snapshot retenido más antiguo, por si hay que recurrir a él
+            writeAheadLog.deleteSegmentsBefore(snapshotStore.get().oldestRetainedWalLsn().orElse(walLsn));
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // Al apagar se deja un snapshot para que el siguiente arranque no tenga que reaplicar el WAL
+    @PreDestroy
+    public void shutdown() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            log.warn("No se pudo escribir el snapshot de apagado", e);
+        }
+    }
+
+    private void apply(WalRecord record) {
+        if (record.type() == WalRecord.Type.DELETE) {
+            remove(record.userId(), null);
+        } else {
+            restore(record.user());
+        }
+    }
+
+    /**
+     * Aplica un usuario recuperado como put, pero sin reservar su email: el WAL solo ordena los registros
+     * de cada usuario y un email puede cambiar de dueño entre registros de usuarios distintos (B pasa de X
+     * a Y mientras A pasa de Z a X y A llega antes al log). Un snapshot tampoco es un corte consistente:
+     * puede contener a A y a B con X, y es el WAL posterior el que lo resuelve. El índice de emails se
+     * reconstruye al final de la recuperación, cuando ya se aplicó la última versión de cada usuario.
+     */
+    private void restore(User user) {
+        User next = copyOf(user);
+        next.setAddresses(freeze(user.getAddresses()));
+        locks.withLock(next.getId(), () -> {
+            reindexLookups(user(users.get(next.getId())), next);
+            publish(next, WalRecord.Type.SAVE, null);
+            return next;
+        });
+    }
+
+    private void rebuildEmailIndex() {
+        emailIndex.clear();
+        currentUsers().forEach(user -> {
+            String key = emailKey(user.getEmail());
+            Long owner = key != null ? emailIndex.putIfAbsent(key, user.getId()) : null;
+            if (owner != null) {
+                log.warn("El email {} figura en los usuarios {} y {} tras la recuperación; se conserva el primero",
+                        user.getEmail(), owner, user.getId());
+            }
+        });
+    }
+
+    private void seed() {
         // Usuario 1
         List<Address> user1Addresses = new ArrayList<>();
         user1Addresses.add(new Address(1L, "workaddress", "street No. 1", "UK"));
         user1Addresses.add(new Address(2L, "homeaddress", "street No. 2", "AU"));
-        users.add(new User(
+        seedUser(new User(
                 123L,
                 "user1@mail.com",
                 "user1",
-                PasswordHasher.hashSha1("123456"), // Contraseña hasheada
-                "01-01-2024 00:00:00",
+                passwordHashingEngine.hash("123456"), // Contraseña hasheada
+                CreatedAtFormat.parse("01-01-2024 00:00:00"),
                 user1Addresses
         ));
 
         // Usuario 2
         List<Address> user2Addresses = new ArrayList<>();
         user2Addresses.add(new Address(3L, "vacationhome", "beach street", "ES"));
-        users.add(new User(
+        seedUser(new User(
                 124L,
                 "user2@mail.com",
                 "user2",
-                PasswordHasher.hashSha1("password123"), // Contraseña hasheada
-                LocalDateTime.now(ukZone).format(formatter), // Fecha actual
+                passwordHashingEngine.hash("password123"), // Contraseña hasheada
+                now(), // Fecha actual
                 user2Addresses
         ));
 
         // Usuario 3
         List<Address> user3Addresses = new ArrayList<>();
-        users.add(new User(
+        seedUser(new User(
                 125L,
                 "user3@mail.com",
                 "user3",
-                PasswordHasher.hashSha1("securepass"), // Contraseña hasheada
-                LocalDateTime.now(ukZone).format(formatter), // Fecha actual
+                passwordHashingEngine.hash("securepass"), // Contraseña hasheada
+                now(), // Fecha actual
                 user3Addresses
         ));
     }
 
+    private void seedUser(User user) {
+        AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+        put(user, pending);
+        awaitDurable(pending);
+    }
+
+    // Precisión de milisegundos, la misma que conservan el WAL y los snapshots
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    // Versión publicada de un usuario: el objeto User y su lista de direcciones no se modifican nunca
+    private record UserVersion(User user, long version) {
+    }
+
+    private Stream<User> currentUsers() {
+        return users.values().stream().map(UserVersion::user);
+    }
+
+    private static User user(UserVersion version) {
+        return version == null ? null : version.user();
+    }
+
+    // Copia superficial que comparte la lista de direcciones (inmutable) con el original
+    private static User copyOf(User user) {
+        return new User(user.getId(), user.getEmail(), user.getName(), user.getPassword(),
+                user.getCreatedAt(), user.getAddresses());
+    }
+
+    // Congela las direcciones recibidas del exterior: copias propias en una lista inmutable
+    private static List<Address> freeze(List<Address> addresses) {
+        if (addresses == null || addresses.isEmpty()) {
+            return List.of();
+        }
+        return addresses.stream()
+                .filter(Objects::nonNull)
+                .map(address -> new Address(address.getId(), address.getName(), address.getStreet(), address.getCountryCode()))
+                .toList();
+    }
+
+    // Inserta o reemplaza un usuario completo (alta, replay o carga de snapshot); si pending no es null se registra en el WAL
+    private User put(User user, AtomicReference<CompletableFuture<Void>> pending) {
+        if (pending != null) {
+            checkWritable();
+        }
+        User next = copyOf(user);
+        next.setAddresses(freeze(user.getAddresses()));
+        return locks.withLock(next.getId(), () -> {
+            reindex(user(users.get(next.getId())), next);
+            publish(next, WalRecord.Type.SAVE, pending);
+            return next;
+        });
+    }
+
+    // Elimina el usuario y sus entradas de índice; si pending no es null registra el borrado en el WAL
+    private boolean remove(Long id, AtomicReference<CompletableFuture<Void>> pending) {
+        if (pending != null) {
+            checkWritable();
+        }
+        return locks.withLock(id, () -> {
+            UserVersion previous = users.get(id);
+            if (previous == null) {
+                return false;
+            }
+            reindex(previous.user(), null);
+            publishGate.readLock().lock();
+            try {
+                if (pending != null) {
+                    appendToLog(new WalRecord(WalRecord.Type.DELETE, id, null), pending, previous.user(), null);
+                }
+                users.remove(id);
+            } finally {
+                publishGate.readLock().unlock();
+            }
+            globalVersion.incrementAndGet();
+            return true;
+        });
+    }
+
+    // Publica la versión nueva ya indexada y devuelve su número; se llama con el lock del usuario tomado
+    private long publish(User next, WalRecord.Type logType, AtomicReference<CompletableFuture<Void>> pending) {
+        long version;
+        publishGate.readLock().lock();
+        try {
+            if (pending != null) {
+                // Se encola bajo el lock para que el orden en el WAL coincida con el de publicación
+                appendToLog(new WalRecord(logType, next.getId(), next), pending, user(users.get(next.getId())), next);
+            }
+            version = versionSequence.incrementAndGet();
+            users.put(next.getId(), new UserVersion(next, version));
+        } finally {
+            publishGate.readLock().unlock();
+        }
+        globalVersion.incrementAndGet();
+        return version;
+    }
+
+    /**
+     * Encola el registro antes de publicar el cambio. Si el WAL lo rechaza al encolar (cerrado o con el
+     * escritor detenido) no se publica nada y se deshace la indexación de previous a next. Si falla
+     * después, al escribirlo, el cambio ya es visible en memoria pero no sobrevivirá a un reinicio: el
+     * cliente recibe un 503 y desde ese momento se rechazan todas las escrituras, para que la memoria no
+     * siga divergiendo del log, que es lo que se recupera al arrancar.
+     */
+    private void appendToLog(WalRecord record, AtomicReference<CompletableFuture<Void>> pending,
+                             User previous, User next) {
+        try {
+            pending.set(writeAheadLog.append(record).whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    walFailed(failure);
+                }
+            }));
+        } catch (RuntimeException e) {
+            walFailed(e);
+            try {
+                reindex(next, previous);
+            } catch (RuntimeException revert) {
+                e.addSuppressed(revert);
+            }
+            throw new StorageUnavailableException(e);
+        }
+    }
+
+    private void walFailed(Throwable failure) {
+        if (walFailure.compareAndSet(null, failure)) {
+            log.error("Fallo del WAL: el repositorio deja de aceptar escrituras hasta reiniciarse", failure);
+        }
+    }
+
+    private void checkWritable() {
+        Throwable failure = walFailure.get();
+        if (failure != null) {
+            throw new StorageUnavailableException(failure);
+        }
+    }
+
+    // Concurrencia optimista: se comprueba con el lock tomado, así nadie publica otra versión entre medias
+    private static void checkVersion(Long id, UserVersion current, long expectedVersion) {
+        if (expectedVersion != ANY_VERSION && current.version() != expectedVersion) {
+            throw new VersionMismatchException(id, current.version());
+        }
+    }
+
+    // El registro se encola dentro del lock (orden correcto por usuario) y se espera fuera de él
+    private static void awaitDurable(AtomicReference<CompletableFuture<Void>> pending) {
+        awaitDurable(pending.get());
+    }
+
+    private static void awaitDurable(CompletableFuture<Void> durable) {
+        if (durable == null) {
+            return;
+        }
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            throw new StorageUnavailableException(e.getCause());
+        }
+    }
+
+    /**
+     * Lleva todos los índices secundarios de la versión previous a la versión next (cualquiera puede ser
+     * null en altas y bajas). Se invoca con el lock del usuario tomado. El email se reserva
+     * primero: si está ocupado la excepción sale antes de tocar ningún otro índice.
+     */
+    private void reindex(User previous, User next) {
+        reindexEmail(previous, next);
+        reindexLookups(previous, next);
+    }
+
+    private void reindexEmail(User previous, User next) {
+        Long id = next != null ? next.getId() : previous.getId();
+        String previousEmail = previous != null ? emailKey(previous.getEmail()) : null;
+        String nextEmail = next != null ? emailKey(next.getEmail()) : null;
+        if (!Objects.equals(previousEmail, nextEmail)) {
+            if (nextEmail != null) {
+                claimEmail(next.getEmail(), id);
+            }
+            if (previousEmail != null) {
+                emailIndex.remove(previousEmail, id);
+            }
+        } else if (previous == null && nextEmail != null) {
+            claimEmail(next.getEmail(), id);
+        }
+    }
+
+    // Índices sin restricciones de unicidad: ordenados, búsqueda, direcciones y países
+    private void reindexLookups(User previous, User next) {
+        Long id = next != null ? next.getId() : previous.getId();
+        for (SortedIndex sortedIndex : sortedIndexes) {
+            sortedIndex.replace(previous, next);
+        }
+        searchIndex.replace(previous, next);
+        reindexAddresses(id, previous, next);
+    }
+
+    private record AddressEntry(Long userId, Address address) {
+    }
+
+    private void reindexAddresses(Long userId, User previous, User next) {
+        List<Address> previousAddresses = previous != null ? previous.getAddresses() : List.of();
+        List<Address> nextAddresses = next != null ? next.getAddresses() : List.of();
+        // Misma lista compartida entre versiones: no cambió ninguna dirección
+        if (previousAddresses == nextAddresses) {
+            return;
+        }
+        for (Address address : previousAddresses) {
+            if (nextAddresses.stream().noneMatch(candidate -> candidate.getId().equals(address.getId()))) {
+                // Solo se elimina si la entrada sigue apuntando a este usuario
+                addressIndex.computeIfPresent(address.getId(),
+                        (addressId, entry) -> entry.userId().equals(userId) ? null : entry);
+            }
+        }
+        for (Address address : nextAddresses) {
+            AddressEntry entry = addressIndex.get(address.getId());
+            if (entry == null || entry.address() != address) {
+                addressIndex.put(address.getId(), new AddressEntry(userId, address));
+            }
+        }
+        reindexCountries(userId, previousAddresses, nextAddresses);
+    }
+
+    // Un usuario figura una sola vez por país aunque tenga varias direcciones en él
+    private void reindexCountries(Long userId, List<Address> previousAddresses, List<Address> nextAddresses) {
+        Set<String> previousCountries = countries(previousAddresses);
+        Set<String> nextCountries = countries(nextAddresses);
+        for (String country : previousCountries) {
+            IdPostings postings = countryIndex.get(country);
+            if (!nextCountries.contains(country) && postings != null) {
+                postings.remove(userId);
+            }
+        }
+        for (String country : nextCountries) {
+            if (!previousCountries.contains(country)) {
+                countryIndex.computeIfAbsent(country, key -> new IdPostings()).add(userId);
+            }
+        }
+    }
+
+    private static Set<String> countries(List<Address> addresses) {
+        Set<String> countries = new HashSet<>();
+        for (Address address : addresses) {
+            String country = countryKey(address.getCountryCode());
+            if (country != null) {
+                countries.add(country);
+            }
+        }
+        return countries;
+    }
+
+    private static String countryKey(String countryCode) {
+        return countryCode == null ? null : countryCode.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static boolean hasCountry(User user, String country) {
+        return user.getAddresses().stream().anyMatch(address -> country.equals(countryKey(address.getCountryCode())));
+    }
+
+    // Resuelve la dirección por el índice global comprobando que pertenezca al usuario
+    private AddressEntry ownedAddress(Long userId, Long addressId) {
+        if (userId == null || addressId == null) {
+            return null;
+        }
+        AddressEntry entry = addressIndex.get(addressId);
+        return entry != null && entry.userId().equals(userId) ? entry : null;
+    }
+
+    private static String emailKey(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Reserva el email para el id de forma atómica; falla si ya pertenece a otro usuario
+    private void claimEmail(String email, Long id) {
+        Long owner = emailIndex.putIfAbsent(emailKey(email), id);
+        if (owner != null && !owner.equals(id)) {
+            throw new DuplicateEmailException(email);
+        }
+    }
+
     @Override
+    @Timed(value = TIMER, histogram = true)
     public List<User> findAll() {
-        return Collections.unmodifiableList(users);
+        // Lista de versiones publicadas: la iteración del mapa es débilmente consistente y nunca lanza CME
+        return currentUsers().toList();
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> findAllSorted(SortField sortField) {
+        // Recorrido en orden del índice: sin ordenar por petición
+        return streamSorted(sortField, null).toList();
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Stream<User> streamSorted(SortField sortField, PageCursor after) {
+        if (after != null && after.sortField() != sortField) {
+            throw new InvalidCursorException("El cursor no corresponde al ordenamiento " + sortField.getParam());
+        }
+        // Stream perezoso sobre la skip list: se materializa solo lo que el consumidor pide
+        return sortedIndexes[sortField.ordinal()].idsAfter(after)
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(UserVersion::user);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Stream<User> streamCreatedBetween(Instant from, Instant to, PageCursor after) {
+        if (after != null && after.sortField() != SortField.CREATED_AT) {
+            throw new InvalidCursorException("El cursor no corresponde al ordenamiento " + SortField.CREATED_AT.getParam());
+        }
+        // Rango sobre el índice por fecha: no se recorren los usuarios fuera de [from, to)
+        return sortedIndexes[SortField.CREATED_AT.ordinal()]
+                .idsBetween(from != null ? from.toEpochMilli() : Long.MIN_VALUE,
+                        to != null ? to.toEpochMilli() : null, after)
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(UserVersion::user);
+    }
+
+    /**
+     * Resuelve el filtro por país sobre el índice invertido, sin recorrer todos los usuarios: por id, los
+     * ids del país ya están ordenados y se empieza tras el cursor; para otros campos, si el país es
+     * frecuente se recorre el índice ordenado descartando con una consulta O(1) a su conjunto de ids, y
+     * si es poco frecuente se ordenan solo sus usuarios.
+     */
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Stream<User> streamByCountry(String countryCode, SortField sortField, PageCursor after) {
+        if (after != null && after.sortField() != sortField) {
+            throw new InvalidCursorException("El cursor no corresponde al ordenamiento " + sortField.getParam());
+        }
+        String country = countryKey(countryCode);
+        IdPostings postings = country != null ? countryIndex.get(country) : null;
+        if (postings == null || postings.size() == 0) {
+            return Stream.empty();
+        }
+        Stream<Long> ids;
+        if (sortField == SortField.ID) {
+            ids = postings.ids(after != null ? after.id() + 1 : 0).boxed();
+        } else if ((long) postings.size() * COUNTRY_SCAN_RATIO >= users.size()) {
+            ids = sortedIndexes[sortField.ordinal()].idsAfter(after).filter(postings::contains);
+        } else {
+            SortedIndex.Entry cursor = after != null ? new SortedIndex.Entry(after.key(), after.id()) : null;
+            return postings.ids()
+                    .mapToObj(users::get)
+                    .filter(Objects::nonNull)
+                    .map(UserVersion::user)
+                    .filter(user -> hasCountry(user, country))
+                    .map(user -> Map.entry(new SortedIndex.Entry(sortField.keyOf(user), user.getId()), user))
+                    .filter(entry -> cursor == null || SortedIndex.ENTRY_ORDER.compare(entry.getKey(), cursor) > 0)
+                    .sorted(Map.Entry.comparingByKey(SortedIndex.ENTRY_ORDER))
+                    .map(Map.Entry::getValue);
+        }
+        // Las entradas del índice pueden ir por detrás de la versión publicada: se verifica el país
+        return ids.map(users::get)
+                .filter(Objects::nonNull)
+                .map(UserVersion::user)
+                .filter(user -> hasCountry(user, country));
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<User> findByEmail(String email) {
+        String key = emailKey(email);
+        if (key == null) {
+            return Optional.empty();
+        }
+        Long id = emailIndex.get(key);
+        return id == null ? Optional.empty() : Optional.ofNullable(user(users.get(id)));
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> search(String query, int limit) {
+        String key = SearchIndex.normalize(query);
+        if (key == null || key.isEmpty() || limit < 1) {
+            return List.of();
+        }
+        // Candidatos perezosos del índice, verificados contra la versión actual; se leen solo los necesarios
+        return searchIndex.candidates(key)
+                .distinct()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(UserVersion::user)
+                .filter(user -> SearchIndex.matches(user, key))
+                .limit(limit)
+                .toList();
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public OptionalLong findVersion(Long id) {
+        UserVersion current = id != null ? users.get(id) : null;
+        return current != null ? OptionalLong.of(current.version()) : OptionalLong.empty();
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<User>> findVersionedById(Long id) {
+        UserVersion current = id != null ? users.get(id) : null;
+        return current != null ? Optional.of(new Versioned<>(current.user(), current.version())) : Optional.empty();
+    }
+
+    @Override
+    public long getGlobalVersion() {
+        return globalVersion.get();
+    }
+
+    // Las lecturas devuelven el objeto publicado en el mapa, el mismo hasta la siguiente escritura
+    @Override
+    public boolean sharesPublishedInstances() {
+        return true;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
     public Optional<User> findById(Long id) {
-        return users.stream()
-                .filter(user -> user.getId().equals(id))
-                .findFirst();
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(user(users.get(id)));
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public User save(User user) {
-        if (user.getId() == null) {
-            user.setId(userIdCounter.incrementAndGet());
+        User newUser = copyOf(user);
+        // Un alta siempre crea un usuario nuevo: con el id recibido se reemplazaría uno existente completo
+        newUser.setId(userIdCounter.incrementAndGet());
+        newUser.setPassword(passwordHashingEngine.hash(user.getPassword()));
+        newUser.setCreatedAt(now());
+
+        // Las direcciones de un alta siempre son nuevas: se ignora el id recibido, que podría ser el de
+        // una dirección de otro usuario (el índice global la cambiaría de dueño) o chocar con addressIdCounter
+        List<Address> addresses = freeze(user.getAddresses());
+        addresses.forEach(address -> address.setId(generateNewAddressId()));
+        newUser.setAddresses(addresses);
+
+        AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+        User saved = put(newUser, pending);
+        awaitDurable(pending);
+        return saved;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> saveAll(List<User> batch, ObjIntConsumer<RuntimeException> rejected) {
+        // Un bloque de ids por lote: un solo getAndAdd por contador en vez de uno por usuario/dirección
+        // Como en save, toda dirección del lote recibe un id nuevo
+        long newAddressIds = batch.stream()
+                .map(User::getAddresses)
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .filter(Objects::nonNull)
+                .count();
+        long[] nextUserId = {userIdCounter.getAndAdd(batch.size()) + 1};
+        long[] nextAddressId = {addressIdCounter.getAndAdd(newAddressIds) + 1};
+        Instant createdAt = now();
+
+        List<User> prepared = new ArrayList<>(batch.size());
+        for (User user : batch) {
+            User newUser = copyOf(user);
+            // Como en save, se ignora el id recibido
+            newUser.setId(nextUserId[0]++);
+            newUser.setCreatedAt(createdAt);
+            List<Address> addresses = freeze(user.getAddresses());
+            addresses.forEach(address -> address.setId(nextAddressId[0]++));
+            newUser.setAddresses(addresses);
+            prepared.add(newUser);
+        }
+        // El hash es lo más costoso del alta: se reparte entre los hilos del motor de hashing
+        List<String> hashes = passwordHashingEngine.hashAll(prepared.stream().map(User::getPassword).toList());
+        for (int i = 0; i < prepared.size(); i++) {
+            prepared.get(i).setPassword(hashes.get(i));
         }
-        user.setPassword(PasswordHasher.hashSha1(user.getPassword()));
-        user.setCreatedAt(LocalDateTime.now(ukZone).format(formatter));
 
-        // Asignar IDs a las direcciones si son nuevas
-        if (user.getAddresses() != null) {
-            user.getAddresses().forEach(address -> {
-                if (address.getId() == null) {
-                    address.setId(generateNewAddressId());
-                }
-            });
+        // Se encolan todos los registros del WAL y se espera una sola vez: el lote entra en pocos fsync
+        List<User> saved = new ArrayList<>(prepared.size());
+        List<CompletableFuture<Void>> durable = new ArrayList<>(prepared.size());
+        for (int i = 0; i < prepared.size(); i++) {
+            AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+            try {
+                saved.add(put(prepared.get(i), pending));
+            } catch (DuplicateEmailException e) {
+                rejected.accept(e, i);
+                continue;
+            }
+            if (pending.get() != null) {
+                durable.add(pending.get());
+            }
         }
-        users.add(user);
-        return user;
+        awaitDurable(CompletableFuture.allOf(durable.toArray(CompletableFuture[]::new)));
+        return saved;
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public boolean deleteById(Long id) {
-        return users.removeIf(user -> user.getId().equals(id));
+        if (id == null) {
+            return false;
+        }
+        AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+        boolean deleted = remove(id, pending);
+        awaitDurable(pending);
+        return deleted;
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public Optional<User> update(Long id, User updatedUser) {
-        Optional<User> existingUserOpt = findById(id);
-        if (existingUserOpt.isPresent()) {
-            User existingUser = existingUserOpt.get();
+        return update(id, updatedUser, ANY_VERSION).map(Versioned::value);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<User>> update(Long id, User updatedUser, long expectedVersion) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        checkWritable();
+        // El hash se calcula fuera del lock para no retener a otros escritores de la franja
+        String hashedPassword = updatedUser.getPassword() != null
+                ? passwordHashingEngine.hash(updatedUser.getPassword())
+                : null;
+        AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+        // Leer-modificar-escribir atómico: nadie más puede publicar una versión de este usuario mientras tanto
+        Versioned<User> result = locks.withLock(id, () -> {
+            UserVersion current = users.get(id);
+            if (current == null) {
+                return null;
+            }
+            checkVersion(id, current, expectedVersion);
+            // Nueva versión que comparte con la actual todo lo que no cambia (incluidas las direcciones)
+            User next = copyOf(current.user());
             if (updatedUser.getEmail() != null) {
-                existingUser.setEmail(updatedUser.getEmail());
+                next.setEmail(updatedUser.getEmail());
             }
             if (updatedUser.getName() != null) {
-                existingUser.setName(updatedUser.getName());
+                next.setName(updatedUser.getName());
             }
-            if (updatedUser.getPassword() != null) {
-                existingUser.setPassword(PasswordHasher.hashSha1(updatedUser.getPassword()));
+            if (hashedPassword != null) {
+                next.setPassword(hashedPassword);
             }
-
-            return Optional.of(existingUser);
-        }
-        return Optional.empty();
+            reindex(current.user(), next);
+            return new Versioned<>(next, publish(next, WalRecord.Type.UPDATE, pending));
+        });
+        awaitDurable(pending);
+        return Optional.ofNullable(result);
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public Optional<List<Address>> findAddressesByUserId(Long userId) {
-        return findById(userId)
-                .map(User::getAddresses)
-                .map(ArrayList::new);
+        // La lista publicada es inmutable: se entrega sin copia defensiva
+        return findById(userId).map(User::getAddresses);
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public Optional<Address> findAddressById(Long userId, Long addressId) {
-        return findById(userId)
-                .flatMap(user -> user.getAddresses().stream()
-                        .filter(address -> address.getId().equals(addressId))
-                        .findFirst());
+        return Optional.ofNullable(ownedAddress(userId, addressId)).map(AddressEntry::address);
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public Optional<Address> updateAddress(Long userId, Long addressId, Address updatedAddress) {
-        return findById(userId).flatMap(user -> {
-            Optional<Address> existingAddressOpt = user.getAddresses().stream()
-                    .filter(addr -> addr.getId().equals(addressId))
-                    .findFirst();
-
-            if (existingAddressOpt.isPresent()) {
-                Address existingAddress = existingAddressOpt.get();
-                if (updatedAddress.getName() != null) {
-                    existingAddress.setName(updatedAddress.getName());
-                }
-                if (updatedAddress.getStreet() != null) {
-                    existingAddress.setStreet(updatedAddress.getStreet());
-                }
-                if (updatedAddress.getCountryCode() != null) {
-                    existingAddress.setCountryCode(updatedAddress.getCountryCode());
-                }
-                return Optional.of(existingAddress);
+        return updateAddress(userId, addressId, updatedAddress, ANY_VERSION).map(Versioned::value);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<Address>> updateAddress(Long userId, Long addressId, Address updatedAddress,
+                                                      long expectedVersion) {
+        // Comprobación de pertenencia O(1) por el índice, sin recorrer usuarios
+        if (ownedAddress(userId, addressId) == null) {
+            return Optional.empty();
+        }
+        checkWritable();
+        AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+        Versioned<Address> result = locks.withLock(userId, () -> {
+            UserVersion current = users.get(userId);
+            // Se vuelve a resolver dentro del lock por si hubo un borrado concurrente
+            AddressEntry entry = ownedAddress(userId, addressId);
+            if (current == null || entry == null) {
+                return null;
             }
+            checkVersion(userId, current, expectedVersion);
+            Address existingAddress = entry.address();
+            Address nextAddress = new Address(existingAddress.getId(),
+                    updatedAddress.getName() != null ? updatedAddress.getName() : existingAddress.getName(),
+                    updatedAddress.getStreet() != null ? updatedAddress.getStreet() : existingAddress.getStreet(),
+                    updatedAddress.getCountryCode() != null ? updatedAddress.getCountryCode() : existingAddress.getCountryCode());
+            // Lista nueva que reutiliza las demás direcciones sin copiarlas
+            List<Address> nextAddresses = current.user().getAddresses().stream()
+                    .map(address -> address == existingAddress ? nextAddress : address)
+                    .toList();
+            User next = copyOf(current.user());
+            next.setAddresses(nextAddresses);
+            reindex(current.user(), next);
+            return new Versioned<>(nextAddress, publish(next, WalRecord.Type.UPDATE_ADDRESS, pending));
+        });
+        awaitDurable(pending);
+        return Optional.ofNullable(result);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<User>> applyPatches(Long userId, List<UserPatch> patches, long expectedVersion) {
+        if (userId == null) {
             return Optional.empty();
+        }
+        checkWritable();
+        String hashedPassword = UserPatches.hashedPassword(patches, passwordHashingEngine);
+        AtomicReference<CompletableFuture<Void>> pending = new AtomicReference<>();
+        // Todo el grupo bajo un único lock: una reindexación, una versión y un registro en el WAL
+        Versioned<User> result = locks.withLock(userId, () -> {
+            UserVersion current = users.get(userId);
+            if (current == null) {
+                return null;
+            }
+            checkVersion(userId, current, expectedVersion);
+            User next = UserPatches.apply(current.user(), patches, hashedPassword);
+            if (next == current.user()) {
+                return new Versioned<>(next, current.version());
+            }
+            reindex(current.user(), next);
+            return new Versioned<>(next, publish(next, WalRecord.Type.UPDATE, pending));
         });
+        awaitDurable(pending);
+        return Optional.ofNullable(result);
     }
 
     @Override
+    @Timed(value = TIMER, histogram = true)
     public Long generateNewAddressId() {
         return addressIdCounter.incrementAndGet();
     }
-}
\ No newline at end of file
+}
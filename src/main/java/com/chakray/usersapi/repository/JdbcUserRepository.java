@@ -0,0 +1,1027 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.exception.DuplicateEmailException;
+import com.chakray.usersapi.exception.InvalidCursorException;
+import com.chakray.usersapi.exception.VersionMismatchException;
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.util.CreatedAtFormat;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Repositorio sobre una base de datos embebida (H2) accedida por JDBC; lo crea StorageConfig con el
+ * perfil jdbc en lugar de {@link InMemoryUserRepository}. El conjunto de datos ya no está limitado por
+ * el heap: solo lo está la caché de lectura de UserService.
+ * <p>
+ * Los usuarios viven en la tabla users y sus direcciones en addresses (db/users-schema.sql). Ninguna
+ * lectura hace una consulta por usuario: las lecturas puntuales traen usuario y direcciones con un JOIN,
+ * y los recorridos ordenados leen bloques de fetchSize usuarios por clave (keyset, igual que los
+ * cursores de la API) y las direcciones de cada bloque con una sola consulta {@code user_id = ANY(?)}.
+ * Las altas masivas van en lotes de sentencias preparadas dentro de una transacción.
+ * <p>
+ * Cada escritura es una transacción. Las que dependen del estado actual bloquean la fila del usuario
+ * ({@code SELECT ... FOR UPDATE}) antes de comprobar la versión esperada y asignar la siguiente. Las
+ * versiones y la versión global siguen las mismas reglas que en el repositorio en memoria. Los objetos
+ * devueltos se construyen en cada lectura, con listas de direcciones inmutables.
+ */
+public class JdbcUserRepository implements UserRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcUserRepository.class);
+
+    // Mismo nombre de timer que el repositorio en memoria; la etiqueta class los distingue
+    public static final String TIMER = InMemoryUserRepository.TIMER;
+
+    private static final String SCHEMA = "db/users-schema.sql";
+    private static final String USER_SEQUENCE = "user_id_seq";
+    private static final String ADDRESS_SEQUENCE = "address_id_seq";
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private static final String USER_COLUMNS = "u.id, u.email, u.name, u.password, u.created_at, u.version";
+    // Usuario con sus direcciones en una sola consulta; se completa con la condición sobre u
+    private static final String SELECT_USER_WITH_ADDRESSES = "SELECT " + USER_COLUMNS
+            + ", a.id, a.name, a.street, a.country_code"
+            + " FROM users u LEFT JOIN addresses a ON a.user_id = u.id WHERE ";
+    private static final String SELECT_ADDRESSES_OF_USERS =
+            "SELECT a.user_id, a.id, a.name, a.street, a.country_code FROM addresses a"
+                    + " WHERE a.user_id = ANY(?) ORDER BY a.user_id, a.list_index";
+    private static final String MERGE_USER = "MERGE INTO users (id, email, email_key, name, password, created_at, version)"
+            + " KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String MERGE_ADDRESS = "MERGE INTO addresses (id, user_id, list_index, name, street, country_code)"
+            + " KEY (id) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final DataSource dataSource;
+    private final PasswordHashingEngine passwordHashingEngine;
+    private final int fetchSize;
+    private final int batchSize;
+    // Ver InMemoryUserRepository: versión por escritura y mutaciones completadas (se incrementa tras el commit)
+    private final AtomicLong versionSequence = new AtomicLong();
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    public JdbcUserRepository(DataSource dataSource, PasswordHashingEngine passwordHashingEngine,
+                              int fetchSize, int batchSize) {
+        this.dataSource = dataSource;
+        this.passwordHashingEngine = passwordHashingEngine;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    // Usuario leído de una fila junto con su versión; las direcciones se añaden después
+    private record UserRow(User user, long version) {
+    }
+
+    // Filtro de los recorridos: rango de createdAt (from/to null = sin límite) o país normalizado
+    private record ScanFilter(boolean createdRange, Instant from, Instant to, String country) {
+
+        static ScanFilter createdBetween(Instant from, Instant to) {
+            return new ScanFilter(true, from, to, null);
+        }
+
+        static ScanFilter country(String country) {
+            return new ScanFilter(false, null, null, country);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        long startNanos = System.nanoTime();
+        write(connection -> {
+            createSchema(connection);
+            if (count(connection, "SELECT COUNT(*) FROM users") == 0) {
+                seed(connection);
+            }
+            syncSequences(connection);
+            return null;
+        });
+        // Las versiones siguen creciendo entre reinicios aunque el reloj retroceda: nunca por debajo de la mayor guardada
+        long versionBase = Math.max(System.currentTimeMillis() << 20,
+                read(connection -> count(connection, "SELECT COALESCE(MAX(version), 0) FROM users")) + 1);
+        versionSequence.set(versionBase);
+        globalVersion.set(versionBase);
+        log.info("Repositorio JDBC listo con {} usuarios en {} ms", getUserCount(),
+                (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    public long getUserCount() {
+        return read(connection -> count(connection, "SELECT COUNT(*) FROM users"));
+    }
+
+    public long getAddressCount() {
+        return read(connection -> count(connection, "SELECT COUNT(*) FROM addresses"));
+    }
+
+    private static void createSchema(Connection connection) throws SQLException {
+        String script;
+        try (InputStream in = JdbcUserRepository.class.getClassLoader().getResourceAsStream(SCHEMA)) {
+            if (in == null) {
+                throw new IllegalStateException("No se encontró " + SCHEMA);
+            }
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer " + SCHEMA, e);
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : script.replaceAll("(?m)^\\s*--.*$", "").split(";")) {
+                if (!sql.isBlank()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+
+    // Los mismos usuarios de ejemplo que el repositorio en memoria
+    private void seed(Connection connection) throws SQLException {
+        Instant now = now();
+        upsertUsers(connection, List.of(
+                new User(123L, "user1@mail.com", "user1", passwordHashingEngine.hash("123456"),
+                        CreatedAtFormat.parse("01-01-2024 00:00:00"),
+                        List.of(new Address(1L, "workaddress", "street No. 1", "UK"),
+                                new Address(2L, "homeaddress", "street No. 2", "AU"))),
+                new User(124L, "user2@mail.com", "user2", passwordHashingEngine.hash("password123"), now,
+                        List.of(new Address(3L, "vacationhome", "beach street", "ES"))),
+                new User(125L, "user3@mail.com", "user3", passwordHashingEngine.hash("securepass"), now, List.of())));
+    }
+
+    // Las secuencias continúan después del mayor id guardado (semilla o cargas masivas con insertAll)
+    private static void syncSequences(Connection connection) throws SQLException {
+        syncSequence(connection, USER_SEQUENCE, count(connection, "SELECT COALESCE(MAX(id), 0) FROM users") + 1);
+        syncSequence(connection, ADDRESS_SEQUENCE, count(connection, "SELECT COALESCE(MAX(id), 0) FROM addresses") + 1);
+    }
+
+    private static void syncSequence(Connection connection, String sequence, long next) throws SQLException {
+        long current;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?")) {
+            statement.setString(1, sequence.toUpperCase(Locale.ROOT));
+            try (ResultSet rs = statement.executeQuery()) {
+                current = rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+        if (next > current) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + next);
+            }
+        }
+    }
+
+    /**
+     * Carga masiva de usuarios tal cual (sin hashear contraseñas ni cambiar createdAt), en transacciones
+     * de batchSize usuarios. Pensada para importar datos existentes en una base vacía.
+     */
+    void insertAll(List<User> users) {
+        for (int from = 0; from < users.size(); from += batchSize) {
+            List<User> chunk = users.subList(from, Math.min(users.size(), from + batchSize));
+            write(connection -> {
+                upsertUsers(connection, chunk);
+                return null;
+            });
+        }
+        write(connection -> {
+            syncSequences(connection);
+            return null;
+        });
+        globalVersion.incrementAndGet();
+    }
+
+    // --- Acceso a la base de datos ---
+
+    private <T> T read(SqlWork<T> work) {
+        try (Connection connection = dataSource.getConnection()) {
+            return work.run(connection);
+        } catch (SQLException e) {
+            throw failure(e);
+        }
+    }
+
+    // Ejecuta work en una transacción; cualquier excepción (incluidas las de negocio) la deshace
+    private <T> T write(SqlWork<T> work) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw failure(e);
+        }
+    }
+
+    private static IllegalStateException failure(SQLException e) {
+        return new IllegalStateException("Error en la base de datos de usuarios: " + e.getMessage(), e);
+    }
+
+    private static boolean isUniqueViolation(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            if (UNIQUE_VIOLATION.equals(current.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // Reserva count valores consecutivos de la secuencia en una sola consulta
+    private long[] allocate(Connection connection, String sequence, long count) throws SQLException {
+        long[] ids = new long[(int) count];
+        if (count == 0) {
+            return ids;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT NEXT VALUE FOR " + sequence + " FROM SYSTEM_RANGE(1, ?)")) {
+            statement.setLong(1, count);
+            try (ResultSet rs = statement.executeQuery()) {
+                for (int i = 0; rs.next(); i++) {
+                    ids[i] = rs.getLong(1);
+                }
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static String emailKey(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Precisión de milisegundos, la misma que la columna created_at
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    private static OffsetDateTime timestamp(Instant instant) {
+        return instant != null ? instant.atOffset(ZoneOffset.UTC) : null;
+    }
+
+    private static UserRow userRow(ResultSet rs) throws SQLException {
+        OffsetDateTime createdAt = rs.getObject(5, OffsetDateTime.class);
+        User user = new User(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                createdAt != null ? createdAt.toInstant() : null, List.of());
+        return new UserRow(user, rs.getLong(6));
+    }
+
+    private static Address address(ResultSet rs, int firstColumn) throws SQLException {
+        return new Address(rs.getLong(firstColumn), rs.getString(firstColumn + 1), rs.getString(firstColumn + 2),
+                rs.getString(firstColumn + 3));
+    }
+
+    // Usuario (con direcciones) que cumple la condición sobre u, en una sola consulta con JOIN
+    private Optional<Versioned<User>> findOne(Connection connection, String condition, Object value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                SELECT_USER_WITH_ADDRESSES + condition + " ORDER BY a.list_index")) {
+            statement.setObject(1, value);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return Optional.empty();
+                }
+                UserRow row = userRow(rs);
+                List<Address> addresses = new ArrayList<>();
+                do {
+                    rs.getLong(7);
+                    if (!rs.wasNull()) {
+                        addresses.add(address(rs, 7));
+                    }
+                } while (rs.next());
+                row.user().setAddresses(List.copyOf(addresses));
+                return Optional.of(new Versioned<>(row.user(), row.version()));
+            }
+        }
+    }
+
+    // Direcciones de todos los usuarios del bloque con una sola consulta
+    private List<User> withAddresses(Connection connection, List<UserRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, List<Address>> byUser = new HashMap<>();
+        Long[] ids = rows.stream().map(row -> row.user().getId()).toArray(Long[]::new);
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_ADDRESSES_OF_USERS)) {
+            Array array = connection.createArrayOf("BIGINT", ids);
+            statement.setArray(1, array);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    byUser.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(address(rs, 2));
+                }
+            }
+        }
+        List<User> users = new ArrayList<>(rows.size());
+        for (UserRow row : rows) {
+            List<Address> addresses = byUser.get(row.user().getId());
+            row.user().setAddresses(addresses != null ? List.copyOf(addresses) : List.of());
+            users.add(row.user());
+        }
+        return users;
+    }
+
+    // Fila del usuario bloqueada hasta el final de la transacción; vacío si no existe
+    private static OptionalLong lockVersion(Connection connection, Long id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT version FROM users WHERE id = ? FOR UPDATE")) {
+            statement.setLong(1, id);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? OptionalLong.of(rs.getLong(1)) : OptionalLong.empty();
+            }
+        }
+    }
+
+    private static void checkVersion(Long id, long currentVersion, long expectedVersion) {
+        if (expectedVersion != ANY_VERSION && currentVersion != expectedVersion) {
+            throw new VersionMismatchException(id, currentVersion);
+        }
+    }
+
+    /**
+     * Inserta o reemplaza usuarios completos con sus direcciones: un lote para users, un DELETE de las
+     * direcciones anteriores de todo el bloque y un lote para addresses. Cada usuario recibe una versión nueva.
+     */
+    private void upsertUsers(Connection connection, List<User> users) throws SQLException {
+        try (PreparedStatement mergeUser = connection.prepareStatement(MERGE_USER);
+             PreparedStatement deleteAddresses = connection.prepareStatement("DELETE FROM addresses WHERE user_id = ANY(?)");
+             PreparedStatement mergeAddress = connection.prepareStatement(MERGE_ADDRESS)) {
+            for (User user : users) {
+                mergeUser.setLong(1, user.getId());
+                mergeUser.setString(2, user.getEmail());
+                mergeUser.setString(3, emailKey(user.getEmail()));
+                mergeUser.setString(4, user.getName());
+                mergeUser.setString(5, user.getPassword());
+                mergeUser.setObject(6, timestamp(user.getCreatedAt()), Types.TIMESTAMP_WITH_TIMEZONE);
+                mergeUser.setLong(7, versionSequence.incrementAndGet());
+                mergeUser.addBatch();
+            }
+            mergeUser.executeBatch();
+
+            deleteAddresses.setArray(1, connection.createArrayOf("BIGINT", users.stream().map(User::getId).toArray(Long[]::new)));
+            deleteAddresses.executeUpdate();
+
+            boolean anyAddress = false;
+            for (User user : users) {
+                List<Address> addresses = user.getAddresses() != null ? user.getAddresses() : List.of();
+                for (int i = 0; i < addresses.size(); i++) {
+                    Address address = addresses.get(i);
+                    mergeAddress.setLong(1, address.getId());
+                    mergeAddress.setLong(2, user.getId());
+                    mergeAddress.setInt(3, i);
+                    mergeAddress.setString(4, address.getName());
+                    mergeAddress.setString(5, address.getStreet());
+                    mergeAddress.setString(6, address.getCountryCode());
+                    mergeAddress.addBatch();
+                    anyAddress = true;
+                }
+            }
+            if (anyAddress) {
+                mergeAddress.executeBatch();
+            }
+        }
+    }
+
+    // Copias propias de las direcciones de un alta, siempre con id nuevo: un id recibido podría ser el de
+    // una dirección de otro usuario, y el MERGE por id se la quitaría
+    private static List<Address> freeze(List<Address> addresses, long[] newIds, int[] nextNewId) {
+        if (addresses == null || addresses.isEmpty()) {
+            return List.of();
+        }
+        List<Address> frozen = new ArrayList<>(addresses.size());
+        for (Address address : addresses) {
+            if (address != null) {
+                frozen.add(new Address(newIds[nextNewId[0]++], address.getName(), address.getStreet(), address.getCountryCode()));
+            }
+        }
+        return List.copyOf(frozen);
+    }
+
+    private static long addressCount(List<User> users) {
+        return users.stream()
+                .map(User::getAddresses)
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .filter(Objects::nonNull)
+                .count();
+    }
+
+    // --- Lecturas ---
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> findAll() {
+        return streamSorted(SortField.ID, null).toList();
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> findAllSorted(SortField sortField) {
+        return streamSorted(sortField, null).toList();
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Stream<User> streamSorted(SortField sortField, PageCursor after) {
+        if (after != null && after.sortField() != sortField) {
+            throw new InvalidCursorException("El cursor no corresponde al ordenamiento " + sortField.getParam());
+        }
+        return keysetStream(sortField, null, after);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Stream<User> streamCreatedBetween(Instant from, Instant to, PageCursor after) {
+        if (after != null && after.sortField() != SortField.CREATED_AT) {
+            throw new InvalidCursorException("El cursor no corresponde al ordenamiento " + SortField.CREATED_AT.getParam());
+        }
+        return keysetStream(SortField.CREATED_AT, ScanFilter.createdBetween(from, to), after);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Stream<User> streamByCountry(String countryCode, SortField sortField, PageCursor after) {
+        if (after != null && after.sortField() != sortField) {
+            throw new InvalidCursorException("El cursor no corresponde al ordenamiento " + sortField.getParam());
+        }
+        if (countryCode == null || countryCode.isBlank()) {
+            return Stream.empty();
+        }
+        return keysetStream(sortField, ScanFilter.country(countryCode.trim().toUpperCase(Locale.ROOT)), after);
+    }
+
+    /**
+     * Recorrido perezoso por bloques: cada bloque es una consulta con LIMIT que continúa desde el último
+     * usuario del anterior, así que la conexión solo se retiene mientras se lee un bloque y quien consume
+     * una página de 100 solo provoca una consulta. Como el recorrido del índice en memoria, no es una
+     * instantánea: refleja las escrituras que ocurran entre bloques.
+     */
+    private Stream<User> keysetStream(SortField sortField, ScanFilter filter, PageCursor after) {
+        return Stream.iterate(fetchBlock(sortField, filter, after),
+                        block -> !block.isEmpty(),
+                        block -> block.size() < fetchSize
+                                ? List.of()
+                                : fetchBlock(sortField, filter, PageCursor.after(sortField, block.get(block.size() - 1))))
+                .flatMap(List::stream);
+    }
+
+    private List<User> fetchBlock(SortField sortField, ScanFilter filter, PageCursor after) {
+        String column = column(sortField);
+        List<String> conditions = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        if (filter != null && filter.createdRange()) {
+            conditions.add("u.created_at IS NOT NULL");
+            if (filter.from() != null) {
+                conditions.add("u.created_at >= ?");
+                parameters.add(timestamp(filter.from()));
+            }
+            if (filter.to() != null) {
+                conditions.add("u.created_at < ?");
+                parameters.add(timestamp(filter.to()));
+            }
+        }
+        if (filter != null && filter.country() != null) {
+            // Semijoin sobre el índice (country_key, user_id): el usuario sale una vez aunque tenga varias direcciones ahí
+            conditions.add("EXISTS (SELECT 1 FROM addresses c WHERE c.user_id = u.id AND c.country_key = ?)");
+            parameters.add(filter.country());
+        }
+        if (after != null) {
+            if (sortField == SortField.ID) {
+                conditions.add("u.id > ?");
+                parameters.add(after.id());
+            } else if (after.key() == null) {
+                // Las claves null van primero: después de (null, id) quedan los null con id mayor y todas las no null
+                conditions.add("(" + column + " IS NOT NULL OR u.id > ?)");
+                parameters.add(after.id());
+            } else {
+                // Forma equivalente a (col > ? OR (col = ? AND id > ?)) con un límite inferior sobre col,
+                // que el optimizador sí usa para empezar el recorrido del índice (col, id) en el cursor
+                conditions.add(column + " >= ? AND (" + column + " > ? OR u.id > ?)");
+                Object key = sqlKey(sortField, after.key());
+                parameters.add(key);
+                parameters.add(key);
+                parameters.add(after.id());
+            }
+        }
+        String sql = "SELECT " + USER_COLUMNS + " FROM users u"
+                + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+                + (sortField == SortField.ID ? " ORDER BY u.id" : " ORDER BY " + column + " NULLS FIRST, u.id")
+                + " LIMIT ?";
+        parameters.add(fetchSize);
+        return read(connection -> {
+            List<UserRow> rows = new ArrayList<>(fetchSize);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(userRow(rs));
+                    }
+                }
+            }
+            return withAddresses(connection, rows);
+        });
+    }
+
+    private static String column(SortField sortField) {
+        return switch (sortField) {
+            case EMAIL -> "u.email";
+            case ID -> "u.id";
+            case NAME -> "u.name";
+            case CREATED_AT -> "u.created_at";
+        };
+    }
+
+    // La clave de created_at en los cursores son milisegundos epoch
+    private static Object sqlKey(SortField sortField, Comparable<?> key) {
+        return sortField == SortField.CREATED_AT ? timestamp(Instant.ofEpochMilli((Long) key)) : key;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<User> findById(Long id) {
+        return findVersionedById(id).map(Versioned::value);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<User>> findVersionedById(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        return read(connection -> findOne(connection, "u.id = ?", id));
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<User> findByEmail(String email) {
+        String key = emailKey(email);
+        if (key == null) {
+            return Optional.empty();
+        }
+        return read(connection -> findOne(connection, "u.email_key = ?", key)).map(Versioned::value);
+    }
+
+    /**
+     * Dos consultas como máximo: los prefijos (email_key y name_key tienen índice) y, si faltan
+     * resultados y la consulta tiene al menos 3 caracteres, las subcadenas. La búsqueda por subcadena
+     * recorre la tabla: SQL no tiene un índice para LIKE '%q%' como el de trigramas en memoria.
+     */
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> search(String query, int limit) {
+        String key = emailKey(query);
+        if (key == null || key.isEmpty() || limit < 1) {
+            return List.of();
+        }
+        String pattern = escapeLike(key);
+        return read(connection -> {
+            List<UserRow> rows = new ArrayList<>(limit);
+            Set<Long> seen = new HashSet<>();
+            collectMatches(connection, "u.email_key LIKE ? ESCAPE '\\' OR u.name_key LIKE ? ESCAPE '\\'"
+                            + " OR u.name_key LIKE ? ESCAPE '\\'",
+                    List.of(pattern + "%", pattern + "%", "% " + pattern + "%"), limit, rows, seen);
+            if (rows.size() < limit && key.length() >= 3) {
+                // Se piden limit filas porque las ya encontradas como prefijo también cumplen la condición
+                collectMatches(connection, "u.email_key LIKE ? ESCAPE '\\' OR u.name_key LIKE ? ESCAPE '\\'",
+                        List.of("%" + pattern + "%", "%" + pattern + "%"), limit, rows, seen);
+            }
+            return withAddresses(connection, rows);
+        });
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    // Añade a rows (hasta limit en total) los usuarios que cumplen condition y aún no están en seen
+    private static void collectMatches(Connection connection, String condition, List<String> parameters, int limit,
+                                       List<UserRow> rows, Set<Long> seen) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT " + USER_COLUMNS + " FROM users u WHERE " + condition + " ORDER BY u.id LIMIT ?")) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setString(i + 1, parameters.get(i));
+            }
+            statement.setInt(parameters.size() + 1, limit);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rows.size() < limit && rs.next()) {
+                    UserRow row = userRow(rs);
+                    if (seen.add(row.user().getId())) {
+                        rows.add(row);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public OptionalLong findVersion(Long id) {
+        if (id == null) {
+            return OptionalLong.empty();
+        }
+        return read(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT version FROM users WHERE id = ?")) {
+                statement.setLong(1, id);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next() ? OptionalLong.of(rs.getLong(1)) : OptionalLong.empty();
+                }
+            }
+        });
+    }
+
+    @Override
+    public long getGlobalVersion() {
+        return globalVersion.get();
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<List<Address>> findAddressesByUserId(Long userId) {
+        return findById(userId).map(User::getAddresses);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Address> findAddressById(Long userId, Long addressId) {
+        if (userId == null || addressId == null) {
+            return Optional.empty();
+        }
+        return read(connection -> findAddress(connection, userId, addressId));
+    }
+
+    private static Optional<Address> findAddress(Connection connection, Long userId, Long addressId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id, name, street, country_code FROM addresses WHERE id = ? AND user_id = ?")) {
+            statement.setLong(1, addressId);
+            statement.setLong(2, userId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Optional.of(address(rs, 1)) : Optional.empty();
+            }
+        }
+    }
+
+    // --- Escrituras ---
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public User save(User user) {
+        // El hash se calcula antes de abrir la transacción
+        String hashedPassword = passwordHashingEngine.hash(user.getPassword());
+        User saved = write(connection -> {
+            long[] addressIds = allocate(connection, ADDRESS_SEQUENCE, addressCount(List.of(user)));
+            // Nunca el id recibido: el MERGE por id reemplazaría un usuario existente y borraría sus direcciones
+            Long id = allocate(connection, USER_SEQUENCE, 1)[0];
+            User newUser = new User(id, user.getEmail(), user.getName(), hashedPassword, now(),
+                    freeze(user.getAddresses(), addressIds, new int[1]));
+            try {
+                upsertUsers(connection, List.of(newUser));
+            } catch (SQLException e) {
+                if (isUniqueViolation(e)) {
+                    throw new DuplicateEmailException(user.getEmail());
+                }
+                throw e;
+            }
+            return newUser;
+        });
+        globalVersion.incrementAndGet();
+        return saved;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public List<User> saveAll(List<User> batch, ObjIntConsumer<RuntimeException> rejected) {
+        // Ids en bloque: una consulta por secuencia para todo el lote
+        long[][] ids = read(connection -> new long[][]{
+                allocate(connection, USER_SEQUENCE, batch.size()),
+                allocate(connection, ADDRESS_SEQUENCE, addressCount(batch))});
+        int[] nextUserId = new int[1];
+        int[] nextAddressId = new int[1];
+        Instant createdAt = now();
+        List<User> prepared = new ArrayList<>(batch.size());
+        for (User user : batch) {
+            prepared.add(new User(ids[0][nextUserId[0]++], user.getEmail(), user.getName(), user.getPassword(), createdAt,
+                    freeze(user.getAddresses(), ids[1], nextAddressId)));
+        }
+        List<String> hashes = passwordHashingEngine.hashAll(prepared.stream().map(User::getPassword).toList());
+        for (int i = 0; i < prepared.size(); i++) {
+            prepared.get(i).setPassword(hashes.get(i));
+        }
+
+        List<Integer> accepted = new ArrayList<>(prepared.size());
+        try {
+            write(connection -> {
+                accepted.clear();
+                Set<Integer> duplicates = duplicateEmails(connection, prepared);
+                List<User> chunk = new ArrayList<>(batchSize);
+                for (int i = 0; i < prepared.size(); i++) {
+                    if (duplicates.contains(i)) {
+                        continue;
+                    }
+                    accepted.add(i);
+                    chunk.add(prepared.get(i));
+                    if (chunk.size() == batchSize) {
+                        upsertUsers(connection, chunk);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    upsertUsers(connection, chunk);
+                }
+                return null;
+            });
+        } catch (IllegalStateException e) {
+            if (!(e.getCause() instanceof SQLException cause) || !isUniqueViolation(cause)) {
+                throw e;
+            }
+            // Otra alta concurrente tomó un email entre la comprobación y el lote: se reintenta usuario a usuario
+            return saveOneByOne(prepared, rejected);
+        }
+        List<User> saved = new ArrayList<>(accepted.size());
+        Set<Integer> acceptedSet = new HashSet<>(accepted);
+        for (int i = 0; i < prepared.size(); i++) {
+            if (acceptedSet.contains(i)) {
+                saved.add(prepared.get(i));
+            } else {
+                rejected.accept(new DuplicateEmailException(prepared.get(i).getEmail()), i);
+            }
+        }
+        globalVersion.addAndGet(saved.size());
+        return saved;
+    }
+
+    /**
+     * Posiciones del lote cuyo email ya pertenece a otro usuario, en la base de datos (una consulta
+     * email_key = ANY(?)) o en una posición anterior del mismo lote.
+     */
+    private Set<Integer> duplicateEmails(Connection connection, List<User> users) throws SQLException {
+        Map<String, Long> owners = new HashMap<>();
+        String[] keys = users.stream().map(user -> emailKey(user.getEmail())).filter(Objects::nonNull).toArray(String[]::new);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT email_key, id FROM users WHERE email_key = ANY(?)")) {
+            statement.setArray(1, connection.createArrayOf("VARCHAR", keys));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    owners.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+        }
+        Set<Integer> duplicates = new HashSet<>();
+        for (int i = 0; i < users.size(); i++) {
+            String key = emailKey(users.get(i).getEmail());
+            if (key == null) {
+                continue;
+            }
+            Long owner = owners.putIfAbsent(key, users.get(i).getId());
+            if (owner != null && !owner.equals(users.get(i).getId())) {
+                duplicates.add(i);
+            }
+        }
+        return duplicates;
+    }
+
+    private List<User> saveOneByOne(List<User> prepared, ObjIntConsumer<RuntimeException> rejected) {
+        List<User> saved = new ArrayList<>(prepared.size());
+        for (int i = 0; i < prepared.size(); i++) {
+            User user = prepared.get(i);
+            try {
+                write(connection -> {
+                    try {
+                        upsertUsers(connection, List.of(user));
+                    } catch (SQLException e) {
+                        if (isUniqueViolation(e)) {
+                            throw new DuplicateEmailException(user.getEmail());
+                        }
+                        throw e;
+                    }
+                    return null;
+                });
+            } catch (DuplicateEmailException e) {
+                rejected.accept(e, i);
+                continue;
+            }
+            saved.add(user);
+            globalVersion.incrementAndGet();
+        }
+        return saved;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public boolean deleteById(Long id) {
+        if (id == null) {
+            return false;
+        }
+        // Las direcciones se borran en cascada
+        boolean deleted = write(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM users WHERE id = ?")) {
+                statement.setLong(1, id);
+                return statement.executeUpdate() > 0;
+            }
+        });
+        if (deleted) {
+            globalVersion.incrementAndGet();
+        }
+        return deleted;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<User> update(Long id, User updatedUser) {
+        return update(id, updatedUser, ANY_VERSION).map(Versioned::value);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<User>> update(Long id, User updatedUser, long expectedVersion) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        String hashedPassword = updatedUser.getPassword() != null
+                ? passwordHashingEngine.hash(updatedUser.getPassword())
+                : null;
+        Optional<Versioned<User>> result = write(connection -> {
+            OptionalLong current = lockVersion(connection, id);
+            if (current.isEmpty()) {
+                return Optional.empty();
+            }
+            checkVersion(id, current.getAsLong(), expectedVersion);
+            // Los campos null conservan el valor actual
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE users SET"
+                    + " email = COALESCE(?, email), email_key = COALESCE(?, email_key), name = COALESCE(?, name),"
+                    + " password = COALESCE(?, password), version = ? WHERE id = ?")) {
+                statement.setString(1, updatedUser.getEmail());
+                statement.setString(2, emailKey(updatedUser.getEmail()));
+                statement.setString(3, updatedUser.getName());
+                statement.setString(4, hashedPassword);
+                statement.setLong(5, versionSequence.incrementAndGet());
+                statement.setLong(6, id);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                if (isUniqueViolation(e)) {
+                    throw new DuplicateEmailException(updatedUser.getEmail());
+                }
+                throw e;
+            }
+            return findOne(connection, "u.id = ?", id);
+        });
+        result.ifPresent(updated -> globalVersion.incrementAndGet());
+        return result;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Address> updateAddress(Long userId, Long addressId, Address updatedAddress) {
+        return updateAddress(userId, addressId, updatedAddress, ANY_VERSION).map(Versioned::value);
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<Address>> updateAddress(Long userId, Long addressId, Address updatedAddress,
+                                                      long expectedVersion) {
+        if (userId == null || addressId == null) {
+            return Optional.empty();
+        }
+        Optional<Versioned<Address>> result = write(connection -> {
+            OptionalLong current = lockVersion(connection, userId);
+            // La pertenencia se comprueba antes que la versión, igual que en memoria
+            Optional<Address> existing = current.isPresent() ? findAddress(connection, userId, addressId) : Optional.empty();
+            if (existing.isEmpty()) {
+                return Optional.empty();
+            }
+            checkVersion(userId, current.getAsLong(), expectedVersion);
+            Address existingAddress = existing.get();
+            Address nextAddress = new Address(existingAddress.getId(),
+                    updatedAddress.getName() != null ? updatedAddress.getName() : existingAddress.getName(),
+                    updatedAddress.getStreet() != null ? updatedAddress.getStreet() : existingAddress.getStreet(),
+                    updatedAddress.getCountryCode() != null ? updatedAddress.getCountryCode() : existingAddress.getCountryCode());
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE addresses SET name = ?, street = ?, country_code = ? WHERE id = ?")) {
+                statement.setString(1, nextAddress.getName());
+                statement.setString(2, nextAddress.getStreet());
+                statement.setString(3, nextAddress.getCountryCode());
+                statement.setLong(4, addressId);
+                statement.executeUpdate();
+            }
+            // Cambiar una dirección es una versión nueva del dueño
+            long version = versionSequence.incrementAndGet();
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE users SET version = ? WHERE id = ?")) {
+                statement.setLong(1, version);
+                statement.setLong(2, userId);
+                statement.executeUpdate();
+            }
+            return Optional.of(new Versioned<>(nextAddress, version));
+        });
+        result.ifPresent(updated -> globalVersion.incrementAndGet());
+        return result;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Optional<Versioned<User>> applyPatches(Long userId, List<UserPatch> patches, long expectedVersion) {
+        if (userId == null) {
+            return Optional.empty();
+        }
+        String hashedPassword = UserPatches.hashedPassword(patches, passwordHashingEngine);
+        boolean[] changed = new boolean[1];
+        // Una sola transacción por grupo: fila bloqueada, una versión nueva y solo las filas que cambian
+        Optional<Versioned<User>> result = write(connection -> {
+            if (lockVersion(connection, userId).isEmpty()) {
+                return Optional.empty();
+            }
+            Versioned<User> current = findOne(connection, "u.id = ?", userId).orElseThrow();
+            checkVersion(userId, current.version(), expectedVersion);
+            User next = UserPatches.apply(current.value(), patches, hashedPassword);
+            if (next == current.value()) {
+                return Optional.of(current);
+            }
+            long version = versionSequence.incrementAndGet();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE users SET email = ?, email_key = ?, name = ?, password = ?, version = ? WHERE id = ?")) {
+                statement.setString(1, next.getEmail());
+                statement.setString(2, emailKey(next.getEmail()));
+                statement.setString(3, next.getName());
+                statement.setString(4, next.getPassword());
+                statement.setLong(5, version);
+                statement.setLong(6, userId);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                if (isUniqueViolation(e)) {
+                    throw new DuplicateEmailException(next.getEmail());
+                }
+                throw e;
+            }
+            // apply() comparte las direcciones sin cambios: las demás se escriben en un único lote
+            List<Address> previousAddresses = current.value().getAddresses();
+            if (next.getAddresses() != previousAddresses) {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE addresses SET name = ?, street = ?, country_code = ? WHERE id = ?")) {
+                    for (int i = 0; i < previousAddresses.size(); i++) {
+                        Address address = next.getAddresses().get(i);
+                        if (address != previousAddresses.get(i)) {
+                            statement.setString(1, address.getName());
+                            statement.setString(2, address.getStreet());
+                            statement.setString(3, address.getCountryCode());
+                            statement.setLong(4, address.getId());
+                            statement.addBatch();
+                        }
+                    }
+                    statement.executeBatch();
+                }
+            }
+            changed[0] = true;
+            return Optional.of(new Versioned<>(next, version));
+        });
+        if (changed[0]) {
+            globalVersion.incrementAndGet();
+        }
+        return result;
+    }
+
+    @Override
+    @Timed(value = TIMER, histogram = true)
+    public Long generateNewAddressId() {
+        return read(connection -> allocate(connection, ADDRESS_SEQUENCE, 1)[0]);
+    }
+}
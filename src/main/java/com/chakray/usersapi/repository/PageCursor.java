@@ -0,0 +1,47 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.exception.InvalidCursorException;
+import com.chakray.usersapi.model.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Posición de paginación por clave (keyset): último (valor del campo, id) entregado.
+ * Se serializa como un token opaco Base64 URL-safe para el cliente.
+ */
+public record PageCursor(SortField sortField, Comparable<?> key, long id) {
+
+    private static final char SEPARATOR = '|';
+    private static final String NULL_KEY = "0";
+    private static final String PRESENT_KEY = "1";
+
+    public static PageCursor after(SortField sortField, User user) {
+        return new PageCursor(sortField, sortField.keyOf(user), user.getId());
+    }
+
+    // Formato interno: campo|marcaNull|id|clave (la clave va al final porque puede contener el separador)
+    public String encode() {
+        String raw = sortField.getParam() + SEPARATOR
+                + (key == null ? NULL_KEY : PRESENT_KEY) + SEPARATOR
+                + id + SEPARATOR
+                + (key == null ? "" : sortField.formatKey(key));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 4);
+            if (parts.length != 4) {
+                throw new InvalidCursorException("Cursor mal formado");
+            }
+            SortField sortField = SortField.fromParam(parts[0])
+                    .orElseThrow(() -> new InvalidCursorException("Cursor con campo de ordenamiento desconocido"));
+            Comparable<?> key = NULL_KEY.equals(parts[1]) ? null : sortField.parseKey(parts[3]);
+            return new PageCursor(sortField, key, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Cursor mal formado", e);
+        }
+    }
+}
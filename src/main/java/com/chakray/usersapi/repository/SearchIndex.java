@@ -0,0 +1,190 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Índice de búsqueda por nombre y email mantenido de forma incremental, con dos estructuras:
+ * <ul>
+ *     <li>Términos ordenados (término, id) para las búsquedas por prefijo: el email, el nombre y cada
+ *     palabra del nombre, normalizados. Un prefijo es un rango contiguo de la skip list, que se localiza
+ *     con una búsqueda O(log n) (el mismo recorrido que haría un trie, sin un nodo por carácter).</li>
+ *     <li>Listas de ids por trigrama para las búsquedas por subcadena: cada subcadena de 3 o más
+ *     caracteres contiene todos sus trigramas, así que basta recorrer la lista más corta de entre los
+ *     trigramas de la consulta, descartar los ids ausentes en las demás y verificar el resto.</li>
+ * </ul>
+ * Los candidatos pueden estar desactualizados (lectura débilmente consistente): quien consulta debe
+ * verificarlos contra la versión actual del usuario con {@link #matches(User, String)}.
+ */
+final class SearchIndex {
+
+    // Las subcadenas más cortas que un trigrama solo se buscan como prefijo
+    static final int GRAM = 3;
+
+    record Term(String text, long id) {
+    }
+
+    private static final Comparator<Term> TERM_ORDER = Comparator.comparing(Term::text).thenComparingLong(Term::id);
+
+    private final ConcurrentSkipListSet<Term> terms = new ConcurrentSkipListSet<>(TERM_ORDER);
+    private final AtomicInteger termCount = new AtomicInteger();
+    // Trigrama (3 chars en 48 bits) -> ids de los usuarios cuyo nombre o email lo contienen
+    private final ConcurrentMap<Long, IdPostings> trigrams = new ConcurrentHashMap<>();
+    private final AtomicInteger postingCount = new AtomicInteger();
+
+    static String normalize(String text) {
+        return text == null ? null : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // La consulta (normalizada) aparece en el nombre o el email del usuario
+    static boolean matches(User user, String query) {
+        String email = normalize(user.getEmail());
+        String name = normalize(user.getName());
+        return email != null && email.contains(query) || name != null && name.contains(query);
+    }
+
+    /**
+     * Lleva el índice de la versión previous a la versión next (null en altas y bajas). Solo cambia algo
+     * si cambió el nombre o el email; se invoca con el lock del usuario tomado.
+     */
+    void replace(User previous, User next) {
+        if (previous != null && next != null
+                && Objects.equals(previous.getName(), next.getName())
+                && Objects.equals(previous.getEmail(), next.getEmail())) {
+            return;
+        }
+        long id = next != null ? next.getId() : previous.getId();
+        Set<String> previousTerms = previous != null ? termsOf(previous) : Set.of();
+        Set<String> nextTerms = next != null ? termsOf(next) : Set.of();
+        for (String term : previousTerms) {
+            if (!nextTerms.contains(term) && terms.remove(new Term(term, id))) {
+                termCount.decrementAndGet();
+            }
+        }
+        for (String term : nextTerms) {
+            if (!previousTerms.contains(term) && terms.add(new Term(term, id))) {
+                termCount.incrementAndGet();
+            }
+        }
+
+        Set<Long> previousGrams = previous != null ? trigramsOf(previous) : Set.of();
+        Set<Long> nextGrams = next != null ? trigramsOf(next) : Set.of();
+        for (Long gram : previousGrams) {
+            if (!nextGrams.contains(gram)) {
+                IdPostings postings = trigrams.get(gram);
+                if (postings != null && postings.remove(id)) {
+                    postingCount.decrementAndGet();
+                }
+            }
+        }
+        for (Long gram : nextGrams) {
+            if (!previousGrams.contains(gram)
+                    && trigrams.computeIfAbsent(gram, key -> new IdPostings()).add(id)) {
+                postingCount.incrementAndGet();
+            }
+        }
+    }
+
+    void clear() {
+        terms.clear();
+        termCount.set(0);
+        trigrams.clear();
+        postingCount.set(0);
+    }
+
+    int termCount() {
+        return termCount.get();
+    }
+
+    int postingCount() {
+        return postingCount.get();
+    }
+
+    /**
+     * Candidatos para una consulta normalizada, por rango: primero los términos que empiezan por la
+     * consulta (en orden alfabético del término, así las coincidencias exactas van delante) y después,
+     * si la consulta tiene al menos un trigrama, los ids que aparecen en todos sus trigramas en orden
+     * ascendente. Puede repetir ids; el stream es perezoso y quien lo consume decide cuántos leer.
+     */
+    Stream<Long> candidates(String query) {
+        Stream<Long> prefixed = terms.subSet(new Term(query, Long.MIN_VALUE), true,
+                        new Term(query + Character.MAX_VALUE, Long.MIN_VALUE), false)
+                .stream()
+                .map(Term::id);
+        if (query.length() < GRAM) {
+            return prefixed;
+        }
+        List<IdPostings> grams = new ArrayList<>();
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            IdPostings postings = trigrams.get(gram(query, i));
+            if (postings == null || postings.size() == 0) {
+                // Un trigrama sin usuarios: nadie contiene la consulta
+                return prefixed;
+            }
+            grams.add(postings);
+        }
+        // Se recorre la lista más corta y se descartan los ids que falten en las demás (consulta O(1) o
+        // binaria por id) antes de que quien consume tenga que cargar y verificar el usuario
+        grams.sort(Comparator.comparingInt(IdPostings::size));
+        IdPostings rarest = grams.get(0);
+        List<IdPostings> others = grams.subList(1, grams.size());
+        LongStream substrings = rarest.ids();
+        if (!others.isEmpty()) {
+            substrings = substrings.filter(id -> others.stream().allMatch(postings -> postings.contains(id)));
+        }
+        return Stream.concat(prefixed, substrings.boxed());
+    }
+
+    private static Set<String> termsOf(User user) {
+        Set<String> result = new HashSet<>();
+        String email = normalize(user.getEmail());
+        if (email != null && !email.isEmpty()) {
+            result.add(email);
+        }
+        String name = normalize(user.getName());
+        if (name != null && !name.isEmpty()) {
+            result.add(name);
+            // Cada palabra del nombre, para encontrar "garcía" en "ana garcía"
+            for (String word : name.split("\\s+")) {
+                if (!word.isEmpty()) {
+                    result.add(word);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Set<Long> trigramsOf(User user) {
+        Set<Long> result = new HashSet<>();
+        addTrigrams(normalize(user.getEmail()), result);
+        addTrigrams(normalize(user.getName()), result);
+        return result;
+    }
+
+    private static void addTrigrams(String text, Set<Long> result) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            result.add(gram(text, i));
+        }
+    }
+
+    // Tres chars de 16 bits en un long: sin Strings por trigrama
+    private static long gram(String text, int from) {
+        return (long) text.charAt(from) << 32 | (long) text.charAt(from + 1) << 16 | text.charAt(from + 2);
+    }
+}
@@ -0,0 +1,360 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Snapshots binarios del repositorio en memoria.
+ * <p>
+ * Formato (big-endian): cabecera {@code magic, versión, LSN del WAL, userIdCounter, addressIdCounter},
+ * luego un registro por usuario precedido por el byte {@code 1} y un byte {@code 0} de fin, y al final el
+ * CRC32C de todo lo anterior. Los ids son long primitivos, los textos UTF-8 con longitud varint
+ * ({@code 0} = null), {@code createdAt} un byte de presencia seguido de los milisegundos epoch (long) y los
+ * códigos de país se internan: la primera aparición se escribe en línea y las siguientes como índice varint
+ * de la tabla.
+ * <p>
+ * La carga lee el fichero a través de un {@link MappedByteBuffer}, sin copiarlo al heap.
+ */
+public class SnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+
+    private static final int MAGIC = 0x55534E50; // "USNP"
+    private static final int VERSION = 2;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    // Contenido de la cabecera de un snapshot cargado
+    public record Header(long walLsn, long userIdCounter, long addressIdCounter) {
+    }
+
+    private final Path directory;
+    private final int retained;
+
+    public SnapshotStore(Path directory, int retained) {
+        this.directory = directory;
+        this.retained = Math.max(1, retained);
+    }
+
+    /**
+     * Escribe un snapshot nuevo de forma atómica (fichero temporal + move) y borra los más antiguos.
+     * La iteración sobre users puede ser débilmente consistente: el WAL desde walLsn completa el estado.
+     */
+    public Path write(Header header, Iterable<User> users) {
+        try {
+            Files.createDirectories(directory);
+            Path target = directory.resolve(String.format("%s%020d%s", PREFIX, header.walLsn(), SUFFIX));
+            Path temp = directory.resolve(target.getFileName() + ".tmp");
+            long count;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Encoder encoder = new Encoder(channel);
+                encoder.header(header);
+                count = 0;
+                for (User user : users) {
+                    encoder.user(user);
+                    count++;
+                }
+                encoder.finish();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Snapshot {} escrito con {} usuarios ({} bytes)", target.getFileName(), count, Files.size(target));
+            deleteOlderThanRetained();
+            return target;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir el snapshot en " + directory, e);
+        }
+    }
+
+    /**
+     * Carga el snapshot válido más reciente entregando cada usuario al consumidor.
+     * Un snapshot corrupto se ignora y se prueba con el anterior.
+     */
+    public Optional<Header> loadLatest(Consumer<User> consumer) {
+        List<Path> snapshots = snapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Path snapshot = snapshots.get(i);
+            try {
+                return Optional.of(load(snapshot, consumer));
+            } catch (IOException | IllegalStateException | BufferUnderflowException e) {
+                log.warn("Snapshot {} ilegible, se intenta con el anterior", snapshot.getFileName(), e);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * LSN del WAL del snapshot más antiguo que se conserva. Si el último resulta ilegible, la carga cae al
+     * anterior y necesita el WAL desde su LSN: los segmentos solo pueden borrarse por debajo de este valor.
+     */
+    public OptionalLong oldestRetainedWalLsn() {
+        List<Path> snapshots = snapshots();
+        if (snapshots.isEmpty()) {
+            return OptionalLong.empty();
+        }
+        String name = snapshots.get(0).getFileName().toString();
+        return OptionalLong.of(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+    }
+
+    Header load(Path snapshot, Consumer<User> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Snapshot mayor de 2 GB no soportado: " + snapshot);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // Se valida el CRC antes de publicar nada en el repositorio
+            int expectedCrc = buffer.getInt((int) size - Integer.BYTES);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(0, (int) size - Integer.BYTES));
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IllegalStateException("CRC inválido en " + snapshot);
+            }
+            return new Decoder(buffer).read(consumer);
+        }
+    }
+
+    private List<Path> snapshots() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo listar " + directory, e);
+        }
+    }
+
+    private void deleteOlderThanRetained() throws IOException {
+        List<Path> snapshots = snapshots();
+        for (int i = 0; i < snapshots.size() - retained; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    // Escritura secuencial con un buffer directo reutilizado y CRC incremental
+    private static final class Encoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private final CRC32C crc = new CRC32C();
+        private final Map<String, Integer> countryCodes = new HashMap<>();
+
+        Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void header(Header header) throws IOException {
+            ensure(Integer.BYTES * 2 + Long.BYTES * 3);
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(header.walLsn())
+                    .putLong(header.userIdCounter())
+                    .putLong(header.addressIdCounter());
+        }
+
+        void user(User user) throws IOException {
+            ensure(1 + Long.BYTES);
+            buffer.put((byte) 1).putLong(user.getId());
+            string(user.getEmail());
+            string(user.getName());
+            string(user.getPassword());
+            createdAt(user.getCreatedAt());
+            List<Address> addresses = user.getAddresses() != null ? user.getAddresses() : List.of();
+            varint(addresses.size());
+            for (Address address : addresses) {
+                ensure(Long.BYTES);
+                buffer.putLong(address.getId());
+                string(address.getName());
+                string(address.getStreet());
+                countryCode(address.getCountryCode());
+            }
+        }
+
+        void finish() throws IOException {
+            ensure(1);
+            buffer.put((byte) 0);
+            flush();
+            ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) crc.getValue());
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+        }
+
+        private void createdAt(Instant createdAt) throws IOException {
+            ensure(1 + Long.BYTES);
+            if (createdAt == null) {
+                buffer.put((byte) 0);
+            } else {
+                buffer.put((byte) 1).putLong(createdAt.toEpochMilli());
+            }
+        }
+
+        // Índice varint en la tabla; 0 = null, tamaño+1 = código nuevo escrito a continuación
+        private void countryCode(String code) throws IOException {
+            if (code == null) {
+                varint(0);
+                return;
+            }
+            Integer index = countryCodes.get(code);
+            if (index != null) {
+                varint(index + 1);
+                return;
+            }
+            varint(countryCodes.size() + 1);
+            countryCodes.put(code, countryCodes.size());
+            string(code);
+        }
+
+        private void string(String value) throws IOException {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1);
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        private void varint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class Decoder {
+
+        private final ByteBuffer buffer;
+        private final List<String> countryCodes = new ArrayList<>();
+        private byte[] scratch = new byte[256];
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        Header read(Consumer<User> consumer) {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalStateException("No es un snapshot de usuarios");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("Versión de snapshot no soportada: " + version);
+            }
+            Header header = new Header(buffer.getLong(), buffer.getLong(), buffer.getLong());
+            while (buffer.get() == 1) {
+                consumer.accept(user());
+            }
+            return header;
+        }
+
+        private User user() {
+            long id = buffer.getLong();
+            String email = string();
+            String name = string();
+            String password = string();
+            Instant createdAt = createdAt();
+            int addressCount = varint();
+            List<Address> addresses = new ArrayList<>(addressCount);
+            for (int i = 0; i < addressCount; i++) {
+                addresses.add(new Address(buffer.getLong(), string(), string(), countryCode()));
+            }
+            return new User(id, email, name, password, createdAt, addresses);
+        }
+
+        private Instant createdAt() {
+            return buffer.get() == 0 ? null : Instant.ofEpochMilli(buffer.getLong());
+        }
+
+        private String countryCode() {
+            int index = varint();
+            if (index == 0) {
+                return null;
+            }
+            if (index == countryCodes.size() + 1) {
+                countryCodes.add(string());
+            }
+            return countryCodes.get(index - 1);
+        }
+
+        private String string() {
+            int length = varint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int varint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Function;
+
+// Campos por los que GET /users?sortedBy=... puede ordenar; cada uno tiene un índice ordenado en el repositorio
+public enum SortField {
+    EMAIL("email", User::getEmail, Function.identity()),
+    ID("id", User::getId, Long::valueOf),
+    NAME("name", User::getName, Function.identity()),
+    // Clave numérica (milisegundos epoch): orden cronológico real y comparación de long
+    CREATED_AT("created_at", user -> user.getCreatedAt() != null ? user.getCreatedAt().toEpochMilli() : null, Long::valueOf);
+
+    private final String param;
+    private final Function<User, ? extends Comparable<?>> extractor;
+    private final Function<String, ? extends Comparable<?>> parser;
+
+    SortField(String param,
+              Function<User, ? extends Comparable<?>> extractor,
+              Function<String, ? extends Comparable<?>> parser) {
+        this.param = param;
+        this.extractor = extractor;
+        this.parser = parser;
+    }
+
+    public String getParam() {
+        return param;
+    }
+
+    // Valor de la clave de ordenamiento para el usuario (puede ser null)
+    public Comparable<?> keyOf(User user) {
+        return extractor.apply(user);
+    }
+
+    // Representación textual de la clave para los cursores de paginación
+    public String formatKey(Comparable<?> key) {
+        return key.toString();
+    }
+
+    // Inversa de formatKey; lanza IllegalArgumentException si el texto no es válido para el campo
+    public Comparable<?> parseKey(String text) {
+        return parser.apply(text);
+    }
+
+    // Traduce el parámetro sortedBy; valores desconocidos no ordenan, igual que antes
+    public static Optional<SortField> fromParam(String sortedBy) {
+        if (sortedBy == null || sortedBy.isEmpty()) {
+            return Optional.empty();
+        }
+        return Arrays.stream(values())
+                .filter(field -> field.param.equalsIgnoreCase(sortedBy))
+                .findFirst();
+    }
+}
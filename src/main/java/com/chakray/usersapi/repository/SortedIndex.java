@@ -0,0 +1,108 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Índice secundario ordenado (campo, id) mantenido de forma incremental.
+ * El id desempata claves repetidas, así cada usuario ocupa exactamente una entrada.
+ */
+final class SortedIndex {
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Comparator<Comparable> KEY_ORDER =
+            Comparator.nullsFirst((Comparator) Comparator.naturalOrder());
+
+    record Entry(Comparable<?> key, long id) {
+    }
+
+    @SuppressWarnings("unchecked")
+    static final Comparator<Entry> ENTRY_ORDER = Comparator
+            .comparing((Entry entry) -> (Comparable) entry.key(), KEY_ORDER)
+            .thenComparingLong(Entry::id);
+
+    private final SortField field;
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ENTRY_ORDER);
+    // ConcurrentSkipListSet.size() recorre toda la lista; se lleva la cuenta aparte
+    private final AtomicInteger size = new AtomicInteger();
+
+    SortedIndex(SortField field) {
+        this.field = field;
+    }
+
+    SortField field() {
+        return field;
+    }
+
+    // Lleva la entrada de la versión previous a la versión next (null en altas y bajas); no hace nada si la clave no cambió
+    void replace(User previous, User next) {
+        Entry previousEntry = previous != null ? new Entry(field.keyOf(previous), previous.getId()) : null;
+        Entry nextEntry = next != null ? new Entry(field.keyOf(next), next.getId()) : null;
+        if (Objects.equals(previousEntry, nextEntry)) {
+            return;
+        }
+        if (previousEntry != null && entries.remove(previousEntry)) {
+            size.decrementAndGet();
+        }
+        if (nextEntry != null && entries.add(nextEntry)) {
+            size.incrementAndGet();
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        size.set(0);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    // Ids estrictamente posteriores a la posición del cursor: búsqueda O(log n) en la skip list, sin saltar entradas
+    Stream<Long> idsAfter(PageCursor cursor) {
+        if (cursor == null) {
+            return ids();
+        }
+        return entries.tailSet(new Entry(cursor.key(), cursor.id()), false).stream().map(Entry::id);
+    }
+
+    /**
+     * Ids con clave en [from, to) y posteriores al cursor, en orden del índice. from/to null = sin límite
+     * (las claves null quedan fuera si hay from). Cada límite se resuelve con una búsqueda O(log n).
+     */
+    Stream<Long> idsBetween(Comparable<?> from, Comparable<?> to, PageCursor cursor) {
+        // Con id mínimo, la entrada límite queda antes de cualquier usuario con esa clave
+        Entry lower = from != null ? new Entry(from, Long.MIN_VALUE) : null;
+        boolean lowerInclusive = true;
+        if (cursor != null) {
+            Entry afterCursor = new Entry(cursor.key(), cursor.id());
+            if (lower == null || ENTRY_ORDER.compare(afterCursor, lower) >= 0) {
+                lower = afterCursor;
+                lowerInclusive = false;
+            }
+        }
+        Entry upper = to != null ? new Entry(to, Long.MIN_VALUE) : null;
+        if (lower != null && upper != null && ENTRY_ORDER.compare(lower, upper) >= 0) {
+            return Stream.empty();
+        }
+        NavigableSet<Entry> range = entries;
+        if (lower != null) {
+            range = range.tailSet(lower, lowerInclusive);
+        }
+        if (upper != null) {
+            range = range.headSet(upper, false);
+        }
+        return range.stream().map(Entry::id);
+    }
+
+    // Ids en orden ascendente de (clave, id); el recorrido es débilmente consistente y no bloquea
+    Stream<Long> ids() {
+        return entries.stream().map(Entry::id);
+    }
+}
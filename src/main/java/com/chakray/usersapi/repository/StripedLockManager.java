@@ -0,0 +1,68 @@
+package com.chakray.usersapi.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bloqueos por franjas (stripes) indexados por id de usuario.
+ * <p>
+ * Las escrituras sobre el mismo usuario caen siempre en el mismo lock y se serializan; las de usuarios
+ * distintos solo compiten si coinciden en franja, lo que con suficientes franjas es raro. Se usa
+ * {@link ReentrantLock} en lugar de {@code synchronized} para poder medir la contención con
+ * {@code tryLock} y para no fijar hilos virtuales a su portador.
+ */
+public final class StripedLockManager {
+
+    // Instantánea de las métricas de contención acumuladas desde el arranque
+    public record Stats(long acquisitions, long contended, long waitNanos) {
+    }
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    StripedLockManager(int stripeCount) {
+        // Potencia de dos para calcular la franja con una máscara
+        int size = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    // Ejecuta action con el lock de la franja del id; registra si hubo que esperar y cuánto
+    <T> T withLock(long id, Supplier<T> action) {
+        ReentrantLock lock = stripeFor(id);
+        acquisitions.increment();
+        if (!lock.tryLock()) {
+            contended.increment();
+            long startNanos = System.nanoTime();
+            lock.lock();
+            waitNanos.add(System.nanoTime() - startNanos);
+        }
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    Stats stats() {
+        return new Stats(acquisitions.sum(), contended.sum(), waitNanos.sum());
+    }
+
+    private ReentrantLock stripeFor(long id) {
+        // Mezcla de bits (como Long.hashCode + spread de HashMap) para repartir ids consecutivos
+        int hash = Long.hashCode(id);
+        hash ^= hash >>> 16;
+        return stripes[hash & mask];
+    }
+}
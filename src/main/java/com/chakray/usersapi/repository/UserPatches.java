@@ -0,0 +1,80 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+
+import java.util.List;
+
+// Aplicación de un grupo de UserPatch de un mismo usuario, común a los repositorios
+final class UserPatches {
+
+    private UserPatches() {
+    }
+
+    // Solo cuenta la última contraseña del grupo; se hashea fuera del lock o la transacción
+    static String hashedPassword(List<UserPatch> patches, PasswordHashingEngine passwordHashingEngine) {
+        String password = null;
+        for (UserPatch patch : patches) {
+            if (patch.getAddressId() == null && patch.getPassword() != null) {
+                password = patch.getPassword();
+            }
+        }
+        return password != null ? passwordHashingEngine.hash(password) : null;
+    }
+
+    /**
+     * Nueva versión de current con los cambios aplicados en orden. Las direcciones que no pertenecen al
+     * usuario se ignoran y las que no cambian se comparten con current. Si ningún cambio aplica devuelve
+     * current tal cual, para que el llamador no publique una versión vacía.
+     */
+    static User apply(User current, List<UserPatch> patches, String hashedPassword) {
+        String email = current.getEmail();
+        String name = current.getName();
+        List<Address> addresses = current.getAddresses() != null ? current.getAddresses() : List.of();
+        Address[] nextAddresses = null;
+        boolean changed = hashedPassword != null;
+        for (UserPatch patch : patches) {
+            if (patch.getAddressId() == null) {
+                if (patch.getEmail() != null) {
+                    email = patch.getEmail();
+                    changed = true;
+                }
+                if (patch.getName() != null) {
+                    name = patch.getName();
+                    changed = true;
+                }
+                continue;
+            }
+            int index = indexOf(addresses, patch.getAddressId());
+            if (index < 0) {
+                continue;
+            }
+            if (nextAddresses == null) {
+                nextAddresses = addresses.toArray(new Address[0]);
+            }
+            Address existing = nextAddresses[index];
+            nextAddresses[index] = new Address(existing.getId(),
+                    patch.getName() != null ? patch.getName() : existing.getName(),
+                    patch.getStreet() != null ? patch.getStreet() : existing.getStreet(),
+                    patch.getCountryCode() != null ? patch.getCountryCode() : existing.getCountryCode());
+            changed = true;
+        }
+        if (!changed) {
+            return current;
+        }
+        return new User(current.getId(), email, name, hashedPassword != null ? hashedPassword : current.getPassword(),
+                current.getCreatedAt(), nextAddresses != null ? List.of(nextAddresses) : addresses);
+    }
+
+    // Los usuarios tienen pocas direcciones: un recorrido lineal basta
+    private static int indexOf(List<Address> addresses, Long addressId) {
+        for (int i = 0; i < addresses.size(); i++) {
+            if (addressId.equals(addresses.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
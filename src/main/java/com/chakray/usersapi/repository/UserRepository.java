@@ -2,19 +2,74 @@ package com.chakray.usersapi.repository;
 
 import com.chakray.usersapi.model.Address;
 import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPatch;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
+/**
+ * Los usuarios y direcciones devueltos son versiones publicadas e inmutables: nunca cambian después
+ * de entregarse y sus listas no admiten modificación. Para cambiar datos se usan save/update/updateAddress.
+ * <p>
+ * Cada escritura asigna al usuario un número de versión nuevo y creciente, y cada mutación incrementa la
+ * versión global. Sirven de ETag y para la concurrencia optimista (If-Match).
+ */
 public interface UserRepository {
+
+    // Valor de expectedVersion que omite la comprobación de versión
+    long ANY_VERSION = -1;
+
     List<User> findAll();
+    List<User> findAllSorted(SortField sortField);
+    Stream<User> streamSorted(SortField sortField, PageCursor after);
+    // Usuarios con createdAt en [from, to) en orden cronológico; from/to null = sin límite
+    Stream<User> streamCreatedBetween(Instant from, Instant to, PageCursor after);
+    // Usuarios con alguna dirección en countryCode (sin distinguir mayúsculas), en orden de sortField y tras el cursor
+    Stream<User> streamByCountry(String countryCode, SortField sortField, PageCursor after);
     Optional<User> findById(Long id);
+    Optional<User> findByEmail(String email);
+    /**
+     * Hasta limit usuarios cuyo nombre o email contiene query (sin distinguir mayúsculas). Primero van
+     * aquellos cuyo email, nombre o alguna palabra del nombre empieza por query y después el resto; las
+     * consultas de menos de 3 caracteres solo se buscan como prefijo.
+     */
+    List<User> search(String query, int limit);
     User save(User user);
+
+    // Alta por lotes; los usuarios rechazados (p. ej. email duplicado) se notifican con su posición en el lote
+    List<User> saveAll(List<User> users, ObjIntConsumer<RuntimeException> rejected);
     boolean deleteById(Long id);
     Optional<User> update(Long id, User updatedUser);
+    // Como update, pero falla con VersionMismatchException si la versión actual no es expectedVersion
+    Optional<Versioned<User>> update(Long id, User updatedUser, long expectedVersion);
+
+    OptionalLong findVersion(Long id);
+    // Usuario y versión leídos juntos: la versión es exactamente la del usuario devuelto
+    Optional<Versioned<User>> findVersionedById(Long id);
+    // Se lee antes que los datos: lo que se consulte después es al menos tan reciente como esta versión
+    long getGlobalVersion();
 
+    /**
+     * true si mientras no hay escrituras las lecturas devuelven siempre el mismo objeto de cada usuario.
+     * Las cachés que reconocen una versión por identidad (UserJsonCache) solo sirven en ese caso.
+     */
+    default boolean sharesPublishedInstances() {
+        return false;
+    }
 
     Optional<List<Address>> findAddressesByUserId(Long userId);
     Optional<Address> findAddressById(Long userId, Long addressId);
     Optional<Address> updateAddress(Long userId, Long addressId, Address updatedAddress);
+    // La versión devuelta (y la esperada) es la del usuario dueño de la dirección
+    Optional<Versioned<Address>> updateAddress(Long userId, Long addressId, Address updatedAddress, long expectedVersion);
+    /**
+     * Aplica en orden varios cambios del usuario y sus direcciones y publica una sola versión (un lock y un
+     * registro en el log). Es atómico: si falla la versión o el email no se aplica ninguno. Los cambios de
+     * direcciones que no pertenecen al usuario se ignoran; el usuario devuelto permite detectarlos.
+     */
+    Optional<Versioned<User>> applyPatches(Long userId, List<UserPatch> patches, long expectedVersion);
     Long generateNewAddressId();
 }
@@ -0,0 +1,5 @@
+package com.chakray.usersapi.repository;
+
+// Valor publicado junto con la versión del usuario que lo contiene
+public record Versioned<T>(T value, long version) {
+}
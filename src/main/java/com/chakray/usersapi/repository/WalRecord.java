@@ -0,0 +1,17 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+
+/**
+ * Mutación registrada en el write-ahead log. Guarda el estado completo del usuario tras el cambio
+ * (null en DELETE), así el replay es idempotente: basta con aplicar los registros en orden.
+ */
+public record WalRecord(Type type, Long userId, User user) {
+
+    public enum Type {
+        SAVE,
+        UPDATE,
+        DELETE,
+        UPDATE_ADDRESS
+    }
+}
@@ -0,0 +1,79 @@
+package com.chakray.usersapi.repository;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ObjLongConsumer;
+
+// Registro append-only de mutaciones del repositorio para sobrevivir a reinicios
+public interface WriteAheadLog extends AutoCloseable {
+
+    /**
+     * Encola la mutación y devuelve un future que se completa cuando el registro quedó escrito
+     * (y forzado a disco si la política de fsync lo exige). Los registros se escriben en el orden
+     * en que se llama a append, por eso debe invocarse mientras se mantiene el bloqueo del usuario.
+     * Lanza IllegalStateException si el log ya no acepta registros (cerrado); un registro aceptado
+     * siempre completa su future, con error si el log se detiene antes de escribirlo.
+     */
+    CompletableFuture<Void> append(WalRecord record);
+
+    /**
+     * Lee en orden de LSN los registros válidos de los segmentos que empiezan en fromLsn o después
+     * (los anteriores ya están cubiertos por un snapshot). Se debe llamar antes del primer append.
+     * Falla con IllegalStateException si el primer segmento disponible empieza después de fromLsn.
+     */
+    void replay(long fromLsn, ObjLongConsumer<WalRecord> consumer);
+
+    /**
+     * Cierra el segmento activo y abre uno nuevo. Devuelve el LSN con el que empieza el nuevo segmento:
+     * todo registro anterior a ese LSN está en segmentos que un snapshot posterior puede reemplazar.
+     */
+    long rollover();
+
+    // Borra los segmentos cuyos registros son todos anteriores a lsn
+    void deleteSegmentsBefore(long lsn);
+
+    boolean isEnabled();
+
+    @Override
+    void close();
+
+    // Implementación vacía para el modo puramente en memoria
+    static WriteAheadLog disabled() {
+        return DisabledWriteAheadLog.INSTANCE;
+    }
+
+    final class DisabledWriteAheadLog implements WriteAheadLog {
+
+        private static final DisabledWriteAheadLog INSTANCE = new DisabledWriteAheadLog();
+        private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+        private DisabledWriteAheadLog() {
+        }
+
+        @Override
+        public CompletableFuture<Void> append(WalRecord record) {
+            return DONE;
+        }
+
+        @Override
+        public void replay(long fromLsn, ObjLongConsumer<WalRecord> consumer) {
+        }
+
+        @Override
+        public long rollover() {
+            return 0;
+        }
+
+        @Override
+        public void deleteSegmentsBefore(long lsn) {
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.repository.Versioned;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * {@link UserReadCache} sobre Caffeine: tamaño acotado con desalojo W-TinyLFU y expiración opcional
+ * tras la escritura.
+ * <p>
+ * Las cargas van por {@code Cache.get}, que calcula cada clave una sola vez aunque haya varios fallos
+ * concurrentes (sin estampida hacia el repositorio). La invalidación de una clave espera a que termine
+ * su carga en curso, de modo que un valor leído antes de una escritura no sobrevive a la invalidación
+ * que la sigue. Los usuarios inexistentes no se cachean.
+ */
+public class CaffeineUserReadCache implements UserReadCache {
+
+    private final Cache<Long, Versioned<User>> users;
+
+    // ttl null o cero = sin expiración por tiempo
+    public CaffeineUserReadCache(long maximumSize, Duration ttl) {
+        this(maximumSize, ttl, Ticker.systemTicker());
+    }
+
+    CaffeineUserReadCache(long maximumSize, Duration ttl, Ticker ticker) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .ticker(ticker)
+                .recordStats();
+        if (ttl != null && !ttl.isZero()) {
+            builder.expireAfterWrite(ttl);
+        }
+        this.users = builder.build();
+    }
+
+    @Override
+    public Optional<Versioned<User>> get(Long id, Function<Long, Optional<Versioned<User>>> loader) {
+        if (id == null) {
+            return loader.apply(null);
+        }
+        return Optional.ofNullable(users.get(id, key -> loader.apply(key).orElse(null)));
+    }
+
+    @Override
+    public Optional<Versioned<User>> getIfPresent(Long id) {
+        return id != null ? Optional.ofNullable(users.getIfPresent(id)) : Optional.empty();
+    }
+
+    @Override
+    public void invalidate(Long id) {
+        if (id != null) {
+            users.invalidate(id);
+        }
+    }
+
+    // Para las métricas (aciertos, fallos, desalojos y tamaño)
+    public Cache<Long, Versioned<User>> getCache() {
+        return users;
+    }
+}
@@ -0,0 +1,60 @@
+package com.chakray.usersapi.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Adaptador no bloqueante de {@link UserService} para la pila WebFlux.
+ * <p>
+ * Las escrituras bloquean (espera del WAL, hashing de contraseñas, locks por usuario, transacciones JDBC) y
+ * se ejecutan en un pool acotado propio, nunca en los hilos del event loop de Netty. Las consultas por id
+ * del repositorio en memoria no bloquean y se ejecutan en el hilo que se suscribe, sin cambiar de hilo; los
+ * listados y exportaciones recorren muchos usuarios y van a boundedElastic para no ocupar el event loop.
+ * Con blockingReads (repositorio JDBC) todas las lecturas van al pool propio.
+ */
+public class ReactiveUserService implements AutoCloseable {
+
+    private final UserService userService;
+    private final Scheduler blockingScheduler;
+    private final Scheduler lookupScheduler;
+    private final Scheduler scanScheduler;
+
+    public ReactiveUserService(UserService userService, int blockingThreads, int queueCapacity, boolean blockingReads) {
+        this.userService = userService;
+        this.blockingScheduler = Schedulers.newBoundedElastic(blockingThreads, queueCapacity, "users-blocking", 60, true);
+        this.lookupScheduler = blockingReads ? blockingScheduler : Schedulers.immediate();
+        this.scanScheduler = blockingReads ? blockingScheduler : Schedulers.boundedElastic();
+    }
+
+    // Consulta acotada a un usuario (por id o email); un resultado null es un Mono vacío
+    public <T> Mono<T> lookup(Function<UserService, T> query) {
+        return Mono.fromCallable(() -> query.apply(userService)).subscribeOn(lookupScheduler);
+    }
+
+    // Consulta que recorre varios usuarios (listados, páginas, búsquedas); un resultado null es un Mono vacío
+    public <T> Mono<T> read(Function<UserService, T> query) {
+        return Mono.fromCallable(() -> query.apply(userService)).subscribeOn(scanScheduler);
+    }
+
+    public <T> Mono<T> write(Function<UserService, T> command) {
+        return Mono.fromCallable(() -> command.apply(userService)).subscribeOn(blockingScheduler);
+    }
+
+    /**
+     * Recorrido perezoso con contrapresión: Flux.fromStream solo avanza el stream cuando el suscriptor pide
+     * más elementos (el socket, a medida que se vacía), y lo cierra al completar, fallar o cancelarse.
+     */
+    public <T> Flux<T> stream(Function<UserService, Stream<T>> query) {
+        return Flux.fromStream(() -> query.apply(userService)).subscribeOn(scanScheduler);
+    }
+
+    @Override
+    public void close() {
+        blockingScheduler.dispose();
+    }
+}
@@ -0,0 +1,317 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Representación pública (sin contraseña) de cada usuario junto con su JSON UTF-8 ya serializado.
+ * <p>
+ * La entrada se asocia a la versión del repositorio de la que salió (por identidad: el repositorio
+ * publica un objeto nuevo en cada escritura), así que una versión nueva nunca reutiliza la vista ni
+ * los bytes de la anterior aunque la invalidación explícita llegue tarde. Las escrituras del servicio
+ * invalidan además la entrada del usuario para liberarla en el momento.
+ * <p>
+ * El serializador de {@link #module()} reconoce las vistas cacheadas y escribe sus bytes tal cual;
+ * cualquier otro User (o una salida con pretty printer) se serializa de la forma normal.
+ * Las vistas se comparten entre peticiones y no deben modificarse.
+ * <p>
+ * El tamaño está acotado por peso (bytes estimados de la vista más los del JSON, si ya se calculó):
+ * al superarlo Caffeine desaloja las entradas menos usadas, que se reconstruyen en el siguiente acceso.
+ * <p>
+ * Con un repositorio que construye objetos nuevos en cada lectura (JDBC) la identidad nunca coincide y
+ * cada lectura solo reemplazaría la entrada: ahí se usa {@link #disabled()}, que no guarda nada.
+ */
+public class UserJsonCache {
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024 * 1024;
+    // Objetos Entry y User de la vista más las referencias del nodo de Caffeine; las direcciones se
+    // comparten con la versión del repositorio y no cuentan
+    private static final int ESTIMATED_VIEW_BYTES = 160;
+
+    private static final class Entry {
+        private final User source;
+        private final User view;
+        // Se calcula en la primera serialización; una carrera solo hace que dos hilos escriban los mismos bytes
+        private volatile byte[] json;
+
+        private Entry(User source, User view) {
+            this.source = source;
+            this.view = view;
+        }
+    }
+
+    // null si está desactivada
+    private final Cache<Long, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UserJsonCache() {
+        this(DEFAULT_MAXIMUM_BYTES);
+    }
+
+    public UserJsonCache(long maximumBytes) {
+        this(maximumBytes, ForkJoinPool.commonPool());
+    }
+
+    // executor: donde Caffeine hace el mantenimiento (desalojos); los tests lo ejecutan en el mismo hilo
+    UserJsonCache(long maximumBytes, Executor executor) {
+        this(Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher(UserJsonCache::weigh)
+                .executor(executor)
+                .build());
+    }
+
+    private UserJsonCache(Cache<Long, Entry> entries) {
+        this.entries = entries;
+    }
+
+    // Sin caché: cada lectura construye la vista y cada respuesta la serializa
+    public static UserJsonCache disabled() {
+        return new UserJsonCache((Cache<Long, Entry>) null);
+    }
+
+    public boolean isEnabled() {
+        return entries != null;
+    }
+
+    private static int weigh(Long id, Entry entry) {
+        byte[] json = entry.json;
+        return ESTIMATED_VIEW_BYTES + (json != null ? json.length : 0);
+    }
+
+    // Vista pública de la versión stored; solo se construye (con toView) si no hay una para esa versión
+    User viewOf(User stored, UnaryOperator<User> toView) {
+        if (entries == null || stored.getId() == null) {
+            return toView.apply(stored);
+        }
+        Entry entry = entries.getIfPresent(stored.getId());
+        if (entry != null && entry.source == stored) {
+            return entry.view;
+        }
+        User view = toView.apply(stored);
+        entries.put(stored.getId(), new Entry(stored, view));
+        return view;
+    }
+
+    void invalidate(Long id) {
+        if (entries != null && id != null) {
+            entries.invalidate(id);
+        }
+    }
+
+    public int size() {
+        return entries != null ? (int) entries.estimatedSize() : 0;
+    }
+
+    // Peso total estimado en bytes, el que se compara con el máximo
+    public long getWeightedSize() {
+        if (entries == null) {
+            return 0;
+        }
+        return entries.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public Module module() {
+        SimpleModule module = new SimpleModule("UserJsonCache");
+        module.setSerializerModifier(new BeanSerializerModifier() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription description,
+                                                      JsonSerializer<?> serializer) {
+                return description.getBeanClass() == User.class
+                        ? new Serializer(UserJsonCache.this, (JsonSerializer<Object>) serializer)
+                        : serializer;
+            }
+        });
+        return module;
+    }
+
+    private Entry cachedEntry(User view) {
+        Entry entry = entries != null && view.getId() != null ? entries.getIfPresent(view.getId()) : null;
+        return entry != null && entry.view == view ? entry : null;
+    }
+
+    // Vuelve a pesar la entrada ahora que tiene bytes; no hace nada si ya se invalidó o reemplazó
+    private void reweigh(Long id, Entry entry) {
+        entries.asMap().replace(id, entry, entry);
+    }
+
+    private static final class Serializer extends StdSerializer<User> implements ResolvableSerializer, ContextualSerializer {
+
+        private final UserJsonCache cache;
+        private final JsonSerializer<Object> delegate;
+
+        private Serializer(UserJsonCache cache, JsonSerializer<Object> delegate) {
+            super(User.class);
+            this.cache = cache;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void serialize(User user, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            Entry entry = generator.getPrettyPrinter() == null ? cache.cachedEntry(user) : null;
+            ObjectCodec codec = generator.getCodec();
+            if (entry == null || !(codec instanceof ObjectMapper mapper)) {
+                delegate.serialize(user, generator, provider);
+                return;
+            }
+            byte[] json = entry.json;
+            if (json != null) {
+                cache.hits.increment();
+            } else {
+                cache.misses.increment();
+                // Mismo serializador de bean y misma fábrica que la respuesta: los bytes son idénticos
+                ByteArrayBuilder buffer = new ByteArrayBuilder();
+                try (JsonGenerator fragment = mapper.getFactory().createGenerator(buffer)) {
+                    delegate.serialize(user, fragment, provider);
+                }
+                json = buffer.toByteArray();
+                entry.json = json;
+                cache.reweigh(user.getId(), entry);
+            }
+            generator.writeRawValue(new RawUtf8(json));
+        }
+
+        @Override
+        public void serializeWithType(User user, JsonGenerator generator, SerializerProvider provider,
+                                      TypeSerializer typeSerializer) throws IOException {
+            delegate.serializeWithType(user, generator, provider, typeSerializer);
+        }
+
+        @Override
+        public void resolve(SerializerProvider provider) throws JsonMappingException {
+            if (delegate instanceof ResolvableSerializer resolvable) {
+                resolvable.resolve(provider);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property)
+                throws JsonMappingException {
+            if (!(delegate instanceof ContextualSerializer contextual)) {
+                return this;
+            }
+            JsonSerializer<?> contextualized = contextual.createContextual(provider, property);
+            return contextualized == delegate ? this : new Serializer(cache, (JsonSerializer<Object>) contextualized);
+        }
+    }
+
+    // Fragmento JSON ya codificado: el generador UTF-8 lo copia a su buffer sin volver a codificarlo
+    private record RawUtf8(byte[] bytes) implements SerializableString {
+
+        @Override
+        public String getValue() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            return new SerializedString(getValue()).asQuotedChars();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return bytes;
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return new SerializedString(getValue()).asQuotedUTF8();
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            return new SerializedString(getValue()).appendQuotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            return new SerializedString(getValue()).appendQuoted(buffer, offset);
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (bytes.length > buffer.length - offset) {
+                return -1;
+            }
+            System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+            return bytes.length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            return new SerializedString(getValue()).appendUnquoted(buffer, offset);
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return new SerializedString(getValue()).writeQuotedUTF8(out);
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(bytes);
+            return bytes.length;
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) {
+            return new SerializedString(getValue()).putQuotedUTF8(buffer);
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) {
+            if (bytes.length > buffer.remaining()) {
+                return -1;
+            }
+            buffer.put(bytes);
+            return bytes.length;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.repository.Versioned;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Caché de lectura entre {@link UserService} y el repositorio: vistas sin contraseña por id, junto con la
+ * versión de la que salieron (las direcciones se sirven desde la vista). El servicio invalida la entrada
+ * después de cada escritura sobre el usuario.
+ * <p>
+ * La versión cacheada viaja con la vista, así que el ETag y el cuerpo de una respuesta salen siempre del
+ * mismo par aunque la entrada se lea justo antes de su invalidación.
+ */
+public interface UserReadCache {
+
+    /**
+     * Vista cacheada del usuario o, si no está, el resultado de loader (que se guarda si existe).
+     * Las cargas concurrentes del mismo id esperan a una sola llamada a loader.
+     */
+    Optional<Versioned<User>> get(Long id, Function<Long, Optional<Versioned<User>>> loader);
+
+    // Solo consulta la caché, nunca el repositorio
+    Optional<Versioned<User>> getIfPresent(Long id);
+
+    void invalidate(Long id);
+
+    // Sin caché: cada lectura va al repositorio
+    static UserReadCache disabled() {
+        return DisabledUserReadCache.INSTANCE;
+    }
+
+    final class DisabledUserReadCache implements UserReadCache {
+
+        private static final DisabledUserReadCache INSTANCE = new DisabledUserReadCache();
+
+        private DisabledUserReadCache() {
+        }
+
+        @Override
+        public Optional<Versioned<User>> get(Long id, Function<Long, Optional<Versioned<User>>> loader) {
+            return loader.apply(id);
+        }
+
+        @Override
+        public Optional<Versioned<User>> getIfPresent(Long id) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void invalidate(Long id) {
+        }
+    }
+}
@@ -1,27 +1,66 @@
 package com.chakray.usersapi.service;
 
+import com.chakray.usersapi.exception.VersionMismatchException;
 import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.BatchPatchResult;
 import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPage;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.repository.PageCursor;
+import com.chakray.usersapi.repository.SortField;
 import com.chakray.usersapi.repository.UserRepository;
+import com.chakray.usersapi.repository.Versioned;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+// Cada método público registra un timer users.service (etiquetas class/method/exception) con histograma
 @Service
+@Timed(value = UserService.TIMER, histogram = true)
 public class UserService {
 
+    public static final String TIMER = "users.service";
+
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_SEARCH_RESULTS = 100;
+    public static final int MAX_BATCH_PATCHES = 10_000;
+    private static final int GROUPS_PER_TASK = 16;
+
     private final UserRepository userRepository;
+    private final UserJsonCache jsonCache;
+    private final UserReadCache readCache;
+    private final ForkJoinPool batchPatchPool;
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, UserJsonCache jsonCache, UserReadCache readCache,
+                       ForkJoinPool batchPatchPool) {
         this.userRepository = userRepository;
+        this.jsonCache = jsonCache;
+        this.readCache = readCache;
+        this.batchPatchPool = batchPatchPool;
     }
 
-    // Método auxiliar para remover la contraseña antes de retornar el usuario al cliente
+    // Vista sin contraseña de una versión del repositorio; se reutiliza (junto con su JSON) mientras la versión no cambie
     private User removePassword(User user) {
+        return user == null ? null : jsonCache.viewOf(user, UserService::withoutPassword);
+    }
+
+    // Método auxiliar para remover la contraseña antes de retornar el usuario al cliente
+    private static User withoutPassword(User user) {
         if (user == null) {
             return null;
         }
@@ -30,45 +69,110 @@ public class UserService {
         userWithoutPassword.setEmail(user.getEmail());
         userWithoutPassword.setName(user.getName());
         userWithoutPassword.setCreatedAt(user.getCreatedAt());
-        userWithoutPassword.setAddresses(user.getAddresses() != null ? new ArrayList<>(user.getAddresses()) : new ArrayList<>());
+        // Las direcciones del repositorio son inmutables: se comparte la lista en vez de copiarla
+        userWithoutPassword.setAddresses(user.getAddresses() != null ? user.getAddresses() : List.of());
         return userWithoutPassword;
     }
 
     public List<User> findAllUsers(String sortedBy) {
-        List<User> users = userRepository.findAll();
-
-        if (sortedBy != null && !sortedBy.isEmpty()) {
-            Comparator<User> comparator = null;
-            switch (sortedBy.toLowerCase()) {
-                case "email":
-                    comparator = Comparator.comparing(User::getEmail);
-                    break;
-                case "id":
-                    comparator = Comparator.comparing(User::getId);
-                    break;
-                case "name":
-                    comparator = Comparator.comparing(User::getName);
-                    break;
-                case "created_at":
-                    comparator = Comparator.comparing(User::getCreatedAt);
-                    break;
-                default:
-                    // Si el parámetro no es válido, no se ordena
-                    break;
-            }
-            if (comparator != null) {
-                users = users.stream().sorted(comparator).collect(Collectors.toList());
-            }
-        }
+        // El repositorio mantiene índices ordenados por campo; si el parámetro no es válido, no se ordena
+        List<User> users = SortField.fromParam(sortedBy)
+                .map(userRepository::findAllSorted)
+                .orElseGet(userRepository::findAll);
+
         // Remover contraseñas antes de retornar a la capa de presentación (controlador)
         return users.stream()
                 .map(this::removePassword)
                 .collect(Collectors.toList());
     }
 
+    // Paginación por clave: busca la posición del cursor en el índice ordenado en lugar de saltar elementos
+    public UserPage findUsersPage(String sortedBy, String cursor, int limit) {
+        SortField sortField = SortField.fromParam(sortedBy).orElse(SortField.ID);
+        return page(sortField, limit, userRepository.streamSorted(sortField, decodeCursor(cursor)));
+    }
+
+    // Usuarios creados en [from, to), en orden cronológico, resueltos sobre el índice por fecha
+    public List<User> findUsersCreatedBetween(Instant from, Instant to) {
+        try (Stream<User> users = userRepository.streamCreatedBetween(from, to, null)) {
+            return users.map(this::removePassword).collect(Collectors.toList());
+        }
+    }
+
+    public UserPage findUsersCreatedBetweenPage(Instant from, Instant to, String cursor, int limit) {
+        return page(SortField.CREATED_AT, limit, userRepository.streamCreatedBetween(from, to, decodeCursor(cursor)));
+    }
+
+    // Usuarios con alguna dirección en el país, resueltos sobre el índice invertido por país; sin sortedBy, por id
+    public List<User> findUsersByCountry(String countryCode, String sortedBy) {
+        SortField sortField = SortField.fromParam(sortedBy).orElse(SortField.ID);
+        try (Stream<User> users = userRepository.streamByCountry(countryCode, sortField, null)) {
+            return users.map(this::removePassword).collect(Collectors.toList());
+        }
+    }
+
+    public UserPage findUsersByCountryPage(String countryCode, String sortedBy, String cursor, int limit) {
+        SortField sortField = SortField.fromParam(sortedBy).orElse(SortField.ID);
+        return page(sortField, limit, userRepository.streamByCountry(countryCode, sortField, decodeCursor(cursor)));
+    }
+
+    private static PageCursor decodeCursor(String cursor) {
+        return cursor != null && !cursor.isEmpty() ? PageCursor.decode(cursor) : null;
+    }
+
+    private UserPage page(SortField sortField, int limit, Stream<User> ordered) {
+        if (limit < 1) {
+            ordered.close();
+            throw new IllegalArgumentException("limit debe ser mayor que 0");
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        // Se pide un elemento extra solo para saber si existe una página siguiente
+        List<User> window;
+        try (Stream<User> users = ordered) {
+            window = users.limit(pageSize + 1L).toList();
+        }
+        List<User> page = window.size() > pageSize ? window.subList(0, pageSize) : window;
+        String nextCursor = window.size() > pageSize
+                ? PageCursor.after(sortField, page.get(page.size() - 1)).encode()
+                : null;
+        return new UserPage(page.stream().map(this::removePassword).collect(Collectors.toList()), nextCursor);
+    }
+
+    // Recorrido perezoso de todos los usuarios sin contraseña, para exportaciones en streaming; el llamador debe cerrarlo
+    public Stream<User> streamAllUsers(String sortedBy) {
+        SortField sortField = SortField.fromParam(sortedBy).orElse(SortField.ID);
+        return userRepository.streamSorted(sortField, null).map(this::removePassword);
+    }
+
     public Optional<User> findUserById(Long id) {
-        return userRepository.findById(id)
-                .map(this::removePassword); // Remover contraseña si se encuentra
+        return findVersionedView(id).map(Versioned::value);
+    }
+
+    // Lectura por id a través de la caché de lectura; lo cacheado ya es la vista sin contraseña
+    private Optional<Versioned<User>> findVersionedView(Long id) {
+        return readCache.get(id, key -> userRepository.findVersionedById(key)
+                .map(versioned -> new Versioned<>(removePassword(versioned.value()), versioned.version())));
+    }
+
+    // Tras cada escritura sobre el usuario, para que ninguna caché siga sirviendo la versión anterior
+    private void invalidate(Long id) {
+        jsonCache.invalidate(id);
+        readCache.invalidate(id);
+    }
+
+    public Optional<User> findUserByEmail(String email) {
+        return userRepository.findByEmail(email)
+                .map(this::removePassword);
+    }
+
+    // Prefijo o subcadena de nombre/email resuelta sobre el índice de búsqueda del repositorio
+    public List<User> searchUsers(String query, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit debe ser mayor que 0");
+        }
+        return userRepository.search(query, Math.min(limit, MAX_SEARCH_RESULTS)).stream()
+                .map(this::removePassword)
+                .collect(Collectors.toList());
     }
 
     public User createUser(User user) {
@@ -77,20 +181,146 @@ public class UserService {
         return removePassword(savedUser); // Retornar sin contraseña
     }
 
+    // Alta por lotes sin contraseñas en la respuesta; los rechazados se notifican por su posición en el lote
+    public List<User> createUsers(List<User> users, ObjIntConsumer<RuntimeException> rejected) {
+        return userRepository.saveAll(users, rejected).stream()
+                .map(this::removePassword)
+                .collect(Collectors.toList());
+    }
+
     public boolean deleteUser(Long id) {
-        return userRepository.deleteById(id);
+        boolean deleted = userRepository.deleteById(id);
+        invalidate(id);
+        return deleted;
     }
 
     public Optional<User> updateUser(Long id, User userDetails) {
-        return userRepository.update(id, userDetails)
-                .map(this::removePassword); // Remover contraseña si se actualiza
+        Optional<User> updated = userRepository.update(id, userDetails);
+        invalidate(id);
+        return updated.map(this::removePassword); // Remover contraseña si se actualiza
     }
 
+    // Las direcciones publicadas son inmutables: se sirven desde la vista (cacheada) del usuario
     public Optional<List<Address>> findAddressesByUserId(Long userId) {
-        return userRepository.findAddressesByUserId(userId);
+        return findVersionedView(userId).map(versioned -> versioned.value().getAddresses());
+    }
+
+    // Actualización condicionada a la versión del usuario (ANY_VERSION = sin condición)
+    public Optional<Versioned<User>> updateUser(Long id, User userDetails, long expectedVersion) {
+        Optional<Versioned<User>> updated = userRepository.update(id, userDetails, expectedVersion);
+        invalidate(id);
+        return updated.map(versioned -> new Versioned<>(removePassword(versioned.value()), versioned.version()));
+    }
+
+    // Versión del usuario para su ETag; no carga ni copia el usuario.
+    // Si está cacheado se usa su versión, que es la del cuerpo que se servirá desde la caché
+    public OptionalLong findUserVersion(Long id) {
+        Optional<Versioned<User>> cached = readCache.getIfPresent(id);
+        return cached.isPresent() ? OptionalLong.of(cached.get().version()) : userRepository.findVersion(id);
+    }
+
+    // Versión global para los ETag de los listados
+    public long getUsersVersion() {
+        return userRepository.getGlobalVersion();
     }
 
     public Optional<Address> updateAddress(Long userId, Long addressId, Address updatedAddress) {
-        return userRepository.updateAddress(userId, addressId, updatedAddress);
+        Optional<Address> updated = userRepository.updateAddress(userId, addressId, updatedAddress);
+        invalidate(userId);
+        return updated;
+    }
+
+    public Optional<Versioned<Address>> updateAddress(Long userId, Long addressId, Address updatedAddress,
+                                                      long expectedVersion) {
+        Optional<Versioned<Address>> updated = userRepository.updateAddress(userId, addressId, updatedAddress, expectedVersion);
+        invalidate(userId);
+        return updated;
+    }
+
+    /**
+     * Aplica un lote de cambios agrupados por usuario: cada grupo es una sola llamada atómica al repositorio
+     * (un lock o una transacción) y los grupos, que no comparten usuario, se aplican en paralelo en el
+     * ForkJoinPool del lote. Devuelve un resultado por cambio en el orden recibido; un grupo que falla no
+     * afecta a los demás.
+     */
+    public BatchPatchResult patchUsers(List<UserPatch> patches) {
+        if (patches.size() > MAX_BATCH_PATCHES) {
+            throw new IllegalArgumentException("Como máximo " + MAX_BATCH_PATCHES + " cambios por lote");
+        }
+        BatchPatchResult.Item[] results = new BatchPatchResult.Item[patches.size()];
+        Map<Long, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < patches.size(); i++) {
+            UserPatch patch = patches.get(i);
+            if (patch == null || patch.getUserId() == null) {
+                results[i] = failed(HttpStatus.BAD_REQUEST, "userId es obligatorio");
+            } else if (patch.getAddressId() != null && (patch.getEmail() != null || patch.getPassword() != null)) {
+                results[i] = failed(HttpStatus.BAD_REQUEST, "Un cambio de dirección no admite email ni password");
+            } else {
+                groups.computeIfAbsent(patch.getUserId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+        List<Map.Entry<Long, List<Integer>>> work = new ArrayList<>(groups.entrySet());
+        if (work.size() <= GROUPS_PER_TASK) {
+            // Pocos usuarios: se aplican en el hilo de la petición, sin pasar por el pool
+            applyGroups(work, patches, results);
+        } else {
+            // Cada grupo escribe solo sus posiciones de results; el join publica los resultados a este hilo
+            batchPatchPool.invoke(ForkJoinTask.adapt(() -> applyGroups(work, patches, results)));
+        }
+        BatchPatchResult result = new BatchPatchResult();
+        result.setResults(List.of(results));
+        result.setApplied((int) result.getResults().stream().filter(item -> item.getVersion() != null).count());
+        return result;
+    }
+
+    // Divide y vencerás: mitades hasta GROUPS_PER_TASK grupos, para que repartir el trabajo no cueste más
+    // que aplicar grupos pequeños (en memoria, un grupo son microsegundos)
+    private void applyGroups(List<Map.Entry<Long, List<Integer>>> groups, List<UserPatch> patches,
+                             BatchPatchResult.Item[] results) {
+        if (groups.size() <= GROUPS_PER_TASK) {
+            groups.forEach(group -> applyGroup(group.getKey(), group.getValue(), patches, results));
+            return;
+        }
+        int middle = groups.size() / 2;
+        ForkJoinTask.invokeAll(
+                ForkJoinTask.adapt(() -> applyGroups(groups.subList(0, middle), patches, results)),
+                ForkJoinTask.adapt(() -> applyGroups(groups.subList(middle, groups.size()), patches, results)));
+    }
+
+    private void applyGroup(Long userId, List<Integer> indexes, List<UserPatch> patches, BatchPatchResult.Item[] results) {
+        List<UserPatch> group = new ArrayList<>(indexes.size());
+        Long expected = null;
+        try {
+            for (Integer index : indexes) {
+                UserPatch patch = patches.get(index);
+                // Todo el grupo se publica como una sola versión: solo puede esperar una
+                if (patch.getVersion() != null && expected != null && !expected.equals(patch.getVersion())) {
+                    throw new VersionMismatchException("Versiones distintas para el usuario " + userId + " en el mismo lote");
+                }
+                expected = patch.getVersion() != null ? patch.getVersion() : expected;
+                group.add(patch);
+            }
+            Optional<Versioned<User>> applied = userRepository.applyPatches(userId, group,
+                    expected != null ? expected : UserRepository.ANY_VERSION);
+            invalidate(userId);
+            // Todos los cambios aplicados comparten versión: un solo elemento para todo el grupo
+            BatchPatchResult.Item ok = applied.map(versioned -> new BatchPatchResult.Item(HttpStatus.OK.value(), versioned.version(), null))
+                    .orElse(null);
+            for (int i = 0; i < group.size(); i++) {
+                Long addressId = group.get(i).getAddressId();
+                boolean found = applied.isPresent() && (addressId == null
+                        || applied.get().value().getAddresses().stream().anyMatch(address -> addressId.equals(address.getId())));
+                results[indexes.get(i)] = found ? ok : failed(HttpStatus.NOT_FOUND, null);
+            }
+        } catch (RuntimeException e) {
+            // Mismo estado que tendría la petición individual (412, 409, 503...) para todos los cambios del grupo
+            ResponseStatus status = AnnotatedElementUtils.findMergedAnnotation(e.getClass(), ResponseStatus.class);
+            BatchPatchResult.Item failure = failed(status != null ? status.code() : HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+            indexes.forEach(index -> results[index] = failure);
+        }
+    }
+
+    private static BatchPatchResult.Item failed(HttpStatus status, String error) {
+        return new BatchPatchResult.Item(status.value(), null, error);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package com.chakray.usersapi.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formato público de {@code createdAt} ({@code dd-MM-yyyy HH:mm:ss}, hora de Londres).
+ * <p>
+ * Internamente la fecha es un {@link Instant}; el texto solo se genera al serializar. Como la
+ * resolución es de segundos y muchos usuarios comparten segundo (semillas, importaciones por lotes),
+ * el texto se cachea en una tabla de acceso directo indexada por el segundo.
+ */
+public final class CreatedAtFormat {
+
+    public static final String PATTERN = "dd-MM-yyyy HH:mm:ss";
+    public static final ZoneId ZONE = ZoneId.of("Europe/London");
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(PATTERN).withZone(ZONE);
+    private static final int CACHE_SIZE = 1024;
+
+    // Entradas inmutables: una lectura concurrente ve una entrada completa o la anterior, nunca una mezcla
+    private record Formatted(long epochSecond, String text) {
+    }
+
+    private static final Formatted[] CACHE = new Formatted[CACHE_SIZE];
+
+    private CreatedAtFormat() {
+    }
+
+    public static String format(Instant instant) {
+        long epochSecond = instant.getEpochSecond();
+        int slot = (int) (epochSecond & (CACHE_SIZE - 1));
+        Formatted cached = CACHE[slot];
+        if (cached != null && cached.epochSecond() == epochSecond) {
+            return cached.text();
+        }
+        String text = FORMATTER.format(instant);
+        CACHE[slot] = new Formatted(epochSecond, text);
+        return text;
+    }
+
+    // En el cambio de hora de otoño una hora local es ambigua: se toma la primera aparición
+    public static Instant parse(String text) {
+        return LocalDateTime.parse(text, FORMATTER).atZone(ZONE).toInstant();
+    }
+}
@@ -0,0 +1,71 @@
+package com.chakray.usersapi.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+
+// (De)serialización JSON de createdAt
+public final class CreatedAtJson {
+
+    private CreatedAtJson() {
+    }
+
+    // Formato público de la API (ver CreatedAtFormat)
+    public static class Serializer extends StdSerializer<Instant> {
+
+        public Serializer() {
+            super(Instant.class);
+        }
+
+        @Override
+        public void serialize(Instant value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeString(CreatedAtFormat.format(value));
+        }
+    }
+
+    // Milisegundos epoch: formato sin pérdidas ni ambigüedad horaria para el WAL
+    public static class EpochMillisSerializer extends StdSerializer<Instant> {
+
+        public EpochMillisSerializer() {
+            super(Instant.class);
+        }
+
+        @Override
+        public void serialize(Instant value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeNumber(value.toEpochMilli());
+        }
+    }
+
+    // Acepta milisegundos epoch, el formato público o ISO-8601
+    public static class Deserializer extends StdDeserializer<Instant> {
+
+        public Deserializer() {
+            super(Instant.class);
+        }
+
+        @Override
+        public Instant deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+                return Instant.ofEpochMilli(parser.getLongValue());
+            }
+            String text = parser.getValueAsString();
+            if (text == null || text.isBlank()) {
+                return null;
+            }
+            try {
+                return text.indexOf('T') >= 0 ? Instant.parse(text) : CreatedAtFormat.parse(text);
+            } catch (DateTimeException e) {
+                return (Instant) context.handleWeirdStringValue(Instant.class, text,
+                        "se esperaba %s o ISO-8601", CreatedAtFormat.PATTERN);
+            }
+        }
+    }
+}
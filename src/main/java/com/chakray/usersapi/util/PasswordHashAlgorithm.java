@@ -0,0 +1,21 @@
+package com.chakray.usersapi.util;
+
+/**
+ * Algoritmo de hash de contraseñas. Las implementaciones deben ser thread-safe:
+ * el motor de hashing las invoca desde varios hilos a la vez.
+ */
+public interface PasswordHashAlgorithm {
+
+    // Nombre con el que se selecciona en la configuración (users.password-hashing.algorithm)
+    String name();
+
+    String hash(String password);
+
+    // Los algoritmos baratos se ejecutan en el hilo que llama: el salto al pool costaría más que el propio hash
+    default boolean isExpensive() {
+        return true;
+    }
+
+    // Comprueba una contraseña contra un hash producido por este algoritmo
+    boolean matches(String password, String hashed);
+}
@@ -6,17 +6,53 @@ import java.nio.charset.StandardCharsets;
 
 public class PasswordHasher {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // MessageDigest no es thread-safe pero sí reutilizable: una instancia por hilo evita getInstance en cada hash
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> digest("SHA-1"));
+    private static final MessageDigest SHA1_PROTOTYPE = digest("SHA-1");
+
     public static String hashSha1(String password) {
+        MessageDigest md = sha1();
+        byte[] hashBytes = md.digest(password.getBytes(StandardCharsets.UTF_8)); // digest() deja la instancia reiniciada
+        return toHex(hashBytes);
+    }
+
+    // Hexadecimal en minúsculas con tabla de búsqueda: un char[] y el String resultante, sin String.format
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) | Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
+    // Un hilo virtual atiende una sola petición: su ThreadLocal no se reutilizaría, así que se clona el prototipo
+    private static MessageDigest sha1() {
+        if (!Thread.currentThread().isVirtual()) {
+            return SHA1.get();
+        }
+        try {
+            return (MessageDigest) SHA1_PROTOTYPE.clone();
+        } catch (CloneNotSupportedException e) {
+            return digest("SHA-1");
+        }
+    }
+
+    private static MessageDigest digest(String algorithm) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] hashBytes = md.digest(password.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
+            return MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error al hashear la contraseña con SHA-1", e);
+            throw new RuntimeException("Error al hashear la contraseña con " + algorithm, e);
         }
     }
-}
\ No newline at end of file
+}
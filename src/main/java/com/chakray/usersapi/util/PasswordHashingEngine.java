@@ -0,0 +1,117 @@
+package com.chakray.usersapi.util;
+
+import com.chakray.usersapi.exception.PasswordHashingOverloadedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Ejecuta el hashing de contraseñas en un pool propio y acotado.
+ * <p>
+ * El número de hilos limita la CPU que el hashing puede consumir y la cola acotada limita el trabajo
+ * pendiente: si se llena, la petición falla con {@link PasswordHashingOverloadedException} (503) en
+ * vez de ejecutarse en el hilo de Tomcat que la recibió.
+ * <p>
+ * Solo acota la concurrencia: {@link #hash} y {@link #hashAll} siguen bloqueando al hilo que llama hasta
+ * tener el resultado (las escrituras del servicio son síncronas). No libera hilos de petición.
+ */
+public class PasswordHashingEngine implements AutoCloseable {
+
+    private final PasswordHashAlgorithm algorithm;
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHashingEngine(PasswordHashAlgorithm algorithm, int threads, int queueCapacity) {
+        this.algorithm = algorithm;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public PasswordHashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public CompletableFuture<String> hashAsync(String password) {
+        return submit(() -> algorithm.hash(password));
+    }
+
+    // Hash síncrono: el hilo que llama espera bloqueado mientras el pool calcula los algoritmos costosos
+    public String hash(String password) {
+        if (!algorithm.isExpensive()) {
+            return algorithm.hash(password);
+        }
+        return join(hashAsync(password));
+    }
+
+    /**
+     * Hashea un lote repartido en una tarea por hilo del pool (no una por contraseña), así un lote
+     * grande ocupa pocas posiciones de la cola. El resultado conserva el orden de entrada.
+     */
+    public List<String> hashAll(List<String> passwords) {
+        if (!algorithm.isExpensive()) {
+            return passwords.stream().map(algorithm::hash).toList();
+        }
+        int slices = Math.min(executor.getMaximumPoolSize(), passwords.size());
+        List<CompletableFuture<String[]>> futures = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            int from = passwords.size() * slice / slices;
+            int to = passwords.size() * (slice + 1) / slices;
+            futures.add(submit(() -> {
+                String[] hashes = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    hashes[i - from] = algorithm.hash(passwords.get(i));
+                }
+                return hashes;
+            }));
+        }
+        List<String> hashes = new ArrayList<>(passwords.size());
+        for (CompletableFuture<String[]> future : futures) {
+            Collections.addAll(hashes, join(future));
+        }
+        return hashes;
+    }
+
+    // Tareas esperando en la cola (útil como métrica de saturación)
+    public int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            throw new PasswordHashingOverloadedException();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
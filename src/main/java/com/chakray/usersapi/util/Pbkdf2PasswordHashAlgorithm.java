@@ -0,0 +1,77 @@
+package com.chakray.usersapi.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * PBKDF2-HMAC-SHA256 con sal aleatoria y coste configurable.
+ * El hash se guarda como {@code pbkdf2-sha256$iteraciones$salHex$hashHex}, así un cambio de coste
+ * no invalida los hashes ya almacenados.
+ */
+public class Pbkdf2PasswordHashAlgorithm implements PasswordHashAlgorithm {
+
+    public static final String NAME = "pbkdf2";
+
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 no disponible", e);
+        }
+    });
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public Pbkdf2PasswordHashAlgorithm(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations debe ser mayor que 0");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] key = derive(password, salt, iterations);
+        return PREFIX + '$' + iterations + '$' + PasswordHasher.toHex(salt) + '$' + PasswordHasher.toHex(key);
+    }
+
+    @Override
+    public boolean matches(String password, String hashed) {
+        if (hashed == null) {
+            return false;
+        }
+        String[] parts = hashed.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return false;
+        }
+        byte[] expected = PasswordHasher.fromHex(parts[3]);
+        byte[] actual = derive(password, PasswordHasher.fromHex(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error al hashear la contraseña con PBKDF2", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.chakray.usersapi.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// SHA-1 sin sal: el formato histórico de la API, se mantiene por compatibilidad con los hashes existentes
+public class Sha1PasswordHashAlgorithm implements PasswordHashAlgorithm {
+
+    public static final String NAME = "sha1";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // Menos de un microsegundo por hash: no compensa enviarlo al pool
+    @Override
+    public boolean isExpensive() {
+        return false;
+    }
+
+    @Override
+    public String hash(String password) {
+        return PasswordHasher.hashSha1(password);
+    }
+
+    @Override
+    public boolean matches(String password, String hashed) {
+        return hashed != null && MessageDigest.isEqual(
+                hash(password).getBytes(StandardCharsets.US_ASCII), hashed.getBytes(StandardCharsets.US_ASCII));
+    }
+}
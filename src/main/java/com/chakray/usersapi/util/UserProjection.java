@@ -0,0 +1,220 @@
+package com.chakray.usersapi.util;
+
+import com.chakray.usersapi.exception.InvalidFieldsException;
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Proyección de un usuario a un subconjunto de campos ({@code fields=id,email,addresses.countryCode}).
+ * <p>
+ * Cada conjunto de campos se compila una vez a una lista de escritores por campo y se guarda en caché
+ * por su máscara de bits (el orden o los espacios del parámetro no generan entradas nuevas). Los campos
+ * omitidos no se leen ni se serializan, y el usuario no se copia: el JSON se escribe directamente desde
+ * la versión recibida, en el mismo orden y formato que la serialización completa. La contraseña no es
+ * un campo proyectable.
+ */
+public final class UserProjection {
+
+    @FunctionalInterface
+    private interface FieldWriter<T> {
+        void write(T value, JsonGenerator generator) throws IOException;
+    }
+
+    private enum UserField {
+        ID("id", (user, generator) -> writeNumber(generator, user.getId())),
+        EMAIL("email", (user, generator) -> generator.writeString(user.getEmail())),
+        NAME("name", (user, generator) -> generator.writeString(user.getName())),
+        CREATED_AT("createdAt", (user, generator) -> {
+            if (user.getCreatedAt() == null) {
+                generator.writeNull();
+            } else {
+                generator.writeString(CreatedAtFormat.format(user.getCreatedAt()));
+            }
+        }),
+        ADDRESSES("addresses", null);
+
+        private final String name;
+        private final SerializableString serializedName;
+        private final FieldWriter<User> writer;
+
+        UserField(String name, FieldWriter<User> writer) {
+            this.name = name;
+            this.serializedName = new SerializedString(name);
+            this.writer = writer;
+        }
+    }
+
+    private enum AddressField {
+        ID("id", (address, generator) -> writeNumber(generator, address.getId())),
+        NAME("name", (address, generator) -> generator.writeString(address.getName())),
+        STREET("street", (address, generator) -> generator.writeString(address.getStreet())),
+        COUNTRY_CODE("countryCode", (address, generator) -> generator.writeString(address.getCountryCode()));
+
+        private final String name;
+        private final SerializableString serializedName;
+        private final FieldWriter<Address> writer;
+
+        AddressField(String name, FieldWriter<Address> writer) {
+            this.name = name;
+            this.serializedName = new SerializedString(name);
+            this.writer = writer;
+        }
+
+        // Los bits de las direcciones van a continuación de los del usuario
+        private int bit() {
+            return 1 << (UserField.values().length + ordinal());
+        }
+    }
+
+    private static final int ADDRESS_FIELDS_MASK = allAddressFields();
+    private static final ConcurrentMap<Integer, UserProjection> COMPILED = new ConcurrentHashMap<>();
+
+    private final FieldWriter<User>[] writers;
+
+    private UserProjection(int mask) {
+        List<FieldWriter<User>> compiled = new ArrayList<>();
+        for (UserField field : UserField.values()) {
+            if ((mask & (1 << field.ordinal())) == 0) {
+                continue;
+            }
+            FieldWriter<User> value = field == UserField.ADDRESSES ? addressesWriter(mask) : field.writer;
+            compiled.add((user, generator) -> {
+                generator.writeFieldName(field.serializedName);
+                value.write(user, generator);
+            });
+        }
+        @SuppressWarnings("unchecked")
+        FieldWriter<User>[] array = compiled.toArray(FieldWriter[]::new);
+        this.writers = array;
+    }
+
+    /**
+     * Proyección para el valor del parámetro fields; null o vacío = sin proyección (null).
+     * "addresses" incluye las direcciones completas y "addresses.x" solo los campos indicados.
+     */
+    public static UserProjection of(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        int mask = 0;
+        for (String token : fields.split(",")) {
+            mask |= bitsOf(token.trim(), fields);
+        }
+        return COMPILED.computeIfAbsent(mask, UserProjection::new);
+    }
+
+    private static int bitsOf(String token, String fields) {
+        String addressesPrefix = UserField.ADDRESSES.name + ".";
+        if (token.startsWith(addressesPrefix)) {
+            String nested = token.substring(addressesPrefix.length());
+            for (AddressField field : AddressField.values()) {
+                if (field.name.equals(nested)) {
+                    return 1 << UserField.ADDRESSES.ordinal() | field.bit();
+                }
+            }
+        } else {
+            for (UserField field : UserField.values()) {
+                if (field.name.equals(token)) {
+                    return 1 << field.ordinal();
+                }
+            }
+        }
+        throw new InvalidFieldsException("Campo desconocido en fields: '" + token + "' (" + fields + ")");
+    }
+
+    private static FieldWriter<User> addressesWriter(int mask) {
+        // Sin campos concretos de dirección se escriben todos
+        int selected = (mask & ADDRESS_FIELDS_MASK) != 0 ? mask & ADDRESS_FIELDS_MASK : ADDRESS_FIELDS_MASK;
+        List<AddressField> fields = new ArrayList<>();
+        for (AddressField field : AddressField.values()) {
+            if ((selected & field.bit()) != 0) {
+                fields.add(field);
+            }
+        }
+        AddressField[] addressFields = fields.toArray(AddressField[]::new);
+        return (user, generator) -> {
+            List<Address> addresses = user.getAddresses();
+            if (addresses == null) {
+                generator.writeNull();
+                return;
+            }
+            generator.writeStartArray();
+            for (Address address : addresses) {
+                if (address == null) {
+                    generator.writeNull();
+                    continue;
+                }
+                generator.writeStartObject();
+                for (AddressField field : addressFields) {
+                    generator.writeFieldName(field.serializedName);
+                    field.writer.write(address, generator);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        };
+    }
+
+    private static int allAddressFields() {
+        int mask = 0;
+        for (AddressField field : AddressField.values()) {
+            mask |= field.bit();
+        }
+        return mask;
+    }
+
+    private static void writeNumber(JsonGenerator generator, Long value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    public void write(User user, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (FieldWriter<User> writer : writers) {
+            writer.write(user, generator);
+        }
+        generator.writeEndObject();
+    }
+
+    // Envoltorio que Jackson serializa con esta proyección; solo cuesta una asignación por usuario
+    public Object apply(User user) {
+        return new Projected(this, user);
+    }
+
+    public List<Object> applyAll(List<User> users) {
+        List<Object> projected = new ArrayList<>(users.size());
+        for (User user : users) {
+            projected.add(apply(user));
+        }
+        return projected;
+    }
+
+    private record Projected(UserProjection projection, User user) implements JsonSerializable {
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            projection.write(user, generator);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers,
+                                      TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, serializers);
+        }
+    }
+}
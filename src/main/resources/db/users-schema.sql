@@ -0,0 +1,41 @@
+-- Esquema del repositorio JDBC (perfil jdbc); se aplica en cada arranque, por eso todo es IF NOT EXISTS
+
+CREATE TABLE IF NOT EXISTS users (
+    id         BIGINT PRIMARY KEY,
+    email      VARCHAR,
+    -- Email normalizado (trim + minúsculas): clave de la unicidad y de las búsquedas por email
+    email_key  VARCHAR,
+    name       VARCHAR,
+    password   VARCHAR,
+    created_at TIMESTAMP(3) WITH TIME ZONE,
+    -- Nombre normalizado (trim + minúsculas) para search
+    name_key   VARCHAR GENERATED ALWAYS AS (LOWER(TRIM(name))),
+    -- Versión del usuario para ETag / If-Match; cambia en cada escritura
+    version    BIGINT NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS users_email_key ON users (email_key);
+-- Un índice por campo de ordenamiento, con el id como desempate (mismo orden que los cursores)
+CREATE INDEX IF NOT EXISTS users_email ON users (email, id);
+CREATE INDEX IF NOT EXISTS users_name ON users (name, id);
+CREATE INDEX IF NOT EXISTS users_created_at ON users (created_at, id);
+CREATE INDEX IF NOT EXISTS users_name_key ON users (name_key, id);
+
+CREATE TABLE IF NOT EXISTS addresses (
+    id           BIGINT PRIMARY KEY,
+    user_id      BIGINT NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    -- Posición dentro de la lista de direcciones del usuario
+    list_index   INT NOT NULL,
+    name         VARCHAR,
+    street       VARCHAR,
+    country_code VARCHAR,
+    -- País normalizado para el filtro country de GET /users
+    country_key  VARCHAR GENERATED ALWAYS AS (UPPER(TRIM(country_code)))
+);
+
+CREATE INDEX IF NOT EXISTS addresses_user ON addresses (user_id, list_index);
+CREATE INDEX IF NOT EXISTS addresses_country ON addresses (country_key, user_id);
+
+-- Continúan tras los datos de ejemplo (usuarios 123-125, direcciones 1-3)
+CREATE SEQUENCE IF NOT EXISTS user_id_seq START WITH 126;
+CREATE SEQUENCE IF NOT EXISTS address_id_seq START WITH 4;
@@ -0,0 +1,49 @@
+package com.chakray.usersapi.config;
+
+import com.chakray.usersapi.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "users.cache.enabled=true")
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+@DirtiesContext
+class MetricsConfigTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void testPrometheusEndpointExposesTimersAndGauges() throws Exception {
+        userService.findUserById(123L);
+        userService.deleteUser(125L);
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                // Timers del servicio y del repositorio, con buckets para calcular percentiles
+                .andExpect(content().string(containsString("users_service_seconds_count{class=\"com.chakray.usersapi.service.UserService\",exception=\"none\",method=\"findUserById\"} 1")))
+                .andExpect(content().string(containsString("users_repository_seconds_bucket{class=\"com.chakray.usersapi.repository.InMemoryUserRepository\",exception=\"none\",method=\"deleteById\"")))
+                // Gauges de tamaño evaluados tras el borrado
+                .andExpect(content().string(containsString("users_count 2.0")))
+                .andExpect(content().string(containsString("users_addresses_count 3.0")))
+                .andExpect(content().string(containsString("users_index_size{index=\"sorted_email\"} 2.0")))
+                .andExpect(content().string(containsString("users_heap_estimated_bytes")))
+                .andExpect(content().string(containsString("users_repository_lock_acquisitions_total")))
+                // Caché de lectura: la primera consulta por id es un fallo
+                .andExpect(content().string(containsString("cache_gets_total{cache=\"users\",result=\"miss\"} 1.0")))
+                .andExpect(content().string(containsString("cache_evictions_total{cache=\"users\"}")));
+    }
+}
@@ -0,0 +1,165 @@
+package com.chakray.usersapi.controller;
+
+import com.chakray.usersapi.model.BulkImportResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.netty.NettyWebServer;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// La aplicación completa sobre WebFlux y Netty, con el repositorio en memoria y sus usuarios semilla
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+class ReactiveUserControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void testReactiveStackReplacesMvcController() {
+        assertEquals(1, context.getBeansOfType(ReactiveUserController.class).size());
+        assertTrue(context.getBeansOfType(UserController.class).isEmpty());
+        assertInstanceOf(NettyWebServer.class, ((ReactiveWebServerApplicationContext) context).getWebServer(),
+                "Con Tomcat también en el classpath, la pila reactiva debe arrancar sobre Netty");
+    }
+
+    @Test
+    void testGetUser_ETagAndNotModified() {
+        String etag = webTestClient.get().uri("/users/124")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.email").isEqualTo("user2@mail.com")
+                .jsonPath("$.password").doesNotExist()
+                .returnResult()
+                .getResponseHeaders().getETag();
+        assertNotNull(etag);
+
+        webTestClient.get().uri("/users/124").header("If-None-Match", etag)
+                .exchange()
+                .expectStatus().isNotModified();
+        webTestClient.get().uri("/users/999")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void testGetAllUsers_PageWithCursorAndProjection() {
+        webTestClient.get().uri("/users?limit=1&sortedBy=id&fields=id")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(UserController.NEXT_CURSOR_HEADER)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].id").isEqualTo(123)
+                .jsonPath("$[0].email").doesNotExist();
+        webTestClient.get().uri("/users?fields=nope")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void testExports_StreamEveryUser() throws Exception {
+        String ndjson = webTestClient.get().uri("/users/export")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.parseMediaType(UserController.NDJSON))
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+        List<Long> ids = new ArrayList<>();
+        for (String line : ndjson.split("\n")) {
+            ids.add(objectMapper.readTree(line).path("id").asLong());
+        }
+        assertEquals(ids.stream().sorted().toList(), ids, "La exportación NDJSON va en orden de id");
+        assertTrue(ids.containsAll(List.of(123L, 124L, 125L)));
+
+        byte[] array = webTestClient.get().uri("/users?export=true&sortedBy=email")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+        JsonNode users = objectMapper.readTree(array);
+        assertTrue(users.isArray());
+        assertEquals(ids.size(), users.size());
+        assertFalse(users.get(0).path("password").isTextual(), "La exportación no incluye contraseñas");
+    }
+
+    @Test
+    void testImportUsers_Ndjson() {
+        String body = """
+                {"email":"reactive1@mail.com","name":"reactive one","password":"secret"}
+
+                {not json
+                {"email":"USER1@mail.com","name":"dup","password":"secret"}
+                {"email":"reactive2@mail.com","name":"reactive two","password":"secret"}
+                """;
+
+        BulkImportResult result = webTestClient.post().uri("/users/bulk")
+                .contentType(MediaType.parseMediaType(UserController.NDJSON))
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BulkImportResult.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals(2, result.getCreated());
+        assertEquals(List.of(3L, 4L), result.getErrors().stream().map(BulkImportResult.LineError::getLine).toList());
+        webTestClient.get().uri("/users?email=reactive2@mail.com")
+                .exchange()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("reactive two");
+    }
+
+    @Test
+    void testUpdates_IfMatchAndBatch() {
+        String etag = webTestClient.get().uri("/users/125")
+                .exchange()
+                .expectBody().returnResult()
+                .getResponseHeaders().getETag();
+
+        webTestClient.patch().uri("/users/125").header("If-Match", "\"0\"")
+                .bodyValue(Map.of("name", "stale"))
+                .exchange()
+                .expectStatus().isEqualTo(412);
+        String updated = webTestClient.patch().uri("/users/125").header("If-Match", etag)
+                .bodyValue(Map.of("name", "fresh"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("fresh")
+                .returnResult()
+                .getResponseHeaders().getETag();
+        assertNotEquals(etag, updated);
+
+        webTestClient.patch().uri("/users")
+                .bodyValue(List.of(Map.of("userId", 125, "name", "batched"), Map.of("userId", 999, "name", "ghost")))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.applied").isEqualTo(1)
+                .jsonPath("$.results[1].status").isEqualTo(404);
+        webTestClient.delete().uri("/users/999")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+}
@@ -1,8 +1,17 @@
 package com.chakray.usersapi.controller;
 
 import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.exception.DuplicateEmailException;
+import com.chakray.usersapi.exception.InvalidCursorException;
+import com.chakray.usersapi.exception.VersionMismatchException;
+import com.chakray.usersapi.repository.UserRepository;
+import com.chakray.usersapi.repository.Versioned;
+import com.chakray.usersapi.model.BatchPatchResult;
 import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPage;
+import com.chakray.usersapi.model.UserPatch;
 import com.chakray.usersapi.service.UserService;
+import com.chakray.usersapi.util.CreatedAtFormat;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,13 +20,21 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -41,7 +58,7 @@ class UserControllerTest {
     void setUp() {
         address1 = new Address(1L, "workaddress", "street No. 1", "UK");
         // El usuario que el servicio retornaría al controlador (sin password)
-        user1 = new User(123L, "user1@mail.com", "user1", null, "01-01-2024 00:00:00", Arrays.asList(address1));
+        user1 = new User(123L, "user1@mail.com", "user1", null, CreatedAtFormat.parse("01-01-2024 00:00:00"), Arrays.asList(address1));
     }
 
     @Test
@@ -57,7 +74,7 @@ class UserControllerTest {
 
     @Test
     void testGetAllUsers_SortedByEmail() throws Exception {
-        User user2 = new User(124L, "auser@mail.com", "auser", null, "01-01-2024 00:00:00", null);
+        User user2 = new User(124L, "auser@mail.com", "auser", null, CreatedAtFormat.parse("01-01-2024 00:00:00"), null);
         List<User> sortedUsers = Arrays.asList(user2, user1);
 
         when(userService.findAllUsers(eq("email"))).thenReturn(sortedUsers);
@@ -68,6 +85,243 @@ class UserControllerTest {
                 .andExpect(jsonPath("$[1].email").value("user1@mail.com"));
     }
 
+    @Test
+    void testGetAllUsers_Paged() throws Exception {
+        when(userService.findUsersPage(eq("email"), eq(null), eq(1)))
+                .thenReturn(new UserPage(List.of(user1), "next-token"));
+
+        mockMvc.perform(get("/users?sortedBy=email&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "next-token"))
+                .andExpect(jsonPath("$[0].id").value(123L))
+                .andExpect(jsonPath("$[0].password").doesNotExist());
+    }
+
+    @Test
+    void testGetAllUsers_LastPageHasNoCursor() throws Exception {
+        when(userService.findUsersPage(eq(null), eq("token"), eq(10)))
+                .thenReturn(new UserPage(List.of(user1), null));
+
+        mockMvc.perform(get("/users?limit=10&cursor=token"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void testGetAllUsers_InvalidLimit() throws Exception {
+        mockMvc.perform(get("/users?limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetAllUsers_InvalidCursor() throws Exception {
+        when(userService.findUsersPage(eq(null), eq("bad"), eq(10)))
+                .thenThrow(new InvalidCursorException("Cursor mal formado"));
+
+        mockMvc.perform(get("/users?limit=10&cursor=bad"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testExportUsers_StreamsJsonArray() throws Exception {
+        User user2 = new User(124L, "user2@mail.com", "user2", null, CreatedAtFormat.parse("01-01-2024 00:00:00"), null);
+        when(userService.streamAllUsers(null)).thenReturn(Stream.of(user1, user2));
+
+        MvcResult result = mockMvc.perform(get("/users?export=true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].id").value(124L))
+                .andExpect(jsonPath("$[0].password").doesNotExist());
+    }
+
+    @Test
+    void testExportUsers_Ndjson() throws Exception {
+        User user2 = new User(124L, "user2@mail.com", "user2", null, CreatedAtFormat.parse("01-01-2024 00:00:00"), null);
+        when(userService.streamAllUsers(null)).thenReturn(Stream.of(user1, user2));
+
+        MvcResult result = mockMvc.perform(get("/users/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(UserController.NDJSON))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(124L, objectMapper.readValue(lines[1], User.class).getId());
+    }
+
+    @Test
+    void testImportUsers_ReportsRejectedLines() throws Exception {
+        when(userService.createUsers(any(), any())).thenAnswer(invocation -> {
+            List<User> batch = invocation.getArgument(0);
+            ObjIntConsumer<RuntimeException> rejected = invocation.getArgument(1);
+            assertEquals(2, batch.size());
+            rejected.accept(new DuplicateEmailException(batch.get(1).getEmail()), 1);
+            return List.of(user1);
+        });
+        String body = "{\"email\":\"a@mail.com\",\"name\":\"a\",\"password\":\"p\"}\n"
+                + "not json\n"
+                + "\n"
+                + "{\"email\":\"user1@mail.com\",\"name\":\"b\",\"password\":\"p\"}\n";
+
+        mockMvc.perform(post("/users/bulk")
+                        .contentType(UserController.NDJSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.errors.length()").value(2))
+                .andExpect(jsonPath("$.errors[0].line").value(2))
+                .andExpect(jsonPath("$.errors[1].line").value(4));
+    }
+
+    @Test
+    void testGetAllUsers_CreatedAtFormatted() throws Exception {
+        when(userService.findAllUsers(null)).thenReturn(List.of(user1));
+
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].createdAt").value("01-01-2024 00:00:00"));
+    }
+
+    @Test
+    void testGetAllUsers_CreatedRange() throws Exception {
+        Instant from = Instant.parse("2024-01-01T00:00:00Z");
+        Instant to = Instant.parse("2024-02-01T00:00:00Z");
+        when(userService.findUsersCreatedBetween(from, to)).thenReturn(List.of(user1));
+
+        mockMvc.perform(get("/users?createdAfter=2024-01-01T00:00:00Z&createdBefore=2024-02-01T00:00:00Z"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(123L));
+    }
+
+    @Test
+    void testGetAllUsers_CreatedRangePaged() throws Exception {
+        Instant from = Instant.parse("2024-01-01T00:00:00Z");
+        when(userService.findUsersCreatedBetweenPage(eq(from), eq(null), eq(null), eq(1)))
+                .thenReturn(new UserPage(List.of(user1), "next-token"));
+
+        mockMvc.perform(get("/users?createdAfter=2024-01-01T00:00:00Z&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "next-token"));
+    }
+
+    @Test
+    void testGetAllUsers_CreatedRangeRejectsOtherSort() throws Exception {
+        mockMvc.perform(get("/users?createdAfter=2024-01-01T00:00:00Z&sortedBy=name"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetUsersByEmail() throws Exception {
+        when(userService.findUserByEmail("user1@mail.com")).thenReturn(Optional.of(user1));
+
+        mockMvc.perform(get("/users?email=user1@mail.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(123L));
+    }
+
+    @Test
+    void testGetUsersByEmail_NotFound() throws Exception {
+        when(userService.findUserByEmail("nobody@mail.com")).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/users?email=nobody@mail.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void testGetAllUsers_Fields() throws Exception {
+        when(userService.findAllUsers(null)).thenReturn(List.of(user1));
+
+        mockMvc.perform(get("/users?fields=id,email"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\":123,\"email\":\"user1@mail.com\"}]", true));
+        mockMvc.perform(get("/users?fields=id,addresses.countryCode"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\":123,\"addresses\":[{\"countryCode\":\"UK\"}]}]", true));
+    }
+
+    @Test
+    void testGetAllUsers_UnknownFieldRejectedBeforeLoading() throws Exception {
+        mockMvc.perform(get("/users?fields=id,password"))
+                .andExpect(status().isBadRequest());
+        verify(userService, times(0)).findAllUsers(any());
+    }
+
+    @Test
+    void testGetUsersByEmail_Fields() throws Exception {
+        when(userService.findUserByEmail("user1@mail.com")).thenReturn(Optional.of(user1));
+
+        mockMvc.perform(get("/users?email=user1@mail.com&fields=name"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"name\":\"user1\"}]", true));
+    }
+
+    @Test
+    void testGetUser_Fields() throws Exception {
+        when(userService.findUserVersion(123L)).thenReturn(OptionalLong.of(7L));
+        when(userService.findUserById(123L)).thenReturn(Optional.of(user1));
+
+        mockMvc.perform(get("/users/123?fields=email,createdAt"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"7\""))
+                .andExpect(content().json("{\"email\":\"user1@mail.com\",\"createdAt\":\"01-01-2024 00:00:00\"}", true));
+        mockMvc.perform(get("/users/123"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("user1"))
+                .andExpect(jsonPath("$.addresses[0].street").value("street No. 1"));
+    }
+
+    @Test
+    void testGetAllUsers_ByCountry() throws Exception {
+        when(userService.findUsersByCountry("UK", "name")).thenReturn(List.of(user1));
+        when(userService.findUsersByCountryPage("UK", null, null, 10)).thenReturn(new UserPage(List.of(user1), "next"));
+
+        mockMvc.perform(get("/users?country=UK&sortedBy=name"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(123L));
+        mockMvc.perform(get("/users?country=UK&limit=10"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "next"));
+        mockMvc.perform(get("/users?country=UK&createdAfter=2024-01-01T00:00:00Z"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSearchUsers() throws Exception {
+        when(userService.searchUsers("user", 20)).thenReturn(List.of(user1));
+
+        mockMvc.perform(get("/users/search?q=user&fields=id,name"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\":123,\"name\":\"user1\"}]", true));
+    }
+
+    @Test
+    void testSearchUsers_InvalidParameters() throws Exception {
+        mockMvc.perform(get("/users/search"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users/search?q=user&limit=0"))
+                .andExpect(status().isBadRequest());
+        verify(userService, times(0)).searchUsers(any(), eq(20));
+    }
+
+    @Test
+    void testGetUser_NotFound() throws Exception {
+        when(userService.findUserVersion(999L)).thenReturn(OptionalLong.empty());
+        when(userService.findUserById(999L)).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/users/999"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void testGetUserAddresses_Found() throws Exception {
         when(userService.findAddressesByUserId(123L)).thenReturn(Optional.of(Arrays.asList(address1)));
@@ -91,8 +345,8 @@ class UserControllerTest {
         Address updatedAddressDetails = new Address(null, "New Work Name", "New Street", "US");
         Address returnedAddress = new Address(1L, "New Work Name", "New Street", "US");
 
-        when(userService.updateAddress(eq(123L), eq(1L), any(Address.class)))
-                .thenReturn(Optional.of(returnedAddress));
+        when(userService.updateAddress(eq(123L), eq(1L), any(Address.class), eq(UserRepository.ANY_VERSION)))
+                .thenReturn(Optional.of(new Versioned<>(returnedAddress, 8L)));
 
         mockMvc.perform(put("/users/123/addresses/1")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -107,7 +361,7 @@ class UserControllerTest {
     void testUpdateAddress_NotFound() throws Exception {
         Address updatedAddressDetails = new Address(null, "New Name", "New Street", "US");
 
-        when(userService.updateAddress(eq(123L), eq(99L), any(Address.class)))
+        when(userService.updateAddress(eq(123L), eq(99L), any(Address.class), eq(UserRepository.ANY_VERSION)))
                 .thenReturn(Optional.empty());
 
         mockMvc.perform(put("/users/123/addresses/99")
@@ -119,7 +373,7 @@ class UserControllerTest {
     @Test
     void testCreateUser_Success() throws Exception {
         User newUserRequest = new User(null, "new@mail.com", "New User", "rawpass", null, null);
-        User createdUserResponse = new User(456L, "new@mail.com", "New User", null, "02-01-2024 12:00:00", null);
+        User createdUserResponse = new User(456L, "new@mail.com", "New User", null, CreatedAtFormat.parse("02-01-2024 12:00:00"), null);
 
         when(userService.createUser(any(User.class))).thenReturn(createdUserResponse);
 
@@ -132,14 +386,26 @@ class UserControllerTest {
                 .andExpect(jsonPath("$.password").doesNotExist());
     }
 
+    @Test
+    void testCreateUser_DuplicateEmail() throws Exception {
+        User newUserRequest = new User(null, "user1@mail.com", "Dup", "rawpass", null, null);
+        when(userService.createUser(any(User.class))).thenThrow(new DuplicateEmailException("user1@mail.com"));
+
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(newUserRequest)))
+                .andExpect(status().isConflict());
+    }
+
     @Test
     void testUpdateUser_Success() throws Exception {
         User updates = new User();
         updates.setName("Updated Name");
         updates.setEmail("user1.new@mail.com");
-        User updatedUserResponse = new User(123L, "user1.new@mail.com", "Updated Name", null, "01-01-2024 00:00:00", null);
+        User updatedUserResponse = new User(123L, "user1.new@mail.com", "Updated Name", null, CreatedAtFormat.parse("01-01-2024 00:00:00"), null);
 
-        when(userService.updateUser(eq(123L), any(User.class))).thenReturn(Optional.of(updatedUserResponse));
+        when(userService.updateUser(eq(123L), any(User.class), eq(UserRepository.ANY_VERSION)))
+                .thenReturn(Optional.of(new Versioned<>(updatedUserResponse, 8L)));
 
         mockMvc.perform(patch("/users/123")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -155,7 +421,7 @@ class UserControllerTest {
         User updates = new User();
         updates.setName("Non Existent");
 
-        when(userService.updateUser(eq(999L), any(User.class))).thenReturn(Optional.empty());
+        when(userService.updateUser(eq(999L), any(User.class), eq(UserRepository.ANY_VERSION))).thenReturn(Optional.empty());
 
         mockMvc.perform(patch("/users/999")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -163,6 +429,103 @@ class UserControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testPatchUsers_Batch() throws Exception {
+        List<UserPatch> patches = List.of(
+                new UserPatch(123L, null, null, null, "Renamed", null, null, null),
+                new UserPatch(123L, 1L, null, null, null, null, null, "PT"),
+                new UserPatch(999L, null, null, null, "Ghost", null, null, null));
+        when(userService.patchUsers(any())).thenReturn(new BatchPatchResult(2, List.of(
+                new BatchPatchResult.Item(200, 8L, null),
+                new BatchPatchResult.Item(200, 8L, null),
+                new BatchPatchResult.Item(404, null, null))));
+
+        mockMvc.perform(patch("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(patches)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.applied").value(2))
+                .andExpect(jsonPath("$.results[1].version").value(8))
+                .andExpect(jsonPath("$.results[2].status").value(404))
+                .andExpect(jsonPath("$.results[2].version").doesNotExist())
+                .andExpect(jsonPath("$.results[2].error").doesNotExist());
+        verify(userService).patchUsers(patches);
+    }
+
+    @Test
+    void testGetAllUsers_NotModifiedSkipsLoading() throws Exception {
+        when(userService.getUsersVersion()).thenReturn(41L);
+        when(userService.findAllUsers(null)).thenReturn(List.of(user1));
+
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"41\""));
+        mockMvc.perform(get("/users").header("If-None-Match", "\"41\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"41\""))
+                .andExpect(content().string(""));
+        verify(userService, times(1)).findAllUsers(null);
+
+        // Tras una mutación la versión global cambia y el ETag anterior deja de valer
+        when(userService.getUsersVersion()).thenReturn(42L);
+        mockMvc.perform(get("/users").header("If-None-Match", "\"41\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"42\""));
+    }
+
+    @Test
+    void testGetUserAddresses_NotModifiedSkipsLoading() throws Exception {
+        when(userService.findUserVersion(123L)).thenReturn(OptionalLong.of(7L));
+        when(userService.findAddressesByUserId(123L)).thenReturn(Optional.of(List.of(address1)));
+
+        mockMvc.perform(get("/users/123/addresses"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"7\""));
+        mockMvc.perform(get("/users/123/addresses").header("If-None-Match", "\"3\", \"7\""))
+                .andExpect(status().isNotModified());
+        verify(userService, times(1)).findAddressesByUserId(123L);
+    }
+
+    @Test
+    void testUpdateUser_IfMatch() throws Exception {
+        User updates = new User();
+        updates.setName("Updated Name");
+        User updatedUserResponse = new User(123L, "user1@mail.com", "Updated Name", null, CreatedAtFormat.parse("01-01-2024 00:00:00"), null);
+        when(userService.updateUser(eq(123L), any(User.class), eq(7L)))
+                .thenReturn(Optional.of(new Versioned<>(updatedUserResponse, 8L)));
+        when(userService.updateUser(eq(123L), any(User.class), eq(6L)))
+                .thenThrow(new VersionMismatchException(123L, 7L));
+
+        mockMvc.perform(patch("/users/123").header("If-Match", "\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updates)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"8\""));
+        mockMvc.perform(patch("/users/123").header("If-Match", "\"6\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updates)))
+                .andExpect(status().isPreconditionFailed());
+        // Un ETag débil nunca coincide en If-Match
+        mockMvc.perform(patch("/users/123").header("If-Match", "W/\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updates)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void testUpdateAddress_IfMatch() throws Exception {
+        Address changes = new Address(null, null, null, "PT");
+        when(userService.updateAddress(eq(123L), eq(1L), any(Address.class), eq(7L)))
+                .thenReturn(Optional.of(new Versioned<>(new Address(1L, "workaddress", "street No. 1", "PT"), 8L)));
+
+        mockMvc.perform(put("/users/123/addresses/1").header("If-Match", "\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(changes)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"8\""))
+                .andExpect(jsonPath("$.countryCode").value("PT"));
+    }
+
     @Test
     void testDeleteUser_Success() throws Exception {
         when(userService.deleteUser(123L)).thenReturn(true);
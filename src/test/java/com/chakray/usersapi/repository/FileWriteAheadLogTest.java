@@ -0,0 +1,351 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.exception.DuplicateEmailException;
+import com.chakray.usersapi.exception.StorageUnavailableException;
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.chakray.usersapi.util.Sha1PasswordHashAlgorithm;
+import com.chakray.usersapi.util.CreatedAtFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileWriteAheadLogTest {
+
+    private static final PasswordHashingEngine HASHING =
+            new PasswordHashingEngine(new Sha1PasswordHashAlgorithm(), Runtime.getRuntime().availableProcessors(), 1024);
+
+    @TempDir
+    Path directory;
+
+    private FileWriteAheadLog open(FsyncPolicy policy) {
+        return new FileWriteAheadLog(directory, policy, Duration.ofMillis(5), 64, new ObjectMapper());
+    }
+
+    private List<WalRecord> replayAll() {
+        List<WalRecord> records = new ArrayList<>();
+        try (FileWriteAheadLog wal = open(FsyncPolicy.NONE)) {
+            wal.replay(0, (record, lsn) -> records.add(record));
+        }
+        return records;
+    }
+
+    @Test
+    void testAppendAndReplay() {
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            wal.replay(0, (record, lsn) -> fail("Un WAL nuevo no debería tener registros"));
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+            for (long id = 1; id <= 100; id++) {
+                User user = new User(id, "user" + id + "@mail.com", "user" + id, "hash", CreatedAtFormat.parse("01-01-2024 00:00:00"), new ArrayList<>());
+                pending.add(wal.append(new WalRecord(WalRecord.Type.SAVE, id, user)));
+            }
+            pending.add(wal.append(new WalRecord(WalRecord.Type.DELETE, 7L, null)));
+            pending.forEach(CompletableFuture::join);
+        }
+
+        List<WalRecord> records = replayAll();
+        assertEquals(101, records.size(), "Deberían recuperarse todos los registros confirmados");
+        assertEquals("user42@mail.com", records.get(41).user().getEmail());
+        assertEquals(WalRecord.Type.DELETE, records.get(100).type());
+        assertEquals(7L, records.get(100).userId());
+    }
+
+    @Test
+    void testCreatedAtKeepsMillisecondPrecision() {
+        // 1:30 del cambio de hora de otoño en Londres: ambigua en el formato local de la API
+        Instant createdAt = Instant.parse("2024-10-27T01:30:00.123Z");
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            wal.replay(0, (record, lsn) -> { });
+            User user = new User(1L, "a@mail.com", "a", "hash", createdAt, new ArrayList<>());
+            wal.append(new WalRecord(WalRecord.Type.SAVE, 1L, user)).join();
+        }
+
+        assertEquals(createdAt, replayAll().get(0).user().getCreatedAt());
+    }
+
+    @Test
+    void testReplayDiscardsTornTail() throws IOException {
+        try (FileWriteAheadLog wal = open(FsyncPolicy.INTERVAL)) {
+            wal.replay(0, (record, lsn) -> { });
+            wal.append(new WalRecord(WalRecord.Type.DELETE, 1L, null)).join();
+            wal.append(new WalRecord(WalRecord.Type.DELETE, 2L, null)).join();
+        }
+        Path segment;
+        try (var files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        // Simula una caída a mitad de escritura del último registro
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        List<WalRecord> records = replayAll();
+        assertEquals(1, records.size(), "El registro incompleto debería descartarse");
+
+        // Tras truncar la cola se puede seguir escribiendo y recuperando con normalidad
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            wal.replay(0, (record, lsn) -> { });
+            wal.append(new WalRecord(WalRecord.Type.DELETE, 3L, null)).join();
+        }
+        assertEquals(List.of(1L, 3L), replayAll().stream().map(WalRecord::userId).toList());
+    }
+
+    @Test
+    void testReplayFailsWhenSegmentsAreMissing() throws IOException {
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            wal.replay(0, (record, lsn) -> { });
+            wal.append(new WalRecord(WalRecord.Type.DELETE, 1L, null)).join();
+            wal.rollover();
+            wal.append(new WalRecord(WalRecord.Type.DELETE, 2L, null)).join();
+        }
+        try (var files = Files.list(directory)) {
+            Files.delete(files.sorted().findFirst().orElseThrow());
+        }
+
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            assertThrows(IllegalStateException.class, () -> wal.replay(1, (record, lsn) -> { }),
+                    "Sin el segmento del LSN 1 no se puede reconstruir el estado");
+        }
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            List<Long> replayed = new ArrayList<>();
+            wal.replay(2, (record, lsn) -> replayed.add(record.userId()));
+            assertEquals(List.of(2L), replayed, "Desde un snapshot en el LSN 2 el WAL está completo");
+        }
+    }
+
+    @Test
+    void testRepositoryRecoversStateAfterRestart() {
+        Long newId;
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+
+            User newUser = new User();
+            newUser.setEmail("durable@mail.com");
+            newUser.setName("durable");
+            newUser.setPassword("pass");
+            newUser.setAddresses(new ArrayList<>(List.of(new Address(null, "home", "home street", "FR"))));
+            newId = repository.save(newUser).getId();
+
+            User updates = new User();
+            updates.setName("renamed");
+            repository.update(123L, updates);
+            repository.updateAddress(124L, 3L, new Address(null, null, null, "PT"));
+            repository.deleteById(125L);
+        }
+
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+
+            assertEquals(3, repository.findAll().size(), "Deberían quedar 2 usuarios iniciales y el nuevo");
+            assertEquals("renamed", repository.findById(123L).orElseThrow().getName());
+            assertEquals("PT", repository.findAddressById(124L, 3L).orElseThrow().getCountryCode());
+            assertFalse(repository.findById(125L).isPresent(), "El borrado debería sobrevivir al reinicio");
+            assertEquals(newId, repository.findByEmail("durable@mail.com").orElseThrow().getId());
+
+            // Los contadores continúan después de los ids recuperados
+            User another = new User();
+            another.setEmail("another@mail.com");
+            another.setPassword("pass");
+            assertEquals(newId + 1, repository.save(another).getId());
+            assertEquals(5L, repository.generateNewAddressId());
+        }
+    }
+
+    @Test
+    void testAppendRacingCloseNeverLeavesFuturesPending() throws Exception {
+        for (int round = 0; round < 10; round++) {
+            List<CompletableFuture<Void>> pending = new CopyOnWriteArrayList<>();
+            FileWriteAheadLog wal = open(FsyncPolicy.NONE);
+            wal.replay(0, (record, lsn) -> { });
+            try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+                Future<?> appender = executor.submit(() -> {
+                    try {
+                        for (long id = 1; id <= 10_000; id++) {
+                            pending.add(wal.append(new WalRecord(WalRecord.Type.DELETE, id, null)));
+                        }
+                    } catch (IllegalStateException e) {
+                        // Cerrado a mitad del bucle: el resto de appends se rechazan
+                    }
+                });
+                wal.close();
+                appender.get();
+            }
+            // Cada registro aceptado se escribe o falla, nunca se queda esperando
+            for (CompletableFuture<Void> future : pending) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertInstanceOf(IllegalStateException.class, e.getCause());
+                } catch (TimeoutException e) {
+                    fail("Un append aceptado se quedó sin completar tras close()");
+                }
+            }
+        }
+    }
+
+    @Test
+    void testAppendAfterWriterStopsFailsInsteadOfHanging() throws Exception {
+        try (FileWriteAheadLog wal = open(FsyncPolicy.NONE)) {
+            wal.replay(0, (record, lsn) -> { });
+            Thread writer = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().equals("users-wal-writer"))
+                    .findFirst()
+                    .orElseThrow();
+            writer.interrupt();
+            writer.join(5_000);
+            assertFalse(writer.isAlive());
+
+            assertThrows(IllegalStateException.class, () -> wal.append(new WalRecord(WalRecord.Type.DELETE, 1L, null)),
+                    "Sin hilo escritor el registro nunca se escribiría");
+            assertThrows(IllegalStateException.class, wal::rollover);
+        }
+    }
+
+    @Test
+    void testRepositoryRejectsWritesOnceWalFails() {
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+            wal.close();
+
+            User newUser = new User();
+            newUser.setEmail("unlogged@mail.com");
+            newUser.setPassword("pass");
+            assertThrows(StorageUnavailableException.class, () -> repository.save(newUser));
+            assertFalse(repository.findByEmail("unlogged@mail.com").isPresent(), "Sin registro en el WAL no se publica");
+            assertEquals(3, repository.findAll().size());
+            assertEquals(3, repository.getEmailIndexSize());
+
+            User updates = new User();
+            updates.setName("unlogged");
+            assertThrows(StorageUnavailableException.class, () -> repository.update(123L, updates));
+            assertThrows(StorageUnavailableException.class, () -> repository.deleteById(124L));
+            assertEquals("user1", repository.findById(123L).orElseThrow().getName());
+        }
+    }
+
+    @Test
+    void testReplayToleratesEmailMovingBetweenUsers() {
+        // Orden posible en el log: 125 toma el email de 124 antes de que se registre que 124 lo liberó
+        Instant createdAt = CreatedAtFormat.parse("01-01-2024 00:00:00");
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            wal.replay(0, (record, lsn) -> { });
+            wal.append(new WalRecord(WalRecord.Type.SAVE, 124L, new User(124L, "x@mail.com", "b", "hash", createdAt, List.of())));
+            wal.append(new WalRecord(WalRecord.Type.SAVE, 125L, new User(125L, "z@mail.com", "a", "hash", createdAt, List.of())));
+            wal.append(new WalRecord(WalRecord.Type.UPDATE, 125L, new User(125L, "x@mail.com", "a", "hash", createdAt, List.of())));
+            wal.append(new WalRecord(WalRecord.Type.UPDATE, 124L, new User(124L, "y@mail.com", "b", "hash", createdAt, List.of()))).join();
+        }
+
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+
+            assertEquals(125L, repository.findByEmail("x@mail.com").orElseThrow().getId());
+            assertEquals(124L, repository.findByEmail("y@mail.com").orElseThrow().getId());
+            assertFalse(repository.findByEmail("z@mail.com").isPresent());
+            assertEquals(2, repository.getEmailIndexSize());
+        }
+    }
+
+    @Test
+    void testRepositoryRecoversAfterConcurrentEmailSwaps() throws Exception {
+        String email124;
+        String email125;
+        try (FileWriteAheadLog wal = open(FsyncPolicy.NONE)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+
+            // 124 suelta y recupera su email mientras 125 intenta quedárselo en cuanto queda libre
+            try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+                Future<?> first = executor.submit(() -> swapEmails(repository, 124L, "moved@mail.com", "user2@mail.com"));
+                Future<?> second = executor.submit(() -> swapEmails(repository, 125L, "user2@mail.com", "user3@mail.com"));
+                first.get();
+                second.get();
+            }
+            email124 = repository.findById(124L).orElseThrow().getEmail();
+            email125 = repository.findById(125L).orElseThrow().getEmail();
+        }
+
+        try (FileWriteAheadLog wal = open(FsyncPolicy.NONE)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+
+            assertEquals(email124, repository.findById(124L).orElseThrow().getEmail());
+            assertEquals(email125, repository.findById(125L).orElseThrow().getEmail());
+            assertEquals(124L, repository.findByEmail(email124).orElseThrow().getId());
+            assertEquals(125L, repository.findByEmail(email125).orElseThrow().getId());
+            assertEquals(3, repository.getEmailIndexSize());
+        }
+    }
+
+    private static void swapEmails(InMemoryUserRepository repository, Long id, String... emails) {
+        for (int i = 0; i < 500; i++) {
+            User updates = new User();
+            updates.setEmail(emails[i % emails.length]);
+            try {
+                repository.update(id, updates);
+            } catch (DuplicateEmailException e) {
+                // El otro hilo tiene el email en este momento; se sigue con el siguiente
+            }
+        }
+    }
+
+    @Test
+    void testDurableWritesOnVirtualThreadsDoNotPin() throws Exception {
+        try (FileWriteAheadLog wal = open(FsyncPolicy.ALWAYS);
+             RecordingStream events = new RecordingStream()) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.empty(), HASHING);
+            repository.init();
+            List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+            events.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            events.onEvent("jdk.VirtualThreadPinned", pinned::add);
+            events.startAsync();
+
+            // Cada escritura espera al fsync del WAL: el hilo virtual debe aparcarse liberando su portador
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < 64; i++) {
+                    int n = i;
+                    executor.submit(() -> {
+                        User user = new User();
+                        user.setEmail("virtual" + n + "@mail.com");
+                        user.setPassword("pass");
+                        repository.save(user);
+                        User updates = new User();
+                        updates.setName("virtual " + n);
+                        repository.update(123L, updates);
+                    });
+                }
+            }
+            events.stop();
+
+            assertEquals(67, repository.findAll().size());
+            assertTrue(pinned.isEmpty(), () -> "Hilos virtuales fijados a su portador: " + pinned);
+        }
+    }
+}
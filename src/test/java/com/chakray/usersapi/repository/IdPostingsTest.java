@@ -0,0 +1,67 @@
+package com.chakray.usersapi.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdPostingsTest {
+
+    @Test
+    void testPostings_StayOrderedAcrossSparseAndBitmapBlocks() {
+        IdPostings postings = new IdPostings();
+        // Bloque 0 pasa a bitmap (más de 4096 ids), el bloque 1 sigue como lista
+        long[] ids = LongStream.concat(LongStream.range(0, 5000).map(i -> i * 13), LongStream.of(65_536 + 7, 65_536 + 3))
+                .toArray();
+        for (long id : ids) {
+            assertTrue(postings.add(id));
+        }
+        assertFalse(postings.add(13), "Un id repetido no se cuenta dos veces");
+        assertTrue(postings.remove(13));
+        assertTrue(postings.remove(65_536 + 7));
+        assertFalse(postings.remove(65_536 + 7));
+
+        long[] expected = LongStream.of(ids).filter(id -> id != 13 && id != 65_536 + 7).sorted().toArray();
+        assertArrayEquals(expected, postings.ids().toArray());
+        assertEquals(expected.length, postings.size());
+    }
+
+    @Test
+    void testPostings_ConcurrentAddsAndRemoves() throws InterruptedException {
+        IdPostings postings = new IdPostings();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            long offset = thread;
+            executor.submit(() -> {
+                for (long id = offset; id < 40_000; id += 8) {
+                    postings.add(id);
+                    if (id % 2 == 1) {
+                        postings.remove(id);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertArrayEquals(LongStream.range(0, 40_000).filter(id -> id % 2 == 0).toArray(), postings.ids().toArray());
+        assertEquals(20_000, postings.size());
+    }
+
+    @Test
+    void testIds_SeeksToFirstIdAtOrAfter() {
+        IdPostings postings = new IdPostings();
+        LongStream.of(5, 9, 70_000, 70_010, 200_000).forEach(postings::add);
+        // Un bloque pasa a bitmap para cubrir también la búsqueda del primer bit
+        LongStream.range(131_072, 131_072 + 5000).forEach(postings::add);
+
+        assertArrayEquals(new long[]{9, 70_000}, postings.ids(6).limit(2).toArray());
+        assertArrayEquals(new long[]{70_010, 131_072}, postings.ids(70_001).limit(2).toArray());
+        assertArrayEquals(new long[]{131_072 + 4999, 200_000}, postings.ids(131_072 + 4999).toArray());
+        assertEquals(0, postings.ids(200_001).count());
+    }
+}
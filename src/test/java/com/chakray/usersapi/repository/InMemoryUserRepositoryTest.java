@@ -1,15 +1,26 @@
 package com.chakray.usersapi.repository;
 
+import com.chakray.usersapi.exception.DuplicateEmailException;
+import com.chakray.usersapi.exception.InvalidCursorException;
+import com.chakray.usersapi.exception.VersionMismatchException;
 import com.chakray.usersapi.model.Address;
 import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.util.CreatedAtFormat;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -107,7 +118,7 @@ class InMemoryUserRepositoryTest {
         assertEquals("Updated User", updatedUser.get().getName(), "El nombre no se actualizó correctamente");
         assertNotNull(updatedUser.get().getPassword(), "La contraseña hasheada debería estar presente después de la actualización");
         assertNotEquals("newpass", updatedUser.get().getPassword(), "La nueva contraseña debería estar hasheada");
-        assertEquals("01-01-2024 00:00:00", updatedUser.get().getCreatedAt(), "La fecha de creación no debería cambiar en un update");
+        assertEquals(CreatedAtFormat.parse("01-01-2024 00:00:00"), updatedUser.get().getCreatedAt(), "La fecha de creación no debería cambiar en un update");
 
         Optional<User> fetchedUser = userRepository.findById(123L);
         assertTrue(fetchedUser.isPresent());
@@ -189,4 +200,479 @@ class InMemoryUserRepositoryTest {
         assertEquals(4L, id1, "El primer ID generado debería ser 4");
         assertEquals(5L, id2, "El segundo ID generado debería ser 5");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testConcurrentSavesAndUpdates() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 200; i++) {
+            int n = i;
+            executor.submit(() -> {
+                User user = new User();
+                user.setEmail("concurrent" + n + "@mail.com");
+                user.setName("concurrent" + n);
+                user.setPassword("pass" + n);
+                userRepository.save(user);
+
+                User updates = new User();
+                updates.setName("user1-" + n);
+                userRepository.update(123L, updates);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS), "Las escrituras concurrentes deberían terminar");
+
+        assertEquals(203, userRepository.findAll().size(), "Deberían existir los 3 usuarios iniciales más los 200 creados");
+        assertTrue(userRepository.findById(325L).isPresent(), "El último ID asignado debería ser 325");
+        assertTrue(userRepository.findById(123L).get().getName().startsWith("user1-"), "El usuario 123 debería reflejar alguna actualización");
+    }
+
+    @Test
+    void testFindAllSorted_ByEmailAfterUpdateAndDelete() {
+        User updates = new User();
+        updates.setEmail("zz@mail.com");
+        userRepository.update(123L, updates);
+
+        User newUser = new User();
+        newUser.setEmail("aa@mail.com");
+        newUser.setName("aa");
+        newUser.setPassword("pass");
+        Long newId = userRepository.save(newUser).getId();
+
+        userRepository.deleteById(124L);
+
+        List<Long> ids = userRepository.findAllSorted(SortField.EMAIL).stream().map(User::getId).toList();
+        assertEquals(List.of(newId, 125L, 123L), ids, "El índice por email debería reflejar altas, cambios y bajas");
+    }
+
+    @Test
+    void testFindAllSorted_ById() {
+        User newUser = new User();
+        newUser.setEmail("a@mail.com");
+        newUser.setName("a");
+        newUser.setPassword("pass");
+        userRepository.save(newUser);
+
+        List<Long> ids = userRepository.findAllSorted(SortField.ID).stream().map(User::getId).toList();
+        assertEquals(List.of(123L, 124L, 125L, 126L), ids, "El índice por id debería estar en orden ascendente");
+    }
+
+    @Test
+    void testStreamSorted_SeeksAfterCursor() {
+        User user2 = userRepository.findById(124L).orElseThrow();
+        PageCursor cursor = PageCursor.decode(PageCursor.after(SortField.EMAIL, user2).encode());
+
+        List<Long> ids = userRepository.streamSorted(SortField.EMAIL, cursor).map(User::getId).toList();
+        assertEquals(List.of(125L), ids, "Después de user2@mail.com solo debería quedar user3@mail.com");
+    }
+
+    @Test
+    void testStreamSorted_CursorFromOtherSortField() {
+        PageCursor cursor = PageCursor.after(SortField.NAME, userRepository.findById(123L).orElseThrow());
+        assertThrows(InvalidCursorException.class, () -> userRepository.streamSorted(SortField.EMAIL, cursor));
+    }
+
+    @Test
+    void testFindByEmail() {
+        Optional<User> user = userRepository.findByEmail("USER2@mail.com");
+        assertTrue(user.isPresent(), "La búsqueda por email no debería distinguir mayúsculas");
+        assertEquals(124L, user.get().getId());
+        assertFalse(userRepository.findByEmail("nobody@mail.com").isPresent());
+    }
+
+    @Test
+    void testSaveUser_DuplicateEmail() {
+        User duplicate = new User();
+        duplicate.setEmail("user1@mail.com");
+        duplicate.setName("dup");
+        duplicate.setPassword("pass");
+
+        assertThrows(DuplicateEmailException.class, () -> userRepository.save(duplicate));
+        assertEquals(3, userRepository.findAll().size(), "No se debería guardar un usuario con email repetido");
+    }
+
+    @Test
+    void testUpdateUser_EmailChangeMovesIndex() {
+        User updates = new User();
+        updates.setEmail("user1.new@mail.com");
+        userRepository.update(123L, updates);
+
+        assertFalse(userRepository.findByEmail("user1@mail.com").isPresent(), "El email anterior debería quedar libre");
+        assertEquals(123L, userRepository.findByEmail("user1.new@mail.com").orElseThrow().getId());
+
+        User taken = new User();
+        taken.setEmail("user2@mail.com");
+        taken.setName("should not apply");
+        assertThrows(DuplicateEmailException.class, () -> userRepository.update(123L, taken));
+        assertEquals("user1", userRepository.findById(123L).orElseThrow().getName(), "Un update rechazado no debería aplicar cambios");
+    }
+
+    @Test
+    void testSaveUser_ConcurrentDuplicateEmail() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger conflicts = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            executor.submit(() -> {
+                User user = new User();
+                user.setEmail("race@mail.com");
+                user.setName("race");
+                user.setPassword("pass");
+                try {
+                    userRepository.save(user);
+                } catch (DuplicateEmailException e) {
+                    conflicts.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(49, conflicts.get(), "Solo una de las altas concurrentes debería ganar el email");
+        assertEquals(4, userRepository.findAll().size());
+    }
+
+    @Test
+    void testFindAddressById_ChecksOwnership() {
+        assertEquals("beach street", userRepository.findAddressById(124L, 3L).orElseThrow().getStreet());
+        assertFalse(userRepository.findAddressById(123L, 3L).isPresent(), "La dirección 3 pertenece al usuario 124");
+    }
+
+    @Test
+    void testApplyPatches_PublishesOneVersion() {
+        long version = userRepository.findVersion(123L).orElseThrow();
+        long global = userRepository.getGlobalVersion();
+        List<UserPatch> patches = List.of(
+                new UserPatch(123L, null, null, "patched@mail.com", "patched", "newpass", null, null),
+                new UserPatch(123L, 2L, null, null, null, null, "patched street", "PT"),
+                new UserPatch(123L, 3L, null, null, null, null, null, "XX"));
+
+        Versioned<User> applied = userRepository.applyPatches(123L, patches, version).orElseThrow();
+
+        assertEquals(applied.version(), userRepository.findVersion(123L).orElseThrow());
+        assertEquals(global + 1, userRepository.getGlobalVersion(), "Todo el grupo es una sola mutación");
+        User user = userRepository.findById(123L).orElseThrow();
+        assertEquals("patched", user.getName());
+        assertNotEquals(applied.value().getPassword(), "newpass", "La contraseña se guarda hasheada");
+        assertEquals(List.of("UK", "PT"), user.getAddresses().stream().map(Address::getCountryCode).toList());
+        assertEquals("ES", userRepository.findAddressById(124L, 3L).orElseThrow().getCountryCode(),
+                "La dirección de otro usuario se ignora");
+        assertEquals(Optional.of(123L), userRepository.findByEmail("patched@mail.com").map(User::getId));
+        assertEquals(List.of(123L), userRepository.streamByCountry("PT", SortField.ID, null).map(User::getId).toList());
+    }
+
+    @Test
+    void testApplyPatches_AllOrNothing() {
+        long version = userRepository.findVersion(123L).orElseThrow();
+        List<UserPatch> patches = List.of(
+                new UserPatch(123L, 1L, null, null, null, null, null, "PT"),
+                new UserPatch(123L, null, null, "USER2@mail.com", null, null, null, null));
+
+        assertThrows(VersionMismatchException.class, () -> userRepository.applyPatches(123L, patches, version + 100));
+        assertThrows(DuplicateEmailException.class, () -> userRepository.applyPatches(123L, patches, version));
+
+        assertEquals(version, userRepository.findVersion(123L).orElseThrow());
+        assertEquals("UK", userRepository.findAddressById(123L, 1L).orElseThrow().getCountryCode());
+        assertTrue(userRepository.applyPatches(999L, patches, UserRepository.ANY_VERSION).isEmpty());
+    }
+
+    @Test
+    void testUpdateAddress_OtherUsersAddress() {
+        Address updatedAddressDetails = new Address(null, "name", "street", "MX");
+
+        Optional<Address> updatedAddress = userRepository.updateAddress(123L, 3L, updatedAddressDetails);
+        assertFalse(updatedAddress.isPresent(), "No debería actualizar la dirección de otro usuario");
+        assertEquals("ES", userRepository.findAddressById(124L, 3L).orElseThrow().getCountryCode());
+    }
+
+    @Test
+    void testAddressIndex_FollowsSaveAndDelete() {
+        User newUser = new User();
+        newUser.setEmail("addr@mail.com");
+        newUser.setName("addr");
+        newUser.setPassword("pass");
+        newUser.setAddresses(List.of(new Address(null, "office", "office street", "FR")));
+        User savedUser = userRepository.save(newUser);
+        Long addressId = savedUser.getAddresses().get(0).getId();
+
+        assertTrue(userRepository.updateAddress(savedUser.getId(), addressId, new Address(null, null, null, "DE")).isPresent());
+        assertEquals("DE", userRepository.findAddressById(savedUser.getId(), addressId).orElseThrow().getCountryCode());
+
+        userRepository.deleteById(savedUser.getId());
+        assertFalse(userRepository.findAddressById(savedUser.getId(), addressId).isPresent(),
+                "Las direcciones de un usuario eliminado no deberían seguir indexadas");
+    }
+
+    @Test
+    void testSave_IgnoresClientUserIds() {
+        User saved = userRepository.save(new User(123L, "intruder@mail.com", "intruder", "pass", null, List.of()));
+        List<User> batch = userRepository.saveAll(List.of(new User(124L, "intruder2@mail.com", "intruder2", "pass", null,
+                List.of())), (e, index) -> fail(e));
+
+        assertEquals(126L, saved.getId(), "Un alta nunca reemplaza a un usuario existente");
+        assertEquals(127L, batch.get(0).getId());
+        assertEquals("user1@mail.com", userRepository.findById(123L).orElseThrow().getEmail());
+        assertEquals(2, userRepository.findAddressesByUserId(123L).orElseThrow().size());
+        assertEquals("user2@mail.com", userRepository.findById(124L).orElseThrow().getEmail());
+        assertEquals(5, userRepository.findAll().size());
+    }
+
+    @Test
+    void testSave_IgnoresClientAddressIds() {
+        // 1 pertenece al usuario 123 y 3 al 124: un alta no puede apropiarse de ellas
+        User saved = userRepository.save(new User(null, "thief@mail.com", "thief", "pass", null,
+                List.of(new Address(1L, "stolen", "other street", "FR"))));
+        List<User> batch = userRepository.saveAll(List.of(new User(null, "thief2@mail.com", "thief2", "pass", null,
+                List.of(new Address(3L, "stolen", "other street", "FR")))), (e, index) -> fail(e));
+
+        assertEquals(4L, saved.getAddresses().get(0).getId(), "Se asigna un id nuevo a la dirección");
+        assertEquals(5L, batch.get(0).getAddresses().get(0).getId());
+        assertEquals("street No. 1", userRepository.findAddressById(123L, 1L).orElseThrow().getStreet());
+        assertEquals("beach street", userRepository.findAddressById(124L, 3L).orElseThrow().getStreet());
+        assertTrue(userRepository.findAddressById(saved.getId(), 4L).isPresent());
+        assertEquals(6L, userRepository.generateNewAddressId());
+    }
+
+    @Test
+    void testUpdate_LeavesPreviousSnapshotUntouched() {
+        User before = userRepository.findById(123L).orElseThrow();
+        User updates = new User();
+        updates.setName("renamed");
+
+        User after = userRepository.update(123L, updates).orElseThrow();
+
+        assertEquals("user1", before.getName(), "La versión leída antes de la actualización no debe cambiar");
+        assertEquals("renamed", after.getName());
+        assertSame(before.getAddresses(), after.getAddresses(), "Las direcciones sin cambios se comparten entre versiones");
+        assertThrows(UnsupportedOperationException.class, () -> after.getAddresses().add(new Address()));
+    }
+
+    @Test
+    void testUpdateAddress_SharesUntouchedAddresses() {
+        User before = userRepository.findById(123L).orElseThrow();
+        Address untouched = before.getAddresses().get(1);
+
+        userRepository.updateAddress(123L, before.getAddresses().get(0).getId(), new Address(null, null, "new street", null));
+        User after = userRepository.findById(123L).orElseThrow();
+
+        assertEquals("street No. 1", before.getAddresses().get(0).getStreet(), "La dirección de la versión anterior no debe cambiar");
+        assertEquals("new street", after.getAddresses().get(0).getStreet());
+        assertSame(untouched, after.getAddresses().get(1), "Las demás direcciones no se copian");
+    }
+
+    @Test
+    void testSave_DoesNotMutateInput() {
+        User newUser = new User();
+        newUser.setEmail("input@mail.com");
+        newUser.setName("input");
+        newUser.setPassword("plain");
+
+        User saved = userRepository.save(newUser);
+
+        assertNull(newUser.getId());
+        assertEquals("plain", newUser.getPassword());
+        assertNotEquals("plain", saved.getPassword());
+    }
+
+    @Test
+    void testConcurrentUpdates_SameUserStayConsistent() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 200; i++) {
+            int n = i;
+            executor.submit(() -> {
+                User updates = new User();
+                updates.setName("name" + n);
+                updates.setEmail("name" + n + "@mail.com");
+                userRepository.update(123L, updates);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        User user = userRepository.findById(123L).orElseThrow();
+        assertEquals(user.getName() + "@mail.com", user.getEmail(), "Nombre y email deben venir de la misma actualización");
+        assertEquals(123L, userRepository.findByEmail(user.getEmail()).orElseThrow().getId());
+        assertEquals(1, userRepository.findAll().stream().filter(u -> u.getId() == 123L).count());
+        for (int i = 0; i < 200; i++) {
+            String email = "name" + i + "@mail.com";
+            if (!email.equals(user.getEmail())) {
+                assertFalse(userRepository.findByEmail(email).isPresent(), "Los emails anteriores deben liberarse");
+            }
+        }
+    }
+
+    @Test
+    void testSaveAll_AllocatesIdBlocksAndRejectsDuplicates() {
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new User(null, "bulk" + i + "@mail.com", "bulk" + i, "pass" + i, null,
+                    List.of(new Address(null, "home", "street " + i, "MX"))));
+        }
+        batch.add(new User(null, "USER1@mail.com", "dup", "pass", null, List.of()));
+        List<Integer> rejected = new ArrayList<>();
+
+        List<User> saved = userRepository.saveAll(batch, (error, index) -> {
+            assertInstanceOf(DuplicateEmailException.class, error);
+            rejected.add(index);
+        });
+
+        assertEquals(List.of(3), rejected);
+        assertEquals(3, saved.size());
+        assertEquals(List.of(126L, 127L, 128L), saved.stream().map(User::getId).toList());
+        assertEquals(List.of(4L, 5L, 6L), saved.stream().map(user -> user.getAddresses().get(0).getId()).toList());
+        assertNotEquals("pass0", saved.get(0).getPassword(), "La contraseña debe quedar hasheada");
+        assertEquals(6, userRepository.findAll().size());
+        assertEquals("bulk2", userRepository.findByEmail("bulk2@mail.com").orElseThrow().getName());
+    }
+
+    @Test
+    void testStreamCreatedBetween_UsesInstantRange() {
+        Instant seedDate = CreatedAtFormat.parse("01-01-2024 00:00:00");
+
+        assertEquals(List.of(123L), userRepository.streamCreatedBetween(seedDate, seedDate.plusSeconds(1), null)
+                .map(User::getId).toList(), "El límite inferior es inclusivo");
+        assertEquals(List.of(), userRepository.streamCreatedBetween(null, seedDate, null)
+                .map(User::getId).toList(), "El límite superior es exclusivo");
+        List<Long> later = userRepository.streamCreatedBetween(seedDate.plusSeconds(1), null, null)
+                .map(User::getId).toList();
+        assertEquals(2, later.size());
+        assertFalse(later.contains(123L));
+
+        User first = userRepository.findById(later.get(0)).orElseThrow();
+        PageCursor cursor = PageCursor.after(SortField.CREATED_AT, first);
+        assertEquals(later.subList(1, 2), userRepository.streamCreatedBetween(seedDate.plusSeconds(1), null, cursor)
+                .map(User::getId).toList(), "El cursor continúa dentro del rango");
+    }
+
+    @Test
+    void testFindAllSorted_CreatedAtIsChronological() {
+        List<User> users = userRepository.findAllSorted(SortField.CREATED_AT);
+
+        assertEquals(123L, users.get(0).getId());
+        for (int i = 1; i < users.size(); i++) {
+            assertFalse(users.get(i).getCreatedAt().isBefore(users.get(i - 1).getCreatedAt()));
+        }
+    }
+
+    @Test
+    void testVersions_BumpedOnEveryMutation() {
+        long version = userRepository.findVersion(123L).orElseThrow();
+        long global = userRepository.getGlobalVersion();
+
+        User updates = new User();
+        updates.setName("renamed");
+        long updated = userRepository.update(123L, updates, version).orElseThrow().version();
+        assertTrue(updated > version);
+        assertEquals(updated, userRepository.findVersion(123L).orElseThrow());
+        assertTrue(userRepository.getGlobalVersion() > global);
+
+        long address = userRepository.updateAddress(123L, 1L, new Address(null, null, null, "PT"), updated)
+                .orElseThrow().version();
+        assertTrue(address > updated, "Cambiar una dirección genera una versión nueva del dueño");
+
+        long beforeDelete = userRepository.getGlobalVersion();
+        userRepository.deleteById(125L);
+        assertTrue(userRepository.getGlobalVersion() > beforeDelete);
+        assertTrue(userRepository.findVersion(125L).isEmpty());
+    }
+
+    @Test
+    void testUpdate_StaleVersionIsRejected() {
+        long version = userRepository.findVersion(123L).orElseThrow();
+        User updates = new User();
+        updates.setName("first");
+        userRepository.update(123L, updates, version);
+
+        User late = new User();
+        late.setName("lost update");
+        assertThrows(VersionMismatchException.class, () -> userRepository.update(123L, late, version));
+        assertThrows(VersionMismatchException.class,
+                () -> userRepository.updateAddress(123L, 1L, new Address(null, "x", null, null), version));
+        assertEquals("first", userRepository.findById(123L).orElseThrow().getName(), "La escritura rechazada no se aplica");
+        assertEquals("workaddress", userRepository.findAddressById(123L, 1L).orElseThrow().getName());
+    }
+
+    @Test
+    void testSearch_PrefixMatchesRankBeforeSubstrings() {
+        userRepository.save(new User(null, "maria.lopez@mail.com", "Maria Lopez", "secret", null, List.of()));
+        userRepository.save(new User(null, "jlopezr@corp.com", "Juan Pérez", "secret", null, List.of()));
+        userRepository.save(new User(null, "ana@mail.com", "Ana Lopezosa", "secret", null, List.of()));
+
+        List<String> emails = userRepository.search("LOPEZ", 10).stream().map(User::getEmail).toList();
+
+        assertEquals(3, emails.size());
+        assertEquals("jlopezr@corp.com", emails.get(2), "La coincidencia solo como subcadena va al final");
+        assertTrue(emails.containsAll(List.of("maria.lopez@mail.com", "ana@mail.com")),
+                "Las palabras del nombre que empiezan por la consulta son coincidencias por prefijo");
+        assertEquals(1, userRepository.search("lopez", 1).size(), "Respeta el límite");
+        assertTrue(userRepository.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    void testSearch_ShortQueriesMatchPrefixesOnly() {
+        assertEquals(3, userRepository.search("us", 10).size());
+        assertTrue(userRepository.search("er", 10).isEmpty(), "Menos de 3 caracteres no se buscan como subcadena");
+        assertEquals(3, userRepository.search("ser", 10).size());
+    }
+
+    @Test
+    void testSearch_FollowsUpdatesAndDeletes() {
+        User updates = new User();
+        updates.setName("Zoe Quintana");
+        updates.setEmail("zq@mail.com");
+        userRepository.update(124L, updates);
+
+        assertEquals(List.of(124L), userRepository.search("quint", 10).stream().map(User::getId).toList());
+        assertEquals(List.of(124L), userRepository.search("zq@", 10).stream().map(User::getId).toList());
+        assertTrue(userRepository.search("user2", 10).isEmpty(), "El nombre y el email anteriores ya no deben encontrarse");
+
+        userRepository.deleteById(124L);
+        assertTrue(userRepository.search("quint", 10).isEmpty());
+    }
+
+    @Test
+    void testStreamByCountry_FollowsCreateUpdateAddressAndDelete() {
+        assertEquals(List.of(123L), countryIds("uk", SortField.ID));
+        User saved = userRepository.save(new User(null, "twice@mail.com", "twice", "secret", null,
+                List.of(new Address(null, "a", "street a", "UK"), new Address(null, "b", "street b", "UK"))));
+        assertEquals(List.of(123L, saved.getId()), countryIds("UK", SortField.ID), "Un usuario aparece una vez por país");
+
+        userRepository.updateAddress(123L, 1L, new Address(null, null, null, "FR"));
+        assertEquals(List.of(saved.getId()), countryIds("UK", SortField.ID));
+        assertEquals(List.of(123L), countryIds("FR", SortField.ID));
+
+        userRepository.deleteById(saved.getId());
+        assertTrue(countryIds("UK", SortField.ID).isEmpty());
+        assertTrue(countryIds("ZZ", SortField.ID).isEmpty());
+    }
+
+    @Test
+    void testStreamByCountry_MatchesFilteredSortedScanForRareAndCommonCountries() {
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String country = i % 13 == 0 ? "MX" : "US";
+            batch.add(new User(null, "c" + i + "@mail.com", "name " + ((i * 7) % 40), "secret", null,
+                    List.of(new Address(null, "home", "street", country))));
+        }
+        userRepository.saveAll(batch, (e, index) -> fail(e));
+
+        for (String country : List.of("MX", "US")) {
+            for (SortField sortField : SortField.values()) {
+                List<Long> expected = userRepository.findAllSorted(sortField).stream()
+                        .filter(user -> user.getAddresses().stream().anyMatch(a -> a.getCountryCode().equals(country)))
+                        .map(User::getId)
+                        .toList();
+                assertEquals(expected, countryIds(country, sortField), country + " por " + sortField);
+
+                // Segunda página a partir del cursor del primer elemento
+                User first = userRepository.streamByCountry(country, sortField, null).findFirst().orElseThrow();
+                List<Long> rest = userRepository.streamByCountry(country, sortField, PageCursor.after(sortField, first))
+                        .map(User::getId)
+                        .toList();
+                assertEquals(expected.subList(1, expected.size()), rest);
+            }
+        }
+    }
+
+    private List<Long> countryIds(String country, SortField sortField) {
+        return userRepository.streamByCountry(country, sortField, null).map(User::getId).toList();
+    }
+}
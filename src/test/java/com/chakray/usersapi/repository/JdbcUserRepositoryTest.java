@@ -0,0 +1,114 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.service.UserJsonCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Los mismos casos que el repositorio en memoria, contra H2 en memoria (una base nueva por contexto).
+// fetch-size pequeño para que los recorridos ordenados crucen varios bloques.
+@ActiveProfiles("jdbc")
+@TestPropertySource(properties = {
+        "users.storage.jdbc.url=jdbc:h2:mem:users-${random.uuid};LOCK_TIMEOUT=10000",
+        "users.storage.jdbc.fetch-size=2",
+        "users.storage.jdbc.batch-size=3"
+})
+class JdbcUserRepositoryTest extends InMemoryUserRepositoryTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserJsonCache userJsonCache;
+
+    @Test
+    void testRepositoryIsJdbc() {
+        assertInstanceOf(JdbcUserRepository.class, userRepository);
+    }
+
+    // Cada lectura construye objetos nuevos: la caché por identidad de UserJsonCache nunca acertaría
+    @Test
+    void testJsonCacheIsDisabled() {
+        assertFalse(userRepository.sharesPublishedInstances());
+        assertFalse(userJsonCache.isEnabled());
+    }
+
+    // Cada lectura construye objetos nuevos: se comprueba igualdad en lugar de identidad
+    @Test
+    @Override
+    void testUpdate_LeavesPreviousSnapshotUntouched() {
+        User before = userRepository.findById(123L).orElseThrow();
+        User updates = new User();
+        updates.setName("renamed");
+
+        User after = userRepository.update(123L, updates).orElseThrow();
+
+        assertEquals("user1", before.getName(), "La versión leída antes de la actualización no debe cambiar");
+        assertEquals("renamed", after.getName());
+        assertEquals(before.getAddresses(), after.getAddresses(), "Las direcciones sin cambios se conservan");
+        assertThrows(UnsupportedOperationException.class, () -> after.getAddresses().add(new Address()));
+    }
+
+    @Test
+    @Override
+    void testUpdateAddress_SharesUntouchedAddresses() {
+        User before = userRepository.findById(123L).orElseThrow();
+        Address untouched = before.getAddresses().get(1);
+
+        userRepository.updateAddress(123L, before.getAddresses().get(0).getId(), new Address(null, null, "new street", null));
+        User after = userRepository.findById(123L).orElseThrow();
+
+        assertEquals("street No. 1", before.getAddresses().get(0).getStreet(), "La dirección de la versión anterior no debe cambiar");
+        assertEquals("new street", after.getAddresses().get(0).getStreet());
+        assertEquals(untouched, after.getAddresses().get(1), "Las demás direcciones no cambian");
+    }
+
+    @Test
+    void testSaveAll_SpansSeveralBatchesAndKeepsAddressOrder() {
+        List<User> batch = new ArrayList<>();
+        IntStream.range(0, 7).forEach(i -> batch.add(new User(null, "bulk" + i + "@mail.com", "bulk" + i, "secret", null,
+                List.of(new Address(null, "a" + i, "street a", "ES"), new Address(null, "b" + i, "street b", "MX")))));
+        batch.add(new User(null, "USER1@mail.com", "dup", "secret", null, List.of()));
+        List<Integer> rejected = new ArrayList<>();
+
+        List<User> saved = userRepository.saveAll(batch, (e, index) -> rejected.add(index));
+
+        assertEquals(7, saved.size());
+        assertEquals(List.of(7), rejected, "El email ya existente se rechaza aunque cambie de mayúsculas");
+        List<User> all = userRepository.findAllSorted(SortField.ID);
+        assertEquals(10, all.size(), "El recorrido por bloques debe devolver todos los usuarios");
+        User last = all.get(all.size() - 1);
+        assertEquals(List.of("a6", "b6"), last.getAddresses().stream().map(Address::getName).toList());
+    }
+
+    // Claves repetidas que cruzan el límite de bloque: el cursor (clave, id) no debe saltar ni repetir usuarios
+    @Test
+    void testStreamSorted_DuplicateKeysAcrossBlocks() {
+        IntStream.range(0, 5).forEach(i -> userRepository.save(new User(null, "same" + i + "@mail.com", "same", "secret", null, List.of())));
+        userRepository.save(new User(null, "nameless@mail.com", null, "secret", null, List.of()));
+        List<Long> expected = userRepository.findAll().stream()
+                .sorted(Comparator.comparing(User::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                        .thenComparing(User::getId))
+                .map(User::getId)
+                .toList();
+
+        assertEquals(expected, userRepository.findAllSorted(SortField.NAME).stream().map(User::getId).toList());
+        for (int i = 0; i < expected.size(); i++) {
+            User after = userRepository.findById(expected.get(i)).orElseThrow();
+            List<Long> rest = userRepository.streamSorted(SortField.NAME, PageCursor.after(SortField.NAME, after))
+                    .map(User::getId)
+                    .toList();
+            assertEquals(expected.subList(i + 1, expected.size()), rest, "Después del usuario " + after.getId());
+        }
+    }
+}
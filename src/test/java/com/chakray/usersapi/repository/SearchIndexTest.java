@@ -0,0 +1,31 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    private static User user(long id, String email, String name) {
+        return new User(id, email, name, null, null, List.of());
+    }
+
+    @Test
+    void testCandidates_ReplaceMovesTermsAndTrigrams() {
+        SearchIndex index = new SearchIndex();
+        User before = user(1, "ana@mail.com", "Ana Ruiz");
+        index.replace(null, before);
+        index.replace(null, user(2, "bea@mail.com", "Bea Ruizeta"));
+
+        assertEquals(List.of(1L, 2L), index.candidates("ruiz").distinct().toList());
+        assertEquals(List.of(1L, 2L), index.candidates("uiz").distinct().toList(), "Subcadena por trigramas");
+
+        index.replace(before, user(1, "ana@mail.com", "Ana Soto"));
+        assertEquals(List.of(2L), index.candidates("ruiz").distinct().toList());
+        assertEquals(List.of(1L), index.candidates("soto").distinct().toList());
+        assertTrue(index.candidates("xyz").toList().isEmpty());
+    }
+}
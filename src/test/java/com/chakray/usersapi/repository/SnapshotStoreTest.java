@@ -0,0 +1,263 @@
+package com.chakray.usersapi.repository;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.PasswordHashingEngine;
+import com.chakray.usersapi.util.Sha1PasswordHashAlgorithm;
+import com.chakray.usersapi.util.CreatedAtFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotStoreTest {
+
+    private static final PasswordHashingEngine HASHING =
+            new PasswordHashingEngine(new Sha1PasswordHashAlgorithm(), Runtime.getRuntime().availableProcessors(), 1024);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWriteAndLoadRoundTrip() {
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"), 2);
+        List<User> users = List.of(
+                new User(1L, "a@mail.com", "Ana Núñez", "hash1", CreatedAtFormat.parse("01-01-2024 00:00:00"),
+                        List.of(new Address(10L, "home", "calle 1", "ES"), new Address(11L, "work", null, "UK"))),
+                new User(2L, null, "sin email", "hash2", CreatedAtFormat.parse("02-01-2024 00:00:00"),
+                        List.of(new Address(12L, "home", "street 2", "ES"), new Address(13L, "other", "street 3", null))));
+        store.write(new SnapshotStore.Header(42L, 2L, 13L), users);
+
+        List<User> loaded = new ArrayList<>();
+        SnapshotStore.Header header = store.loadLatest(loaded::add).orElseThrow();
+
+        assertEquals(new SnapshotStore.Header(42L, 2L, 13L), header);
+        assertEquals(users, loaded, "Los usuarios cargados deberían ser iguales a los escritos");
+    }
+
+    @Test
+    void testCorruptSnapshotFallsBackToPrevious() throws IOException {
+        SnapshotStore store = new SnapshotStore(directory, 2);
+        store.write(new SnapshotStore.Header(1L, 1L, 0L), List.of(new User(1L, "old@mail.com", "old", "h", null, List.of())));
+        Path latest = store.write(new SnapshotStore.Header(5L, 2L, 0L), List.of(new User(2L, "new@mail.com", "new", "h", null, List.of())));
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), 30);
+        }
+
+        List<User> loaded = new ArrayList<>();
+        SnapshotStore.Header header = store.loadLatest(loaded::add).orElseThrow();
+        assertEquals(1L, header.walLsn(), "Debería usarse el snapshot anterior");
+        assertEquals("old@mail.com", loaded.get(0).getEmail());
+    }
+
+    @Test
+    void testRetainsOnlyConfiguredSnapshots() throws IOException {
+        SnapshotStore store = new SnapshotStore(directory, 2);
+        for (long lsn = 1; lsn <= 4; lsn++) {
+            store.write(new SnapshotStore.Header(lsn, 0L, 0L), List.of());
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(2, files.count(), "Solo deberían conservarse los 2 últimos snapshots");
+        }
+    }
+
+    @Test
+    void testRepositoryRestartsFromSnapshotPlusWal() {
+        Path walDirectory = directory.resolve("wal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"), 2);
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.of(store), HASHING);
+            repository.init();
+            User updates = new User();
+            updates.setName("before snapshot");
+            repository.update(123L, updates);
+
+            repository.checkpoint();
+
+            // Mutaciones posteriores al snapshot: solo están en el segmento nuevo del WAL
+            updates.setName("after snapshot");
+            repository.update(123L, updates);
+            repository.deleteById(125L);
+        }
+        try (var segments = Files.list(walDirectory)) {
+            assertEquals(1, segments.count(), "Los segmentos cubiertos por el snapshot deberían borrarse");
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.of(store), HASHING);
+            repository.init();
+
+            assertEquals("after snapshot", repository.findById(123L).orElseThrow().getName());
+            assertFalse(repository.findById(125L).isPresent());
+            assertEquals(2, repository.findAll().size());
+            assertTrue(repository.findAddressById(124L, 3L).isPresent(), "El índice de direcciones debería reconstruirse");
+        }
+    }
+
+    @Test
+    void testCorruptLatestSnapshotRecoversFromPreviousPlusWal() throws IOException {
+        Path walDirectory = directory.resolve("wal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"), 2);
+        Path latest;
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.of(store), HASHING);
+            repository.init();
+            User updates = new User();
+            updates.setName("first");
+            repository.update(123L, updates);
+            repository.checkpoint();
+            // Entre los dos snapshots: solo la recupera el WAL si se cae al snapshot anterior
+            updates.setName("second");
+            repository.update(124L, updates);
+            repository.checkpoint();
+            updates.setName("third");
+            repository.update(125L, updates);
+            try (var snapshots = Files.list(directory.resolve("snapshots"))) {
+                latest = snapshots.max(Path::compareTo).orElseThrow();
+            }
+        }
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), 30);
+        }
+
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.of(store), HASHING);
+            repository.init();
+
+            assertEquals("first", repository.findById(123L).orElseThrow().getName());
+            assertEquals("second", repository.findById(124L).orElseThrow().getName());
+            assertEquals("third", repository.findById(125L).orElseThrow().getName());
+        }
+    }
+
+    @Test
+    void testCheckpointsDuringWritesLoseNothing() throws Exception {
+        Path walDirectory = directory.resolve("wal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"), 2);
+        Map<Long, String> expected;
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(new SlowPublishLog(wal), Optional.of(store), HASHING);
+            repository.init();
+            try (ExecutorService executor = Executors.newFixedThreadPool(3)) {
+                List<Future<?>> writers = new ArrayList<>();
+                for (long id : new long[]{123L, 124L, 125L}) {
+                    writers.add(executor.submit(() -> {
+                        // Cada alta es un registro que ninguna escritura posterior repite: si se pierde, falta
+                        for (int i = 0; i < 300; i++) {
+                            repository.save(new User(null, "w" + id + "-" + i + "@mail.com", "new " + i, "pass", null, List.of()));
+                            User updates = new User();
+                            updates.setName("name " + id + " " + i);
+                            repository.update(id, updates);
+                        }
+                    }));
+                }
+                while (writers.stream().anyMatch(writer -> !writer.isDone())) {
+                    repository.checkpoint();
+                }
+                for (Future<?> writer : writers) {
+                    writer.get();
+                }
+            }
+            expected = names(repository);
+        }
+
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.of(store), HASHING);
+            repository.init();
+
+            assertEquals(903, repository.getUserCount(), "Ninguna alta confirmada puede perderse tras el reinicio");
+            assertEquals(expected, names(repository));
+            assertEquals("name 123 299", repository.findById(123L).orElseThrow().getName());
+        }
+    }
+
+    // Ensancha la ventana entre encolar el registro y publicar la versión, donde cae la rotación del checkpoint
+    private record SlowPublishLog(WriteAheadLog delegate) implements WriteAheadLog {
+
+        @Override
+        public CompletableFuture<Void> append(WalRecord record) {
+            CompletableFuture<Void> done = delegate.append(record);
+            LockSupport.parkNanos(200_000);
+            return done;
+        }
+
+        @Override
+        public void replay(long fromLsn, ObjLongConsumer<WalRecord> consumer) {
+            delegate.replay(fromLsn, consumer);
+        }
+
+        @Override
+        public long rollover() {
+            return delegate.rollover();
+        }
+
+        @Override
+        public void deleteSegmentsBefore(long lsn) {
+            delegate.deleteSegmentsBefore(lsn);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    private static Map<Long, String> names(InMemoryUserRepository repository) {
+        return repository.findAll().stream().collect(Collectors.toMap(User::getId, User::getName));
+    }
+
+    @Test
+    void testRepositoryLoadsSnapshotWithEmailTakenTwice() {
+        Path walDirectory = directory.resolve("wal");
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"), 2);
+        // Iteración concurrente con un cambio de email: 124 aparece antes de soltar x y 125 después de tomarlo
+        store.write(new SnapshotStore.Header(1L, 125L, 3L), List.of(
+                new User(124L, "x@mail.com", "b", "hash", CreatedAtFormat.parse("01-01-2024 00:00:00"), List.of()),
+                new User(125L, "x@mail.com", "a", "hash", CreatedAtFormat.parse("01-01-2024 00:00:00"), List.of())));
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            wal.replay(1L, (record, lsn) -> { });
+            User moved = new User(124L, "y@mail.com", "b", "hash", CreatedAtFormat.parse("01-01-2024 00:00:00"), List.of());
+            wal.append(new WalRecord(WalRecord.Type.UPDATE, 124L, moved)).join();
+        }
+
+        try (FileWriteAheadLog wal = openWal(walDirectory)) {
+            InMemoryUserRepository repository = new InMemoryUserRepository(wal, Optional.of(store), HASHING);
+            repository.init();
+
+            assertEquals(125L, repository.findByEmail("x@mail.com").orElseThrow().getId());
+            assertEquals(124L, repository.findByEmail("y@mail.com").orElseThrow().getId());
+            assertEquals(2, repository.getEmailIndexSize());
+        }
+    }
+
+    private FileWriteAheadLog openWal(Path walDirectory) {
+        return new FileWriteAheadLog(walDirectory, FsyncPolicy.NONE, Duration.ofMillis(5), 64, new ObjectMapper());
+    }
+}
@@ -0,0 +1,71 @@
+package com.chakray.usersapi.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedLockManagerTest {
+
+    @Test
+    void testStripeCountRoundedToPowerOfTwo() {
+        assertEquals(256, new StripedLockManager(200).stripeCount());
+        assertEquals(256, new StripedLockManager(256).stripeCount());
+        assertEquals(1, new StripedLockManager(1).stripeCount());
+    }
+
+    @Test
+    void testSameIdIsSerialized() throws InterruptedException {
+        StripedLockManager locks = new StripedLockManager(16);
+        long[] counter = new long[1];
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    locks.withLock(42L, () -> counter[0]++);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(80_000, counter[0], "Los incrementos bajo el mismo lock no deberían perderse");
+        assertEquals(80_000, locks.stats().acquisitions());
+    }
+
+    @Test
+    void testContentionIsCounted() throws InterruptedException {
+        StripedLockManager locks = new StripedLockManager(16);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> locks.withLock(7L, () -> {
+            holding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        holder.start();
+        holding.await();
+
+        Thread waiter = new Thread(() -> locks.withLock(7L, () -> null));
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+        holder.join();
+        waiter.join();
+
+        StripedLockManager.Stats stats = locks.stats();
+        assertEquals(2, stats.acquisitions());
+        assertEquals(1, stats.contended());
+        assertTrue(stats.waitNanos() > 0);
+    }
+}
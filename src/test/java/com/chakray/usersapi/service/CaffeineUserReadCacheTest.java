@@ -0,0 +1,118 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.repository.Versioned;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaffeineUserReadCacheTest {
+
+    private static Optional<Versioned<User>> view(long id, long version) {
+        return Optional.of(new Versioned<>(new User(id, "user" + id + "@mail.com", "user" + id, null, null, List.of()), version));
+    }
+
+    @Test
+    void testConcurrentMissesLoadOnce() throws Exception {
+        CaffeineUserReadCache cache = new CaffeineUserReadCache(100, null);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Optional<Versioned<User>>>> reads = IntStream.range(0, 8)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return cache.get(1L, id -> {
+                            loads.incrementAndGet();
+                            sleep(100);
+                            return view(id, 1);
+                        });
+                    }, executor))
+                    .toList();
+            start.countDown();
+            for (CompletableFuture<Optional<Versioned<User>>> read : reads) {
+                assertEquals(1L, read.get(5, TimeUnit.SECONDS).orElseThrow().version());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get(), "Los fallos concurrentes deberían compartir una sola carga");
+    }
+
+    @Test
+    void testMissingUsersAreNotCached() {
+        CaffeineUserReadCache cache = new CaffeineUserReadCache(100, null);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertTrue(cache.get(9L, id -> { loads.incrementAndGet(); return Optional.empty(); }).isEmpty());
+        assertTrue(cache.get(9L, id -> { loads.incrementAndGet(); return view(id, 1); }).isPresent());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testEntriesExpireAfterTtl() {
+        AtomicLong nanos = new AtomicLong();
+        CaffeineUserReadCache cache = new CaffeineUserReadCache(100, Duration.ofMinutes(1), nanos::get);
+        cache.get(1L, id -> view(id, 1));
+
+        nanos.addAndGet(Duration.ofSeconds(59).toNanos());
+        assertTrue(cache.getIfPresent(1L).isPresent());
+        nanos.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertTrue(cache.getIfPresent(1L).isEmpty(), "La entrada debería expirar pasado el TTL");
+    }
+
+    @Test
+    void testInvalidationWaitsForLoadInProgress() throws Exception {
+        CaffeineUserReadCache cache = new CaffeineUserReadCache(100, null);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // La carga lee la versión 1 y tarda; mientras tanto una escritura publica la 2 e invalida
+        CompletableFuture<Optional<Versioned<User>>> read = CompletableFuture.supplyAsync(() -> cache.get(1L, id -> {
+            loading.countDown();
+            await(release);
+            return view(id, 1);
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> invalidation = CompletableFuture.runAsync(() -> cache.invalidate(1L));
+        sleep(100);
+        assertFalse(invalidation.isDone(), "La invalidación debería esperar a la carga en curso");
+
+        release.countDown();
+        read.get(5, TimeUnit.SECONDS);
+        invalidation.get(5, TimeUnit.SECONDS);
+        assertTrue(cache.getIfPresent(1L).isEmpty(), "La versión leída antes de la escritura no debería quedar cacheada");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
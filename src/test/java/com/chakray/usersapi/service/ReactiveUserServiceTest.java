@@ -0,0 +1,40 @@
+package com.chakray.usersapi.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Las consultas no usan el UserService, solo se comprueba en qué hilo se ejecutan
+class ReactiveUserServiceTest {
+
+    @Test
+    void testLookupsRunOnSubscriberAndScansOffIt() {
+        try (ReactiveUserService service = new ReactiveUserService(null, 2, 10, false)) {
+            Thread caller = Thread.currentThread();
+
+            assertSame(caller, service.lookup(ignored -> Thread.currentThread()).block(),
+                    "Las consultas por id en memoria no cambian de hilo");
+            assertNotSame(caller, service.read(ignored -> Thread.currentThread()).block(),
+                    "Los listados no deben ocupar el hilo que se suscribe");
+            List<Thread> streamed = service.stream(ignored -> Stream.generate(Thread::currentThread).limit(3))
+                    .collectList().block();
+            assertTrue(streamed.stream().noneMatch(caller::equals), "Las exportaciones no deben ocupar el hilo que se suscribe");
+        }
+    }
+
+    @Test
+    void testBlockingReadsUseThePool() {
+        try (ReactiveUserService service = new ReactiveUserService(null, 2, 10, true)) {
+            String lookup = service.lookup(ignored -> Thread.currentThread().getName()).block();
+            String read = service.read(ignored -> Thread.currentThread().getName()).block();
+            String streamed = service.stream(ignored -> Stream.of(Thread.currentThread().getName())).blockFirst();
+
+            assertTrue(lookup.startsWith("users-blocking"), lookup);
+            assertTrue(read.startsWith("users-blocking"), read);
+            assertTrue(streamed.startsWith("users-blocking"), streamed);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.chakray.usersapi.service;
+
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.util.CreatedAtFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserJsonCacheTest {
+
+    private final UserJsonCache cache = new UserJsonCache();
+    private final ObjectMapper plainMapper = new ObjectMapper();
+    private final ObjectMapper cachingMapper = new ObjectMapper().registerModule(cache.module());
+
+    private static User stored(long id, String name) {
+        return new User(id, "user" + id + "@mail.com", name, "hash", CreatedAtFormat.parse("01-01-2024 10:00:00"),
+                List.of(new Address(id * 10, "home", "calle ñ", "ES")));
+    }
+
+    private static User withoutPassword(User user) {
+        return new User(user.getId(), user.getEmail(), user.getName(), null, user.getCreatedAt(), user.getAddresses());
+    }
+
+    @Test
+    void testCachedBytesMatchJacksonOutput() throws Exception {
+        List<User> views = List.of(cache.viewOf(stored(1, "Ana"), UserJsonCacheTest::withoutPassword),
+                cache.viewOf(stored(2, "Luis"), UserJsonCacheTest::withoutPassword));
+
+        String expected = plainMapper.writeValueAsString(views);
+        assertEquals(expected, new String(cachingMapper.writeValueAsBytes(views), "UTF-8"), "Primera serialización");
+        assertEquals(expected, new String(cachingMapper.writeValueAsBytes(views), "UTF-8"), "Desde los bytes cacheados");
+        assertEquals(expected, cachingMapper.writeValueAsString(views), "También con un generador de caracteres");
+        assertEquals(2, cache.getMisses());
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    void testSameVersionReusesViewAndNewVersionDoesNot() throws Exception {
+        User version1 = stored(1, "Ana");
+        User view1 = cache.viewOf(version1, UserJsonCacheTest::withoutPassword);
+        cachingMapper.writeValueAsBytes(view1);
+        assertSame(view1, cache.viewOf(version1, UserJsonCacheTest::withoutPassword));
+
+        // Sin invalidación explícita: la identidad de la versión basta para no servir el JSON anterior
+        User version2 = stored(1, "Ana María");
+        User view2 = cache.viewOf(version2, UserJsonCacheTest::withoutPassword);
+        assertNotSame(view1, view2);
+        assertTrue(cachingMapper.writeValueAsString(view2).contains("Ana María"));
+        assertTrue(cachingMapper.writeValueAsString(view1).contains("\"Ana\""),
+                "Una vista antigua ya no está cacheada y se serializa de la forma normal");
+    }
+
+    @Test
+    void testInvalidateDropsEntry() {
+        User version = stored(1, "Ana");
+        User view = cache.viewOf(version, UserJsonCacheTest::withoutPassword);
+        cache.invalidate(1L);
+
+        assertEquals(0, cache.size());
+        assertNotSame(view, cache.viewOf(version, UserJsonCacheTest::withoutPassword));
+    }
+
+    @Test
+    void testDisabledBuildsEveryViewAndSerializesNormally() throws Exception {
+        UserJsonCache disabled = UserJsonCache.disabled();
+        ObjectMapper mapper = new ObjectMapper().registerModule(disabled.module());
+        User version = stored(1, "Ana");
+
+        User view = disabled.viewOf(version, UserJsonCacheTest::withoutPassword);
+
+        assertNotSame(view, disabled.viewOf(version, UserJsonCacheTest::withoutPassword));
+        assertEquals(plainMapper.writeValueAsString(view), mapper.writeValueAsString(view));
+        assertEquals(0, disabled.size());
+        assertEquals(0, disabled.getHits() + disabled.getMisses());
+    }
+
+    @Test
+    void testEvictsBeyondMaximumWeight() throws Exception {
+        UserJsonCache bounded = new UserJsonCache(4 * 1024, Runnable::run);
+        ObjectMapper mapper = new ObjectMapper().registerModule(bounded.module());
+        List<User> views = new ArrayList<>();
+        for (long id = 1; id <= 200; id++) {
+            User view = bounded.viewOf(stored(id, "user " + id), UserJsonCacheTest::withoutPassword);
+            mapper.writeValueAsBytes(view);
+            views.add(view);
+        }
+
+        assertTrue(bounded.getWeightedSize() <= 4 * 1024, "Peso: " + bounded.getWeightedSize());
+        assertTrue(bounded.size() < 200, "Deberían haberse desalojado entradas");
+        // Las vistas desalojadas se siguen serializando, de la forma normal
+        assertEquals(plainMapper.writeValueAsString(views), mapper.writeValueAsString(views));
+    }
+
+    @Test
+    void testPrettyPrintedAndUncachedUsersUseRegularSerializer() throws Exception {
+        User view = cache.viewOf(stored(1, "Ana"), UserJsonCacheTest::withoutPassword);
+        User notCached = withoutPassword(stored(2, "Luis"));
+
+        assertEquals(plainMapper.writerWithDefaultPrettyPrinter().writeValueAsString(view),
+                cachingMapper.writer(SerializationFeature.INDENT_OUTPUT).writeValueAsString(view));
+        assertEquals(plainMapper.writeValueAsString(notCached), cachingMapper.writeValueAsString(notCached));
+        assertEquals(0, cache.getHits() + cache.getMisses());
+    }
+}
@@ -1,17 +1,28 @@
 package com.chakray.usersapi.service;
 
+import com.chakray.usersapi.exception.VersionMismatchException;
 import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.BatchPatchResult;
 import com.chakray.usersapi.model.User;
+import com.chakray.usersapi.model.UserPage;
+import com.chakray.usersapi.model.UserPatch;
+import com.chakray.usersapi.repository.PageCursor;
+import com.chakray.usersapi.repository.SortField;
 import com.chakray.usersapi.repository.UserRepository;
+import com.chakray.usersapi.repository.Versioned;
+import com.chakray.usersapi.util.CreatedAtFormat;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -23,6 +34,12 @@ class UserServiceTest {
     @Mock // Crea una instancia simulada (mock) de UserRepository
     private UserRepository userRepository;
 
+    @Spy // Caché real: la vista sin contraseña y su JSON se reutilizan entre llamadas
+    private UserJsonCache userJsonCache = new UserJsonCache();
+
+    @Spy // Caché de lectura real, para comprobar aciertos e invalidaciones
+    private UserReadCache userReadCache = new CaffeineUserReadCache(100, null);
+
     @InjectMocks // Inyecta los mocks (userRepository) en la instancia de UserService
     private UserService userService;
 
@@ -36,12 +53,12 @@ class UserServiceTest {
         MockitoAnnotations.openMocks(this); // Inicializa los mocks
 
         // Datos de prueba con contraseña
-        user1WithPass = new User(1L, "user1@mail.com", "User One", "hashed_pass_1", "01-01-2024 10:00:00", List.of(new Address(10L, "work", "street A", "UK")));
-        user2WithPass = new User(2L, "user2@mail.com", "User Two", "hashed_pass_2", "01-01-2024 11:00:00", List.of(new Address(11L, "home", "street B", "AU")));
+        user1WithPass = new User(1L, "user1@mail.com", "User One", "hashed_pass_1", CreatedAtFormat.parse("01-01-2024 10:00:00"), List.of(new Address(10L, "work", "street A", "UK")));
+        user2WithPass = new User(2L, "user2@mail.com", "User Two", "hashed_pass_2", CreatedAtFormat.parse("01-01-2024 11:00:00"), List.of(new Address(11L, "home", "street B", "AU")));
 
         // Datos de prueba sin contraseña
-        user1WithoutPass = new User(1L, "user1@mail.com", "User One", null, "01-01-2024 10:00:00", List.of(new Address(10L, "work", "street A", "UK")));
-        user2WithoutPass = new User(2L, "user2@mail.com", "User Two", null, "01-01-2024 11:00:00", List.of(new Address(11L, "home", "street B", "AU")));
+        user1WithoutPass = new User(1L, "user1@mail.com", "User One", null, CreatedAtFormat.parse("01-01-2024 10:00:00"), List.of(new Address(10L, "work", "street A", "UK")));
+        user2WithoutPass = new User(2L, "user2@mail.com", "User Two", null, CreatedAtFormat.parse("01-01-2024 11:00:00"), List.of(new Address(11L, "home", "street B", "AU")));
     }
 
     @Test
@@ -59,11 +76,12 @@ class UserServiceTest {
 
     @Test
     void testFindAllUsers_SortedById() {
-        User userA = new User(3L, "a@mail.com", "Charlie", "pass_c", "01-01-2024 12:00:00", null);
-        User userB = new User(1L, "b@mail.com", "Alice", "pass_a", "01-01-2024 10:00:00", null);
-        User userC = new User(2L, "c@mail.com", "Bob", "pass_b", "01-01-2024 11:00:00", null);
+        User userA = new User(1L, "b@mail.com", "Alice", "pass_a", CreatedAtFormat.parse("01-01-2024 10:00:00"), null);
+        User userB = new User(2L, "c@mail.com", "Bob", "pass_b", CreatedAtFormat.parse("01-01-2024 11:00:00"), null);
+        User userC = new User(3L, "a@mail.com", "Charlie", "pass_c", CreatedAtFormat.parse("01-01-2024 12:00:00"), null);
 
-        when(userRepository.findAll()).thenReturn(Arrays.asList(userA, userB, userC));
+        // El repositorio ya entrega el recorrido ordenado de su índice
+        when(userRepository.findAllSorted(SortField.ID)).thenReturn(Arrays.asList(userA, userB, userC));
 
         List<User> users = userService.findAllUsers("id");
         assertEquals(3, users.size(), "Debería haber 3 usuarios");
@@ -71,29 +89,97 @@ class UserServiceTest {
         assertEquals(2L, users.get(1).getId(), "El segundo usuario debería tener ID 2");
         assertEquals(3L, users.get(2).getId(), "El tercer usuario debería tener ID 3");
         assertNull(users.get(0).getPassword(), "La contraseña debería ser nula después del ordenamiento");
+        verify(userRepository, times(1)).findAllSorted(SortField.ID);
+        verify(userRepository, never()).findAll();
+    }
+
+    @Test
+    void testFindAllUsers_InvalidSortFallsBackToFindAll() {
+        when(userRepository.findAll()).thenReturn(Arrays.asList(user1WithPass, user2WithPass));
+
+        List<User> users = userService.findAllUsers("unknown");
+
+        assertEquals(2, users.size(), "Un sortedBy no válido no debería filtrar usuarios");
         verify(userRepository, times(1)).findAll();
+        verify(userRepository, never()).findAllSorted(any());
+    }
+
+    @Test
+    void testFindUsersPage_ReturnsNextCursor() {
+        when(userRepository.streamSorted(SortField.ID, null)).thenReturn(Stream.of(user1WithPass, user2WithPass));
+
+        UserPage page = userService.findUsersPage(null, null, 1);
+
+        assertEquals(1, page.getUsers().size(), "La página debería tener un solo usuario");
+        assertNull(page.getUsers().get(0).getPassword(), "La contraseña debería ser nula en la página");
+        PageCursor next = PageCursor.decode(page.getNextCursor());
+        assertEquals(SortField.ID, next.sortField(), "El cursor debería conservar el ordenamiento");
+        assertEquals(1L, next.id(), "El cursor debería apuntar al último usuario entregado");
+    }
+
+    @Test
+    void testFindUsersPage_LastPage() {
+        PageCursor cursor = PageCursor.after(SortField.EMAIL, user1WithPass);
+        when(userRepository.streamSorted(SortField.EMAIL, cursor)).thenReturn(Stream.of(user2WithPass));
+
+        UserPage page = userService.findUsersPage("email", cursor.encode(), 10);
+
+        assertEquals(1, page.getUsers().size(), "La última página debería tener un usuario");
+        assertNull(page.getNextCursor(), "No debería haber cursor después de la última página");
     }
 
     @Test
     void testFindUserById_Found() {
-        when(userRepository.findById(1L)).thenReturn(Optional.of(user1WithPass));
+        when(userRepository.findVersionedById(1L)).thenReturn(Optional.of(new Versioned<>(user1WithPass, 3L)));
 
         Optional<User> foundUser = userService.findUserById(1L);
 
         assertTrue(foundUser.isPresent(), "El usuario debería ser encontrado");
         assertEquals("user1@mail.com", foundUser.get().getEmail(), "El email del usuario no coincide");
         assertNull(foundUser.get().getPassword(), "La contraseña debería ser nula (removida por el servicio)");
-        verify(userRepository, times(1)).findById(1L);
+        verify(userRepository, times(1)).findVersionedById(1L);
     }
 
     @Test
     void testFindUserById_NotFound() {
-        when(userRepository.findById(99L)).thenReturn(Optional.empty());
+        when(userRepository.findVersionedById(99L)).thenReturn(Optional.empty());
 
         Optional<User> foundUser = userService.findUserById(99L);
 
         assertFalse(foundUser.isPresent(), "El usuario no debería ser encontrado");
-        verify(userRepository, times(1)).findById(99L);
+        verify(userRepository, times(1)).findVersionedById(99L);
+    }
+
+    @Test
+    void testFindUserById_ServedFromReadCacheUntilWrite() {
+        when(userRepository.findVersionedById(1L)).thenReturn(Optional.of(new Versioned<>(user1WithPass, 3L)));
+
+        User first = userService.findUserById(1L).orElseThrow();
+        assertSame(first, userService.findUserById(1L).orElseThrow(), "El segundo acceso debería salir de la caché");
+        assertEquals(first.getAddresses(), userService.findAddressesByUserId(1L).orElseThrow());
+        // La versión del ETag es la de la vista cacheada, sin consultar el repositorio
+        assertEquals(3L, userService.findUserVersion(1L).getAsLong());
+        verify(userRepository, times(1)).findVersionedById(1L);
+        verify(userRepository, never()).findVersion(1L);
+
+        User updated = new User(1L, "user1@mail.com", "Renamed", "hashed_pass_1", user1WithPass.getCreatedAt(), user1WithPass.getAddresses());
+        when(userRepository.update(eq(1L), any(User.class))).thenReturn(Optional.of(updated));
+        when(userRepository.findVersionedById(1L)).thenReturn(Optional.of(new Versioned<>(updated, 4L)));
+        userService.updateUser(1L, new User());
+
+        assertEquals("Renamed", userService.findUserById(1L).orElseThrow().getName(), "La escritura debería invalidar la entrada");
+        verify(userRepository, times(2)).findVersionedById(1L);
+    }
+
+    @Test
+    void testFindUserByEmail() {
+        when(userRepository.findByEmail("user1@mail.com")).thenReturn(Optional.of(user1WithPass));
+
+        Optional<User> foundUser = userService.findUserByEmail("user1@mail.com");
+
+        assertTrue(foundUser.isPresent(), "El usuario debería encontrarse por email");
+        assertNull(foundUser.get().getPassword(), "La contraseña debería ser nula (removida por el servicio)");
+        verify(userRepository, never()).findAll();
     }
 
     @Test
@@ -136,7 +222,7 @@ class UserServiceTest {
         updates.setEmail("updated@mail.com");
         updates.setPassword("new_raw_pass");
 
-        User userAfterRepoUpdate = new User(1L, "updated@mail.com", "Updated Name", "new_hashed_pass", "01-01-2024 10:00:00", null);
+        User userAfterRepoUpdate = new User(1L, "updated@mail.com", "Updated Name", "new_hashed_pass", CreatedAtFormat.parse("01-01-2024 10:00:00"), null);
         when(userRepository.update(eq(1L), any(User.class))).thenReturn(Optional.of(userAfterRepoUpdate));
 
         Optional<User> updatedUser = userService.updateUser(1L, updates);
@@ -163,13 +249,14 @@ class UserServiceTest {
     @Test
     void testFindAddressesByUserId_Found() {
         List<Address> addresses = Arrays.asList(new Address(1L, "work", "street", "UK"));
-        when(userRepository.findAddressesByUserId(1L)).thenReturn(Optional.of(addresses));
+        User stored = new User(1L, "user1@mail.com", "User One", "hashed_pass_1", null, addresses);
+        when(userRepository.findVersionedById(1L)).thenReturn(Optional.of(new Versioned<>(stored, 1L)));
 
         Optional<List<Address>> foundAddresses = userService.findAddressesByUserId(1L);
 
         assertTrue(foundAddresses.isPresent(), "Debería encontrar las direcciones");
         assertFalse(foundAddresses.get().isEmpty(), "La lista de direcciones no debería estar vacía");
-        verify(userRepository, times(1)).findAddressesByUserId(1L);
+        verify(userRepository, times(1)).findVersionedById(1L);
     }
 
     @Test
@@ -185,4 +272,48 @@ class UserServiceTest {
         assertEquals("New Name", result.get().getName(), "El nombre de la dirección no coincide");
         verify(userRepository, times(1)).updateAddress(eq(1L), eq(10L), any(Address.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPatchUsers_GroupsByUserAndKeepsOrder() {
+        UserPatch rename = new UserPatch(1L, null, null, null, "Renamed", null, null, null);
+        UserPatch move = new UserPatch(2L, 11L, 5L, null, null, null, null, "NZ");
+        UserPatch street = new UserPatch(1L, 10L, null, null, null, null, "street Z", null);
+        UserPatch foreign = new UserPatch(1L, 11L, null, null, null, null, null, "NZ");
+        UserPatch conflicting = new UserPatch(2L, null, 6L, null, "Other", null, null, null);
+        when(userRepository.applyPatches(eq(1L), eq(List.of(rename, street, foreign)), eq(UserRepository.ANY_VERSION)))
+                .thenReturn(Optional.of(new Versioned<>(user1WithPass, 9L)));
+
+        BatchPatchResult result;
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            result = new UserService(userRepository, userJsonCache, userReadCache, pool)
+                    .patchUsers(List.of(rename, move, street, foreign, conflicting, new UserPatch()));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Una llamada al repositorio por usuario; el usuario 2 pide dos versiones distintas y no llega a aplicarse
+        verify(userRepository, times(1)).applyPatches(any(), any(), anyLong());
+        assertEquals(List.of(200, 412, 200, 404, 412, 400),
+                result.getResults().stream().map(BatchPatchResult.Item::getStatus).toList());
+        assertEquals(9L, result.getResults().get(0).getVersion());
+        assertEquals(2, result.getApplied());
+    }
+
+    @Test
+    void testPatchUsers_InvalidatesReadCache() {
+        when(userRepository.findVersionedById(1L)).thenReturn(Optional.of(new Versioned<>(user1WithPass, 1L)));
+        UserPatch rename = new UserPatch(1L, null, 1L, null, "Renamed", null, null, null);
+        when(userRepository.applyPatches(1L, List.of(rename), 1L)).thenThrow(new VersionMismatchException(1L, 2L));
+        UserService service = new UserService(userRepository, userJsonCache, userReadCache, ForkJoinPool.commonPool());
+        service.findUserById(1L);
+
+        BatchPatchResult result = service.patchUsers(List.of(rename));
+        assertEquals(412, result.getResults().get(0).getStatus());
+        assertTrue(userReadCache.getIfPresent(1L).isPresent(), "Un grupo rechazado no cambia nada ni invalida");
+
+        doReturn(Optional.of(new Versioned<>(user1WithPass, 2L))).when(userRepository).applyPatches(1L, List.of(rename), 1L);
+        service.patchUsers(List.of(rename));
+        assertTrue(userReadCache.getIfPresent(1L).isEmpty());
+    }
+}
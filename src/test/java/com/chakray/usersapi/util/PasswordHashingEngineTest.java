@@ -0,0 +1,86 @@
+package com.chakray.usersapi.util;
+
+import com.chakray.usersapi.exception.PasswordHashingOverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHashingEngineTest {
+
+    @Test
+    void testSha1_KnownVector() {
+        assertEquals("5baa61e4c9b93f3f0682250b6cf8331b7ee68fd8", PasswordHasher.hashSha1("password"));
+        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", PasswordHasher.hashSha1(""));
+    }
+
+    @Test
+    void testHexRoundTrip() {
+        byte[] bytes = {0, 1, 15, 16, (byte) 0x7f, (byte) 0x80, (byte) 0xff};
+        assertEquals("00010f107f80ff", PasswordHasher.toHex(bytes));
+        assertArrayEquals(bytes, PasswordHasher.fromHex("00010f107f80ff"));
+    }
+
+    @Test
+    void testPbkdf2_SaltedAndVerifiable() {
+        Pbkdf2PasswordHashAlgorithm algorithm = new Pbkdf2PasswordHashAlgorithm(1_000);
+        String first = algorithm.hash("secret");
+        String second = algorithm.hash("secret");
+
+        assertTrue(first.startsWith("pbkdf2-sha256$1000$"));
+        assertNotEquals(first, second, "La sal aleatoria debe producir hashes distintos");
+        assertTrue(algorithm.matches("secret", first));
+        assertTrue(new Pbkdf2PasswordHashAlgorithm(5_000).matches("secret", first),
+                "El coste se lee del hash almacenado");
+        assertFalse(algorithm.matches("other", first));
+        assertFalse(algorithm.matches("secret", PasswordHasher.hashSha1("secret")));
+    }
+
+    @Test
+    void testHashAll_PreservesOrder() {
+        try (PasswordHashingEngine engine = new PasswordHashingEngine(new Pbkdf2PasswordHashAlgorithm(1), 3, 16)) {
+            List<String> passwords = IntStream.range(0, 100).mapToObj(i -> "pass" + i).toList();
+
+            List<String> hashes = engine.hashAll(passwords);
+
+            assertEquals(100, hashes.size());
+            for (int i = 0; i < passwords.size(); i++) {
+                assertTrue(engine.getAlgorithm().matches(passwords.get(i), hashes.get(i)), "El hash " + i + " no corresponde a su contraseña");
+            }
+        }
+    }
+
+    @Test
+    void testFullQueue_Rejects() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordHashAlgorithm blocking = new Sha1PasswordHashAlgorithm() {
+            @Override
+            public boolean isExpensive() {
+                return true;
+            }
+
+            @Override
+            public String hash(String password) {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.hash(password);
+            }
+        };
+        try (PasswordHashingEngine engine = new PasswordHashingEngine(blocking, 1, 1)) {
+            engine.hashAsync("running");
+            running.await();
+            engine.hashAsync("queued");
+
+            assertThrows(PasswordHashingOverloadedException.class, () -> engine.hash("rejected"));
+            release.countDown();
+        }
+    }
+}
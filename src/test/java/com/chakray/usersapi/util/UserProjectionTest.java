@@ -0,0 +1,55 @@
+package com.chakray.usersapi.util;
+
+import com.chakray.usersapi.exception.InvalidFieldsException;
+import com.chakray.usersapi.model.Address;
+import com.chakray.usersapi.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserProjectionTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final User user = new User(7L, "ana@mail.com", "Ana \"Núñez\"", "hash",
+            CreatedAtFormat.parse("01-01-2024 00:00:00"),
+            Arrays.asList(new Address(1L, "home", "calle 1", "ES"), new Address(2L, "work", null, "UK")));
+
+    @Test
+    void testAllFieldsMatchFullSerializationWithoutPassword() throws Exception {
+        UserProjection projection = UserProjection.of("id,email,name,createdAt,addresses");
+
+        ObjectNode expected = objectMapper.valueToTree(user);
+        expected.remove("password");
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(projection.apply(user)));
+    }
+
+    @Test
+    void testNestedAddressFields() throws Exception {
+        String json = objectMapper.writeValueAsString(UserProjection.of("addresses.countryCode, id").applyAll(List.of(user)));
+
+        assertEquals("[{\"id\":7,\"addresses\":[{\"countryCode\":\"ES\"},{\"countryCode\":\"UK\"}]}]", json);
+    }
+
+    @Test
+    void testCompiledOncePerFieldSet() {
+        UserProjection projection = UserProjection.of("id,email");
+
+        assertSame(projection, UserProjection.of(" email ,id"), "El orden y los espacios no deberían compilar otra proyección");
+        assertSame(projection, UserProjection.of("id,email,id"));
+        assertNotSame(projection, UserProjection.of("id"));
+        assertNull(UserProjection.of(" "), "Sin campos no hay proyección");
+    }
+
+    @Test
+    void testUnknownFieldsRejected() {
+        assertThrows(InvalidFieldsException.class, () -> UserProjection.of("id,password"));
+        assertThrows(InvalidFieldsException.class, () -> UserProjection.of("addresses.zip"));
+        assertThrows(InvalidFieldsException.class, () -> UserProjection.of("id,,email"));
+    }
+}